@@ -0,0 +1,512 @@
+package com.github.paulpv.helloblescanner
+
+/**
+ * A lazily decoded view of the AD structures of a raw BLE advertisement (plus scan response), walked in place.
+ *
+ * Replaces android.bluetooth.le.ScanRecord.parseFromBytes, which is hidden (so has to be called through reflection) and
+ * copies everything into maps, lists, and ParcelUuids.
+ * [wrap] only keeps a reference to the bytes. The structures are walked the first time anything is accessed, recording
+ * only the type, offset, and length of each AD structure, packed into one Int each, and each decoded field ([flags],
+ * [txPowerLevel], [getName], [manufacturerId], the 16-bit service UUIDs) is decoded the first time it is accessed and
+ * memoized until the next [wrap]. So the cost scales with what is actually read, and a payload that is never read is
+ * never walked.
+ * Every other accessor is a view (an offset and length into [bytes]) or a primitive read from it, so once an instance
+ * has grown to the most structures it has seen it never allocates (except for the convenience [getName]).
+ *
+ * Has no Android dependencies, so it runs (and is benchmarked) on a plain JVM.
+ *
+ * Not thread safe; [wrap]/[parse] may be called again on the same instance to reuse it.
+ *
+ * AD structure format (Core Spec Vol 3, Part C, Section 11): length (1 byte, includes the type), type (1 byte), data.
+ * A length of 0 ends the significant part (the rest is zero padding).
+ */
+class AdvertisingData {
+    companion object {
+        //
+        // AD types; https://www.bluetooth.com/specifications/assigned-numbers/generic-access-profile/
+        //
+        const val TYPE_FLAGS = 0x01
+        const val TYPE_SERVICE_UUIDS_16_BIT_INCOMPLETE = 0x02
+        const val TYPE_SERVICE_UUIDS_16_BIT_COMPLETE = 0x03
+        const val TYPE_SERVICE_UUIDS_32_BIT_INCOMPLETE = 0x04
+        const val TYPE_SERVICE_UUIDS_32_BIT_COMPLETE = 0x05
+        const val TYPE_SERVICE_UUIDS_128_BIT_INCOMPLETE = 0x06
+        const val TYPE_SERVICE_UUIDS_128_BIT_COMPLETE = 0x07
+        const val TYPE_LOCAL_NAME_SHORT = 0x08
+        const val TYPE_LOCAL_NAME_COMPLETE = 0x09
+        const val TYPE_TX_POWER_LEVEL = 0x0A
+        const val TYPE_SERVICE_DATA_16_BIT = 0x16
+        const val TYPE_SERVICE_DATA_32_BIT = 0x20
+        const val TYPE_SERVICE_DATA_128_BIT = 0x21
+        const val TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF
+
+        const val FLAGS_NONE = -1
+        const val TX_POWER_LEVEL_NONE = Int.MIN_VALUE
+        const val MANUFACTURER_ID_ANY = -1
+
+        private const val INITIAL_CAPACITY = 8
+
+        /**
+         * Offsets are packed into 16 bits of [structures]; far more than the 1650 bytes of the largest (extended)
+         * advertisement
+         */
+        private const val BYTES_END_MAX = 0xFFFF
+
+        private val EMPTY_INTS = IntArray(0)
+
+        //
+        // Bits of [decoded]
+        //
+        private const val DECODED_STRUCTURES = 1
+        private const val DECODED_FLAGS = 1 shl 1
+        private const val DECODED_TX_POWER_LEVEL = 1 shl 2
+        private const val DECODED_NAME = 1 shl 3
+        private const val DECODED_MANUFACTURER_ID = 1 shl 4
+        private const val DECODED_SERVICE_UUIDS_16 = 1 shl 5
+
+        private const val FNV_64_OFFSET_BASIS = -0x340d631b7bdddcdbL // 0xcbf29ce484222325
+        private const val FNV_64_PRIME = 0x100000001b3L
+
+        /**
+         * A cheap, non-cryptographic 64-bit hash (FNV-1a) of a raw payload, to detect that it is unchanged without
+         * keeping a copy of it
+         */
+        fun hash(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size): Long {
+            var hash = FNV_64_OFFSET_BASIS
+            for (i in offset until offset + length) {
+                hash = (hash xor (bytes[i].toLong() and 0xFF)) * FNV_64_PRIME
+            }
+            return hash
+        }
+    }
+
+    /**
+     * The bytes of the last [wrap]; not copied, so the caller must not modify them while this is in use
+     */
+    var bytes: ByteArray? = null
+        private set
+
+    //
+    // The slice of [bytes] that holds the structures
+    //
+    var bytesOffset = 0
+        private set
+    var bytesLength = 0
+        private set
+
+    /**
+     * Bitmask of the DECODED_* that are valid for [bytes]
+     */
+    private var decoded = 0
+
+    /**
+     * Each structure as type shl 24 or data length shl 16 or data offset; allocated on the first walk
+     */
+    private var structures = EMPTY_INTS
+
+    private var _structureCount = 0
+    private var _isTruncated = false
+
+    //
+    // Memoized decoded fields; valid if their DECODED_* bit is set
+    //
+    private var _flags = FLAGS_NONE
+    private var _txPowerLevel = TX_POWER_LEVEL_NONE
+    private var _name: String? = null
+    private var _manufacturerId = MANUFACTURER_ID_ANY
+    private var serviceUuids16 = EMPTY_INTS
+    private var serviceUuids16Count = 0
+
+    val structureCount: Int
+        get() {
+            walk()
+            return _structureCount
+        }
+
+    /**
+     * true if the structures ended with one whose length ran past the end of the bytes; the structures before it are
+     * still available
+     */
+    val isTruncated: Boolean
+        get() {
+            walk()
+            return _isTruncated
+        }
+
+    /**
+     * Lazy: only keeps a reference to bytes and forgets everything decoded from the previous bytes
+     * @return this, for chaining
+     */
+    fun wrap(bytes: ByteArray?, offset: Int = 0, length: Int = bytes?.size ?: 0): AdvertisingData {
+        require(offset + length <= BYTES_END_MAX) { "offset + length must be <= $BYTES_END_MAX" }
+        this.bytes = bytes
+        bytesOffset = offset
+        bytesLength = length
+        decoded = 0
+        _name = null
+        return this
+    }
+
+    /**
+     * Eager: [wrap] and then walk the structures now
+     * @return this, for chaining
+     */
+    fun parse(bytes: ByteArray?, offset: Int = 0, length: Int = bytes?.size ?: 0): AdvertisingData {
+        wrap(bytes, offset, length)
+        walk()
+        return this
+    }
+
+    private fun walk() {
+        if (decoded and DECODED_STRUCTURES != 0) {
+            return
+        }
+        decoded = decoded or DECODED_STRUCTURES
+        _structureCount = 0
+        _isTruncated = false
+        val bytes = bytes ?: return
+        if (structures.isEmpty()) {
+            structures = IntArray(INITIAL_CAPACITY)
+        }
+        val end = bytesOffset + bytesLength
+        var position = bytesOffset
+        while (position < end) {
+            val structureLength = bytes[position].toInt() and 0xFF
+            if (structureLength == 0) {
+                break
+            }
+            val dataOffset = position + 2
+            val structureEnd = position + 1 + structureLength
+            if (structureEnd > end) {
+                _isTruncated = true
+                break
+            }
+            add(bytes[position + 1].toInt() and 0xFF, dataOffset, structureLength - 1)
+            position = structureEnd
+        }
+    }
+
+    private fun add(type: Int, dataOffset: Int, dataLength: Int) {
+        val count = _structureCount
+        if (count == structures.size) {
+            structures = structures.copyOf(count * 2)
+        }
+        structures[count] = (type shl 24) or (dataLength shl 16) or dataOffset
+        _structureCount = count + 1
+    }
+
+    //
+    // Structures
+    //
+
+    //
+    // The index of a structure comes from [indexOf] or one of the other indexOf*, or is < [structureCount]
+    //
+
+    fun getType(index: Int): Int = structures[index] ushr 24
+
+    /**
+     * @return the offset in [bytes] of the data (after the type) of the structure
+     */
+    fun getDataOffset(index: Int): Int = structures[index] and 0xFFFF
+
+    fun getDataLength(index: Int): Int = (structures[index] ushr 16) and 0xFF
+
+    /**
+     * @return the index of the first structure at or after fromIndex with the given type, or -1
+     */
+    fun indexOf(type: Int, fromIndex: Int = 0): Int {
+        for (i in fromIndex until structureCount) {
+            if (getType(i) == type) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    //
+    // Little endian primitive reads at absolute offsets into [bytes]
+    //
+
+    fun getInt8(offset: Int): Int = bytes!![offset].toInt()
+
+    fun getUInt8(offset: Int): Int = bytes!![offset].toInt() and 0xFF
+
+    fun getUInt16(offset: Int): Int {
+        val bytes = bytes!!
+        return (bytes[offset].toInt() and 0xFF) or
+                ((bytes[offset + 1].toInt() and 0xFF) shl 8)
+    }
+
+    fun getUInt32(offset: Int): Long {
+        val bytes = bytes!!
+        return ((bytes[offset].toLong() and 0xFF) or
+                ((bytes[offset + 1].toLong() and 0xFF) shl 8) or
+                ((bytes[offset + 2].toLong() and 0xFF) shl 16) or
+                ((bytes[offset + 3].toLong() and 0xFF) shl 24))
+    }
+
+    /**
+     * @return the 8 little endian bytes at offset as a Long, most significant byte last
+     */
+    private fun getInt64(offset: Int): Long {
+        return getUInt32(offset) or (getUInt32(offset + 4) shl 32)
+    }
+
+    //
+    // Big endian (network byte order) primitive reads at absolute offsets into [bytes]; used by most beacon formats
+    // inside of their manufacturer/service data
+    //
+
+    fun getUInt16BigEndian(offset: Int): Int {
+        val bytes = bytes!!
+        return ((bytes[offset].toInt() and 0xFF) shl 8) or
+                (bytes[offset + 1].toInt() and 0xFF)
+    }
+
+    /**
+     * @return the 8 big endian bytes at offset as a Long, most significant byte first
+     */
+    fun getInt64BigEndian(offset: Int): Long {
+        val bytes = bytes!!
+        var value = 0L
+        for (i in offset until offset + 8) {
+            value = (value shl 8) or (bytes[i].toLong() and 0xFF)
+        }
+        return value
+    }
+
+    //
+    // Flags and TX power
+    //
+
+    val flags: Int
+        get() {
+            if (decoded and DECODED_FLAGS == 0) {
+                decoded = decoded or DECODED_FLAGS
+                val index = indexOf(TYPE_FLAGS)
+                _flags = if (index < 0 || getDataLength(index) < 1) FLAGS_NONE else getUInt8(getDataOffset(index))
+            }
+            return _flags
+        }
+
+    /**
+     * In dBm
+     */
+    val txPowerLevel: Int
+        get() {
+            if (decoded and DECODED_TX_POWER_LEVEL == 0) {
+                decoded = decoded or DECODED_TX_POWER_LEVEL
+                val index = indexOf(TYPE_TX_POWER_LEVEL)
+                _txPowerLevel =
+                    if (index < 0 || getDataLength(index) < 1) TX_POWER_LEVEL_NONE else bytes!![getDataOffset(index)].toInt()
+            }
+            return _txPowerLevel
+        }
+
+    //
+    // Name
+    //
+
+    /**
+     * @return the index of the complete local name structure, else the short one, else -1
+     */
+    val nameIndex: Int
+        get() {
+            val index = indexOf(TYPE_LOCAL_NAME_COMPLETE)
+            return if (index >= 0) index else indexOf(TYPE_LOCAL_NAME_SHORT)
+        }
+
+    /**
+     * Allocates the first time it is called for a payload; prefer comparing [nameIndex]'s view when possible
+     */
+    fun getName(): String? {
+        if (decoded and DECODED_NAME == 0) {
+            decoded = decoded or DECODED_NAME
+            val index = nameIndex
+            _name = if (index < 0) null else String(bytes!!, getDataOffset(index), getDataLength(index), Charsets.UTF_8)
+        }
+        return _name
+    }
+
+    //
+    // Service UUIDs
+    //
+
+    /**
+     * The number of 16-bit service UUIDs, complete or not
+     */
+    val serviceUuid16Count: Int
+        get() {
+            decodeServiceUuids16()
+            return serviceUuids16Count
+        }
+
+    fun getServiceUuid16(index: Int): Int {
+        decodeServiceUuids16()
+        return serviceUuids16[index]
+    }
+
+    private fun decodeServiceUuids16() {
+        if (decoded and DECODED_SERVICE_UUIDS_16 != 0) {
+            return
+        }
+        decoded = decoded or DECODED_SERVICE_UUIDS_16
+        serviceUuids16Count = 0
+        containsServiceUuid(TYPE_SERVICE_UUIDS_16_BIT_INCOMPLETE, TYPE_SERVICE_UUIDS_16_BIT_COMPLETE, 2) {
+            if (serviceUuids16Count == serviceUuids16.size) {
+                serviceUuids16 = serviceUuids16.copyOf(maxOf(serviceUuids16Count * 2, INITIAL_CAPACITY))
+            }
+            serviceUuids16[serviceUuids16Count++] = getUInt16(it)
+            false
+        }
+    }
+
+    fun containsServiceUuid16(uuid16: Int): Boolean {
+        decodeServiceUuids16()
+        for (i in 0 until serviceUuids16Count) {
+            if (serviceUuids16[i] == uuid16) {
+                return true
+            }
+        }
+        return false
+    }
+
+    fun containsServiceUuid32(uuid32: Long): Boolean {
+        return containsServiceUuid(TYPE_SERVICE_UUIDS_32_BIT_INCOMPLETE, TYPE_SERVICE_UUIDS_32_BIT_COMPLETE, 4) {
+            getUInt32(it) == uuid32
+        }
+    }
+
+    /**
+     * @param mostSignificantBits as in java.util.UUID
+     * @param leastSignificantBits as in java.util.UUID
+     */
+    fun containsServiceUuid128(mostSignificantBits: Long, leastSignificantBits: Long): Boolean {
+        return containsServiceUuid(TYPE_SERVICE_UUIDS_128_BIT_INCOMPLETE, TYPE_SERVICE_UUIDS_128_BIT_COMPLETE, 16) {
+            isUuid128At(it, mostSignificantBits, leastSignificantBits)
+        }
+    }
+
+    private inline fun containsServiceUuid(
+        typeIncomplete: Int,
+        typeComplete: Int,
+        uuidLength: Int,
+        matches: (offset: Int) -> Boolean
+    ): Boolean {
+        for (i in 0 until structureCount) {
+            val type = getType(i)
+            if (type != typeIncomplete && type != typeComplete) {
+                continue
+            }
+            val dataOffset = getDataOffset(i)
+            val count = getDataLength(i) / uuidLength
+            for (j in 0 until count) {
+                if (matches(dataOffset + j * uuidLength)) {
+                    return true
+                }
+            }
+        }
+        return false
+    }
+
+    /**
+     * 128-bit UUIDs are little endian on the air
+     */
+    private fun isUuid128At(offset: Int, mostSignificantBits: Long, leastSignificantBits: Long): Boolean {
+        return getInt64(offset) == leastSignificantBits && getInt64(offset + 8) == mostSignificantBits
+    }
+
+    //
+    // Service data; the data of these structures starts with the UUID, the payload follows it
+    //
+
+    fun indexOfServiceData16(uuid16: Int): Int {
+        for (i in 0 until structureCount) {
+            if (getType(i) == TYPE_SERVICE_DATA_16_BIT && getDataLength(i) >= 2 && getUInt16(getDataOffset(i)) == uuid16) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    fun indexOfServiceData32(uuid32: Long): Int {
+        for (i in 0 until structureCount) {
+            if (getType(i) == TYPE_SERVICE_DATA_32_BIT && getDataLength(i) >= 4 && getUInt32(getDataOffset(i)) == uuid32) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    fun indexOfServiceData128(mostSignificantBits: Long, leastSignificantBits: Long): Int {
+        for (i in 0 until structureCount) {
+            if (getType(i) == TYPE_SERVICE_DATA_128_BIT && getDataLength(i) >= 16 &&
+                isUuid128At(getDataOffset(i), mostSignificantBits, leastSignificantBits)
+            ) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    private fun getServiceDataUuidLength(index: Int): Int {
+        return when (getType(index)) {
+            TYPE_SERVICE_DATA_16_BIT -> 2
+            TYPE_SERVICE_DATA_32_BIT -> 4
+            TYPE_SERVICE_DATA_128_BIT -> 16
+            else -> throw IllegalArgumentException("structure $index is not service data")
+        }
+    }
+
+    /**
+     * @return the offset in [bytes] of the payload (after the UUID) of the service data structure
+     */
+    fun getServiceDataOffset(index: Int): Int = getDataOffset(index) + getServiceDataUuidLength(index)
+
+    fun getServiceDataLength(index: Int): Int = getDataLength(index) - getServiceDataUuidLength(index)
+
+    //
+    // Manufacturer specific data; the data of these structures starts with the 16-bit company identifier
+    //
+
+    /**
+     * @param manufacturerId [MANUFACTURER_ID_ANY] to match the first manufacturer specific data structure
+     */
+    fun indexOfManufacturerData(manufacturerId: Int = MANUFACTURER_ID_ANY, fromIndex: Int = 0): Int {
+        for (i in fromIndex until structureCount) {
+            if (getType(i) == TYPE_MANUFACTURER_SPECIFIC_DATA && getDataLength(i) >= 2 &&
+                (manufacturerId == MANUFACTURER_ID_ANY || getUInt16(getDataOffset(i)) == manufacturerId)
+            ) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    fun getManufacturerId(index: Int): Int = getUInt16(getDataOffset(index))
+
+    /**
+     * The company identifier of the first manufacturer specific data structure, or [MANUFACTURER_ID_ANY] if there is none
+     */
+    val manufacturerId: Int
+        get() {
+            if (decoded and DECODED_MANUFACTURER_ID == 0) {
+                decoded = decoded or DECODED_MANUFACTURER_ID
+                val index = indexOfManufacturerData()
+                _manufacturerId = if (index < 0) MANUFACTURER_ID_ANY else getManufacturerId(index)
+            }
+            return _manufacturerId
+        }
+
+    /**
+     * @return the offset in [bytes] of the payload (after the company identifier) of the manufacturer data structure
+     */
+    fun getManufacturerDataOffset(index: Int): Int = getDataOffset(index) + 2
+
+    fun getManufacturerDataLength(index: Int): Int = getDataLength(index) - 2
+
+    override fun toString(): String {
+        return "{ structureCount=$structureCount, isTruncated=$isTruncated }"
+    }
+}
@@ -1,105 +1,32 @@
 package com.github.paulpv.helloblescanner
 
-import android.bluetooth.BluetoothDevice
-import android.bluetooth.le.ScanRecord
-import com.github.paulpv.helloblescanner.utils.LowPassFilter
+import com.github.paulpv.helloblescanner.decoders.AdvertisingDecoders
+import com.github.paulpv.helloblescanner.proximity.ProximityZone
+import com.github.paulpv.helloblescanner.scanners.AdvertisementEvent
+import com.github.paulpv.helloblescanner.scanners.ScanSession
+import com.github.paulpv.helloblescanner.utils.MacAddress
+import com.github.paulpv.helloblescanner.utils.MacAddressCodec
+import com.github.paulpv.helloblescanner.utils.RssiHistory
+import com.github.paulpv.helloblescanner.utils.RssiSmoothingState
 import com.github.paulpv.helloblescanner.utils.Utils
-import java.lang.reflect.InvocationTargetException
 
 class BleScanResult {
     companion object {
-        private val TAG = Utils.TAG(BleScanResult::class)
+        private const val PAYLOAD_LENGTH_NEVER = -2
 
-        //private val deviceInfoPool = ArrayQueue<DeviceInfo>("DeviceInfoPool")
+        const val BATTERY_PERCENT_NONE = -1
+        const val BATTERY_MILLIVOLTS_NONE = -1
 
-        /**
-         * NOTE:(pv) It is possible for device.name to return null even though the scan says otherwise
-         * @return scanResult.device.name or scanResult.scanRecord.deviceName or device.address
-         */
-        fun getDeviceNameOrScanRecordName(scanResult: android.bluetooth.le.ScanResult): String {
-            val device = scanResult.device
-            var deviceName: String? = device.name
-            if (deviceName != null) {
-                return deviceName
-            }
-            //Log.w(TAG, "getDeviceName: UNEXPECTED scanResult.device.name == null")
-            val scanRecord = scanResult.scanRecord
-            if (scanRecord != null) {
-                deviceName = scanRecord.deviceName
-                if (deviceName != null) {
-                    return deviceName
-                }
-                //Log.w(TAG, "getDeviceName: UNEXPECTED scanResult.scanRecord.deviceName == null")
-            } else {
-                //Log.w(TAG, "getDeviceName: UNEXPECTED scanResult.scanRecord == null")
-            }
-            deviceName = device.address
-            return deviceName
-        }
+        //
+        // Values of [beaconType]
+        //
+        const val BEACON_TYPE_NONE = 0
+        const val BEACON_TYPE_IBEACON = 1
+        const val BEACON_TYPE_EDDYSTONE_UID = 2
+        const val BEACON_TYPE_EDDYSTONE_URL = 3
+        const val BEACON_TYPE_EDDYSTONE_EID = 4
 
-        /**
-         * NOTE:(pv) It is possible for device.name to return null even though the scan says otherwise
-         * @return scanResult.device.name or scanResult.scanRecord.deviceName or device.address
-         */
-        fun getDeviceNameOrScanRecordName(scanResult: no.nordicsemi.android.support.v18.scanner.ScanResult): String {
-            val device = scanResult.device
-            var deviceName: String? = device.name
-            if (deviceName != null) {
-                return deviceName
-            }
-            //Log.w(TAG, "getDeviceName: UNEXPECTED scanResult.device.name == null")
-            val scanRecord = scanResult.scanRecord
-            if (scanRecord != null) {
-                deviceName = scanRecord.deviceName
-                if (deviceName != null) {
-                    return deviceName
-                }
-                //Log.w(TAG, "getDeviceName: UNEXPECTED scanResult.scanRecord.deviceName == null")
-            } else {
-                //Log.w(TAG, "getDeviceName: UNEXPECTED scanResult.scanRecord == null")
-            }
-            deviceName = device.address
-            return deviceName
-        }
-
-        fun scanRecordFromBytes(scanResult: no.nordicsemi.android.support.v18.scanner.ScanResult): ScanRecord? {
-            return scanRecordFromBytes(scanResult.scanRecord)
-        }
-
-        fun scanRecordFromBytes(scanRecord: no.nordicsemi.android.support.v18.scanner.ScanRecord?): ScanRecord? {
-            return scanRecordFromBytes(scanRecord?.bytes)
-        }
-
-        /**
-         * public static ScanRecord parseFromBytes(byte[] scanRecord) is annotated with @hide.
-         * To call this methods I see two options:
-         * 1) use reflection to call parseFromBytes
-         * 2) copy the non-trivial code
-         * For now I am choosing option #1.
-         * If that stops working I will choose option #2.
-         *
-         * @param scanRecordBytes
-         * @return ScanRecord?
-         */
-        fun scanRecordFromBytes(scanRecordBytes: ByteArray?): ScanRecord? {
-            if (scanRecordBytes == null) {
-                return null
-            }
-            // TODO:(pv) Use Kotlin KClass reflection instead of Java Class reflection?
-            val method = try {
-                ScanRecord::class.java.getDeclaredMethod("parseFromBytes", ByteArray::class.java)
-            } catch (e: NoSuchMethodException) {
-                return null
-            }
-            method.isAccessible = true
-            return try {
-                method.invoke(null, scanRecordBytes) as ScanRecord
-            } catch (e: IllegalAccessException) {
-                return null
-            } catch (e: InvocationTargetException) {
-                return null
-            }
-        }
+        //private val deviceInfoPool = ArrayQueue<DeviceInfo>("DeviceInfoPool")
 
         /*
         fun newInstance(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>, bleDevice: BleDevice?): DeviceInfo {
@@ -170,63 +97,138 @@ class BleScanResult {
         */
     }
 
-    constructor(
-        scanResult: android.bluetooth.le.ScanResult,
-        rssiSmoothedCurrent: Int = 0
-    ) : this(
-        scanResult.device,
-        scanResult.scanRecord,
-        getDeviceNameOrScanRecordName(scanResult),
-        scanResult.rssi,
-        rssiSmoothedCurrent
-    )
-
-    constructor(
-        scanResult: no.nordicsemi.android.support.v18.scanner.ScanResult,
-        rssiSmoothedCurrent: Int = 0
-    ) : this(
-        scanResult.device,
-        scanRecordFromBytes(scanResult),
-        getDeviceNameOrScanRecordName(scanResult),
-        scanResult.rssi,
-        rssiSmoothedCurrent
-    )
-
-    constructor(
-        device: com.idevicesinc.sweetblue.BleDevice,
-        rssiSmoothedCurrent: Int = 0
-    ) : this(
-        device.native,
-        scanRecordFromBytes(device.scanRecord),
-        device.name_normalized,
-        device.rssi,
-        rssiSmoothedCurrent
-    )
-
-    constructor(
-        device: BluetoothDevice,
-        scanRecord: ScanRecord?,
-        name: String,
-        rssi: Int,
-        rssiSmoothedCurrent: Int = 0
-    ) {
-        this.device = device
-        this.macAddress = device.address
-        this.macAddressLong = Utils.macAddressStringToLong(macAddress)
-        this.scanRecord = scanRecord
-        this.name = name
-        this.rssi = rssi
-        this.rssiSmoothedCurrent = rssiSmoothedCurrent
-        update(device, scanRecord, name, rssi)
+    /**
+     * @param event only read during this call
+     */
+    constructor(event: AdvertisementEvent, session: ScanSession = ScanSession.DEFAULT) {
+        this.macAddressLong = event.macAddressLong
+        this.name = macAddress
+        this.rssi = event.rssi
+        update(event, session)
     }
 
-    val macAddress: String
     val macAddressLong: Long
 
-    var device: BluetoothDevice
+    val mac: MacAddress
+        get() = MacAddress(macAddressLong)
+
+    /**
+     * Formatted (and cached) from [macAddressLong]; prefer that on hot paths
+     */
+    val macAddress: String
+        get() = MacAddressCodec.format(macAddressLong)
+
+    /**
+     * A lazily decoded view of the AD structures of the payload (the advertisement plus scan response bytes) of the last
+     * update; reused (rewrapped) when the payload changes, and nothing is decoded until something reads it. It is the
+     * only reference held to the payload (shared with other devices through the session's [ScanSession.payloadPool], if
+     * any), which must not be modified.
+     */
+    val advertisingData = AdvertisingData()
+
+    //
+    // The hash and length of the last parsed payload; -1 length if there was none, [PAYLOAD_LENGTH_NEVER] before the
+    // first update
+    //
+    private var payloadHash = 0L
+    private var payloadLength = PAYLOAD_LENGTH_NEVER
+
+    /**
+     * true if the last update's payload differed from the one before it (and so was parsed); false if only the RSSI
+     * (and timestamps) changed, so listeners can ignore it
+     */
+    var isPayloadChanged = false
+        private set
+
+    /**
+     * true if [name] is the MAC address because [ScanSession.nameCache] had no name for the device yet; it is then asked
+     * again on every update, not just when the payload changes
+     */
+    private var isNameUnresolved = false
+
+    //
+    // Decoded from the payload by the AdvertisingDecoders every time it changes (if it has a structure that a decoder is
+    // registered for; see AdvertisingDecoders for why this is eager); *_NONE if no decoder has found them yet.
+    // NOTE:(pv) Not reset when the payload changes: each keeps its last value until a decoder replaces it, since a
+    // device's frames often carry different fields (ie: Eddystone TLM frames, with the battery, are interleaved with the
+    // UID/URL/EID frames, with the beacon identity), and clearing them every frame would make them flap
+    //
+
+    var batteryPercent = BATTERY_PERCENT_NONE
+        internal set
+    var batteryMillivolts = BATTERY_MILLIVOLTS_NONE
+        internal set
+
+    /**
+     * BEACON_TYPE_*; the beacon* fields are only meaningful if this is not [BEACON_TYPE_NONE]
+     */
+    var beaconType = BEACON_TYPE_NONE
+        private set
+
+    /**
+     * iBeacon proximity UUID, Eddystone-UID namespace and instance, or Eddystone-EID ephemeral id (most significant bits
+     * only), as the two halves of a 128-bit id
+     */
+    var beaconIdMostSignificantBits = 0L
+        private set
+    var beaconIdLeastSignificantBits = 0L
+        private set
+
+    //
+    // iBeacon only
+    //
+    var beaconMajor = 0
+        private set
+    var beaconMinor = 0
+        private set
+
+    /**
+     * In dBm; iBeacon measured power at 1m, or Eddystone TX power at 0m; [AdvertisingData.TX_POWER_LEVEL_NONE] if none
+     */
+    var beaconTxPowerCalibrated = AdvertisingData.TX_POWER_LEVEL_NONE
         private set
-    var scanRecord: ScanRecord?
+
+    /**
+     * Replaces all of the beacon* fields at once, so that a beacon of one type never keeps fields of another
+     */
+    internal fun setBeacon(
+        type: Int,
+        idMostSignificantBits: Long,
+        idLeastSignificantBits: Long,
+        major: Int,
+        minor: Int,
+        txPowerCalibrated: Int
+    ) {
+        beaconType = type
+        beaconIdMostSignificantBits = idMostSignificantBits
+        beaconIdLeastSignificantBits = idLeastSignificantBits
+        beaconMajor = major
+        beaconMinor = minor
+        beaconTxPowerCalibrated = txPowerCalibrated
+    }
+
+    /**
+     * In dBm, as reported by the controller; [AdvertisementEvent.TX_POWER_NONE] if not
+     */
+    var txPower = AdvertisementEvent.TX_POWER_NONE
         private set
+
+    /**
+     * AdvertisementEvent.FLAG_*
+     */
+    private var eventFlags = 0
+
+    /**
+     * null if not known (API < 26)
+     */
+    val isConnectable: Boolean?
+        get() = if (eventFlags and AdvertisementEvent.FLAG_CONNECTABLE_KNOWN == 0) null else
+            eventFlags and AdvertisementEvent.FLAG_CONNECTABLE != 0
+
+    @Suppress("unused")
+    val isLegacy: Boolean
+        get() = eventFlags and AdvertisementEvent.FLAG_LEGACY != 0
+
     var name: String
         private set
 
@@ -235,10 +237,63 @@ class BleScanResult {
         private set
 
     val rssiSmoothed: Int
-        get() = rssiSmoothedCurrent
+        get() = rssiSmoothing.smoothed
+
+    /**
+     * [rssiSmoothed] before rounding
+     */
+    val rssiSmoothedEstimate: Double
+        get() = rssiSmoothing.estimate
+
+    private val rssiSmoothing = RssiSmoothingState()
+
+    //
+    // Set by the ProximityEngine of the scanner session, if any
+    //
+
+    /**
+     * NaN if unknown
+     */
+    var distanceMeters = Double.NaN
+        private set
+    var proximityZone = ProximityZone.Unknown
+        private set
+
+    internal fun setProximity(distanceMeters: Double, proximityZone: ProximityZone) {
+        this.distanceMeters = distanceMeters
+        this.proximityZone = proximityZone
+    }
 
-    private var rssiSmoothedCurrent: Int = 0
-    private var rssiSmoothedPrevious: Int = 0
+    /**
+     * The last samples of [rssi] and their rolling statistics; null (the default, so memory stays bounded by the
+     * devices that need it) until [enableRssiHistory]. Readable from any thread.
+     */
+    @Volatile
+    var rssiHistory: RssiHistory? = null
+        private set
+
+    /**
+     * Any thread; starts recording from the next update, and keeps the existing history if already enabled
+     * @return the history
+     */
+    fun enableRssiHistory(capacity: Int = RssiHistory.DEFAULT_CAPACITY): RssiHistory {
+        synchronized(this) {
+            var rssiHistory = rssiHistory
+            if (rssiHistory == null) {
+                rssiHistory = RssiHistory(capacity)
+                this.rssiHistory = rssiHistory
+            }
+            return rssiHistory
+        }
+    }
+
+    /**
+     * Any thread
+     */
+    @Suppress("unused")
+    fun disableRssiHistory() {
+        rssiHistory = null
+    }
 
     /**
      * The default Kotlin impl does not show the hashCode address; this one does.
@@ -253,61 +308,55 @@ class BleScanResult {
                 ")"
     }
 
-    fun update(scanResult: android.bluetooth.le.ScanResult): Boolean {
-        return update(
-            scanResult.device,
-            scanResult.scanRecord,
-            getDeviceNameOrScanRecordName(scanResult),
-            scanResult.rssi
-        )
-    }
-
-    fun update(scanResult: no.nordicsemi.android.support.v18.scanner.ScanResult): Boolean {
-        return update(
-            scanResult.device,
-            scanRecordFromBytes(scanResult),
-            getDeviceNameOrScanRecordName(scanResult),
-            scanResult.rssi
-        )
-    }
-
-    fun update(device: com.idevicesinc.sweetblue.BleDevice): Boolean {
-        return update(
-            device.native,
-            scanRecordFromBytes(device.scanRecord),
-            device.name_normalized,
-            device.rssi
-        )
-    }
-
-    fun update(
-        device: BluetoothDevice,
-        scanRecord: ScanRecord?,
-        name: String,
-        rssi: Int
-    ): Boolean {
-        this.device = device
-        this.scanRecord = scanRecord
-        this.name = name
-
-        @Suppress("NAME_SHADOWING") var rssi = rssi
-
-        //Log.e(TAG, "#FLAB ${scanResult.bleDevice.macAddress} update: BEFORE rssi=$rssi")
-        //Log.e(TAG, "#FLAB ${scanResult.bleDevice.macAddress} update: BEFORE rssiSmoothedCurrent=$rssiSmoothedCurrent")
-        //Log.e(TAG, "#FLAB ${scanResult.bleDevice.macAddress} update: BEFORE rssiSmoothedPrevious=$rssiSmoothedPrevious")
-        if (rssi != 0) {
-            if (rssiSmoothedCurrent != 0) {
-                rssi = LowPassFilter.update(rssi.toLong(), rssiSmoothedCurrent.toLong()).toInt()
+    /**
+     * @param event only read during this call; its name, if null, is resolved through the session's
+     * [ScanSession.nameCache] only when the advertised local name changes (or until the cache has a name for the device),
+     * else (without a cache) it is the advertised local name or the MAC address
+     * @param session switching to one with a different [ScanSession.rssiSmoother] restarts the smoothing
+     * @return true if [rssiSmoothed] changed
+     */
+    fun update(event: AdvertisementEvent, session: ScanSession = ScanSession.DEFAULT): Boolean {
+        // NOTE:(pv) Most advertisements from a device are byte for byte identical to its previous one; only parse (and
+        // hold on to) the new bytes if they differ
+        val payload = event.payload
+        val payloadLength = if (payload == null) -1 else event.payloadLength
+        val payloadHash = if (payload == null) 0L else AdvertisingData.hash(payload, event.payloadOffset, payloadLength)
+        isPayloadChanged = payloadLength != this.payloadLength || payloadHash != this.payloadHash
+        if (isPayloadChanged) {
+            this.payloadLength = payloadLength
+            this.payloadHash = payloadHash
+            val payloadPool = session.payloadPool
+            if (payload == null || payloadPool == null) {
+                advertisingData.wrap(payload, event.payloadOffset, event.payloadLength)
+            } else {
+                advertisingData.wrap(payloadPool.obtain(payloadHash, payload, event.payloadOffset, payloadLength))
             }
+            AdvertisingDecoders.decode(advertisingData, this)
         }
-        rssiSmoothedPrevious = rssiSmoothedCurrent
-        val changed = rssiSmoothedPrevious != rssi
-        rssiSmoothedCurrent = rssi
-
-        //Log.e(TAG, "#FLAB ${scanResult.bleDevice.macAddress} update: AFTER rssi=$rssi")
-        //Log.e(TAG, "#FLAB ${scanResult.bleDevice.macAddress} update: AFTER rssiSmoothedCurrent=$rssiSmoothedCurrent")
-        //Log.e(TAG, "#FLAB ${scanResult.bleDevice.macAddress} update: AFTER rssiSmoothedPrevious=$rssiSmoothedPrevious")
-
+        val name = event.name
+        if (name != null) {
+            this.name = name
+            isNameUnresolved = false
+        } else if (isPayloadChanged || isNameUnresolved) {
+            // NOTE:(pv) The advertised name can only change if the payload did; the OS's name can appear at any time
+            val nameCache = session.nameCache
+            if (nameCache != null) {
+                val resolved = nameCache.resolve(macAddressLong, advertisingData, event.timestampNanos)
+                isNameUnresolved = resolved == null
+                this.name = resolved ?: macAddress
+            } else {
+                isNameUnresolved = false
+                this.name = advertisingData.getName() ?: macAddress
+            }
+        }
+        txPower = event.txPower
+        eventFlags = event.flags
+        val rssi = event.rssi
+        val timestampNanos = event.timestampNanos
+        this.rssi = rssi
+        rssiHistory?.add(rssi, timestampNanos)
+        val changed = rssiSmoothing.update(session.rssiSmoother, rssi, timestampNanos)
+        session.proximityEngine?.update(this)
         return changed
     }
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.collections.ExpiringIterableLongSparseArray
+import com.github.paulpv.helloblescanner.utils.MacAddressCodec
+import com.github.paulpv.helloblescanner.utils.Utils
+import java.util.*
+
+/**
+ * An immutable copy of the parts of a [BleScanResult] that the UI shows, taken when the scanner hands a result off to
+ * the UI.
+ *
+ * [BleScanResult]s are owned and updated in place by the scanner thread; the UI only ever sees [DeviceRow]s, so it never
+ * races with those writes and old vs new rows can be diffed with a few field compares.
+ *
+ * Rows are recycled through a small pool: a row must not be used after it has been passed to [release].
+ *
+ * A row can also be a group header (see [newHeader]); headers are owned by DevicesAdapter, are never pooled, and their
+ * [groupCount]/[groupCollapsed] are updated in place on the main thread.
+ */
+class DeviceRow private constructor() {
+    companion object {
+        private val TAG = Utils.TAG(DeviceRow::class)
+
+        //
+        // Bits of [getChanges]; also used as the RecyclerView change payload
+        //
+        const val CHANGED_NAME = 1
+        const val CHANGED_RSSI = 1 shl 1
+        const val CHANGED_RSSI_SMOOTHED = 1 shl 2
+        const val CHANGED_TIMES = 1 shl 3
+        const val CHANGED_GROUP = 1 shl 4
+        const val CHANGED_BATTERY = 1 shl 5
+        const val CHANGED_ALL =
+            CHANGED_NAME or CHANGED_RSSI or CHANGED_RSSI_SMOOTHED or CHANGED_TIMES or CHANGED_BATTERY
+
+        private const val POOL_SIZE_MAX = 64
+
+        /**
+         * Set in the [macAddressLong] of header rows; MAC addresses only use the bottom 48 bits
+         */
+        const val HEADER_KEY_FLAG = 1L shl 62
+
+        /**
+         * @param id unique per header
+         * @param oui the OUI of the group, if grouped by OUI
+         * @param name the text of the header, and the name of the group if grouped by name
+         */
+        fun newHeader(id: Long, oui: Long, name: String): DeviceRow {
+            val row = DeviceRow()
+            row.isHeader = true
+            row.macAddressLong = HEADER_KEY_FLAG or id
+            row.headerOui = oui
+            row.name = name
+            return row
+        }
+
+        /**
+         * Guarded by itself
+         */
+        private val pool = ArrayDeque<DeviceRow>(POOL_SIZE_MAX)
+
+        /**
+         * May be called from any thread
+         */
+        fun obtain(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>): DeviceRow {
+            val row = synchronized(pool) { pool.pollFirst() } ?: DeviceRow()
+            val scanResult = item.value
+            row.macAddressLong = scanResult.macAddressLong
+            row.name = scanResult.name
+            row.rssi = scanResult.rssi
+            row.rssiSmoothed = scanResult.rssiSmoothed
+            row.batteryPercent = scanResult.batteryPercent
+            row.addedUptimeMillis = item.addedUptimeMillis
+            row.lastUpdatedUptimeMillis = item.lastUpdatedUptimeMillis
+            row.timeoutMillis = item.timeoutMillis
+            return row
+        }
+
+        /**
+         * May be called from any thread; the caller must not use row after this
+         */
+        fun release(row: DeviceRow) {
+            row.name = ""
+            synchronized(pool) {
+                if (pool.size < POOL_SIZE_MAX) {
+                    pool.addFirst(row)
+                }
+            }
+        }
+
+        /**
+         * @return bitmask of CHANGED_* for the fields that differ between oldRow and newRow
+         */
+        fun getChanges(oldRow: DeviceRow, newRow: DeviceRow): Int {
+            var changes = 0
+            if (oldRow.name != newRow.name) {
+                changes = changes or CHANGED_NAME
+            }
+            if (oldRow.rssi != newRow.rssi) {
+                changes = changes or CHANGED_RSSI
+            }
+            if (oldRow.rssiSmoothed != newRow.rssiSmoothed) {
+                changes = changes or CHANGED_RSSI_SMOOTHED
+            }
+            if (oldRow.lastUpdatedUptimeMillis != newRow.lastUpdatedUptimeMillis ||
+                oldRow.addedUptimeMillis != newRow.addedUptimeMillis ||
+                oldRow.timeoutMillis != newRow.timeoutMillis
+            ) {
+                changes = changes or CHANGED_TIMES
+            }
+            if (oldRow.batteryPercent != newRow.batteryPercent) {
+                changes = changes or CHANGED_BATTERY
+            }
+            return changes
+        }
+    }
+
+    var macAddressLong: Long = 0
+        private set
+    /**
+     * Formatted (and cached) from [macAddressLong]
+     */
+    val macAddress: String
+        get() = MacAddressCodec.format(macAddressLong)
+    var name: String = ""
+        private set
+    var rssi: Int = 0
+        private set
+    var rssiSmoothed: Int = 0
+        private set
+    /**
+     * [BleScanResult.BATTERY_PERCENT_NONE] if the device does not advertise it
+     */
+    var batteryPercent: Int = BleScanResult.BATTERY_PERCENT_NONE
+        private set
+    var addedUptimeMillis: Long = 0
+        private set
+    var lastUpdatedUptimeMillis: Long = 0
+        private set
+    var timeoutMillis: Long = 0
+        private set
+
+    var isHeader: Boolean = false
+        private set
+    private var headerOui: Long = 0
+
+    /**
+     * The top 24 bits of the MAC address, or the OUI of the group for a header
+     */
+    val oui: Long
+        get() = if (isHeader) headerOui else macAddressLong ushr 24
+
+    /**
+     * Header only: the number of rows in the group
+     */
+    var groupCount: Int = 0
+
+    /**
+     * Header only: true if the rows of the group are hidden
+     */
+    var groupCollapsed: Boolean = false
+
+    override fun toString(): String {
+        if (isHeader) {
+            return Utils.getShortClassName(this) + "@" + Integer.toHexString(hashCode()) + "(" +
+                    "header=$name" +
+                    ", groupCount=$groupCount" +
+                    ", groupCollapsed=$groupCollapsed" +
+                    ")"
+        }
+        return Utils.getShortClassName(this) + "@" + Integer.toHexString(hashCode()) + "(" +
+                "macAddress=$macAddress" +
+                ", name=$name" +
+                ", rssi=$rssi" +
+                ", rssiSmoothed=$rssiSmoothed" +
+                ")"
+    }
+}
@@ -1,24 +1,43 @@
 package com.github.paulpv.helloblescanner
 
 import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
 import android.util.Log
+import android.view.Choreographer
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import androidx.annotation.LayoutRes
+import androidx.recyclerview.widget.AdapterListUpdateCallback
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
+import com.github.paulpv.helloblescanner.collections.IterableLongSparseArray
 import com.github.paulpv.helloblescanner.collections.SortedList
 import java.util.*
 
-class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView.Adapter<DevicesViewHolder>() {
+/**
+ * @param asyncDiff true to sort and diff items on a worker thread via [DevicesAsyncDiffer] and publish immutable
+ * snapshots to the main thread; false to mutate [SortedList] synchronously on the calling thread.
+ * @param frameCoalesce true to buffer [add]/[remove] calls from any thread, collapse them per MAC address, and apply
+ * them once per display frame; false to apply each call immediately.
+ */
+class DevicesAdapter(
+    var context: Context,
+    initialSortBy: SortBy,
+    asyncDiff: Boolean = false,
+    frameCoalesce: Boolean = false
+) :
+    RecyclerView.Adapter<BindableViewHolder<DeviceRow>>() {
     companion object {
         private val TAG = "DevicesAdapter"
 
-        private const val AUTO_UPDATE_ENABLE = false
-        private const val LOG_AUTO_UPDATE = true
+        private const val AUTO_UPDATE_ENABLE = true
+        private const val AUTO_UPDATE_INTERVAL_MILLIS = 1000L
+        private const val LOG_AUTO_UPDATE = false
 
-        private fun itemsToString(items: SortedList<BleScanResult>): String {
+        private fun itemsToString(items: SortedList<DeviceRow>): String {
             val sb = StringBuilder()
                 .append('[')
             val size = items.size()
@@ -34,6 +53,7 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
 
         private const val LOG_ADD = false
         private const val LOG_REMOVE = false
+        private const val LOG_FRAME = false
 
         private const val LOG_GET_ITEM_FROM_HOLDER = false
         private const val LOG_GET_ITEM_BY_INDEX = false
@@ -42,20 +62,24 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
         private const val LOG_MOVED = false
         private const val LOG_REMOVED = false
 
+        private const val VIEW_TYPE_DEVICE = 0
+        private const val VIEW_TYPE_GROUP_HEADER = 1
+
         private const val LOG_SORT_BY_ADDRESS = false
         private const val LOG_SORT_BY_NAME = false
         private const val LOG_SORT_BY_STRENGTH = false
         private const val LOG_SORT_BY_AGE = false
         private const val LOG_SORT_BY_TIMEOUT_REMAINING = false
 
-        private val SORT_BY_ADDRESS = object : Comparator<BleScanResult> {
-            override fun compare(o1: BleScanResult, o2: BleScanResult): Int {
+        private val SORT_BY_ADDRESS = object : Comparator<DeviceRow> {
+            override fun compare(o1: DeviceRow, o2: DeviceRow): Int {
                 @Suppress("ConstantConditionIf")
                 if (LOG_SORT_BY_ADDRESS) {
                     Log.e(TAG, "SORT_BY_ADDRESS o1=$o1")
                     Log.e(TAG, "SORT_BY_ADDRESS o2=$o2")
                 }
-                val resultAddress = o1.macAddress.compareTo(o2.macAddress)
+                // NOTE:(pv) Same order as comparing the Strings, without formatting them
+                val resultAddress = o1.macAddressLong.compareTo(o2.macAddressLong)
                 @Suppress("ConstantConditionIf")
                 if (LOG_SORT_BY_ADDRESS) {
                     Log.e(TAG, "SORT_BY_ADDRESS resultAddress=$resultAddress")
@@ -68,14 +92,19 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
             }
         }
 
-        private val SORT_BY_NAME = object : Comparator<BleScanResult> {
-            override fun compare(o1: BleScanResult, o2: BleScanResult): Int {
+        private val SORT_BY_NAME = object : Comparator<DeviceRow> {
+            override fun compare(o1: DeviceRow, o2: DeviceRow): Int {
                 @Suppress("ConstantConditionIf")
                 if (LOG_SORT_BY_NAME) {
                     Log.e(TAG, "SORT_BY_NAME o1=$o1")
                     Log.e(TAG, "SORT_BY_NAME o2=$o2")
                 }
-                val resultName = o1.name.compareTo(o2.name)
+                var resultName = o1.name.compareTo(o2.name)
+                if (resultName == 0) {
+                    // NOTE:(pv) Ties are common (thousands of "FNDR"s); break them by MAC address so that the order is
+                    // total and SortedList.indexOf can binary search to the exact row (see [findIndex])
+                    resultName = o1.macAddressLong.compareTo(o2.macAddressLong)
+                }
                 @Suppress("ConstantConditionIf")
                 if (LOG_SORT_BY_NAME) {
                     Log.e(TAG, "SORT_BY_NAME resultName=$resultName")
@@ -160,8 +189,11 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
         }
         */
 
-        private fun getComparator(sortBy: SortBy?, reversed: Boolean): Comparator<BleScanResult> {
-            val comparator: Comparator<BleScanResult> = when (sortBy) {
+        /**
+         * Every comparator is a total order: two different rows (different macAddressLong) never compare equal
+         */
+        private fun getComparator(sortBy: SortBy?, reversed: Boolean): Comparator<DeviceRow> {
+            val comparator: Comparator<DeviceRow> = when (sortBy) {
                 SortBy.Address -> SORT_BY_ADDRESS
                 SortBy.Name -> SORT_BY_NAME
                 //SortBy.SignalLevelRssi -> SORT_BY_STRENGTH
@@ -171,22 +203,129 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
             }
             return if (reversed) Collections.reverseOrder(comparator) else comparator
         }
+
+        /**
+         * Groups are always in ascending order, regardless of the sort order of the rows within them
+         * @return the order of the groups of o1 and o2, or 0 if they are in the same group
+         */
+        private fun compareGroups(groupBy: GroupBy, o1: DeviceRow, o2: DeviceRow): Int {
+            return when (groupBy) {
+                GroupBy.None -> 0
+                GroupBy.Oui -> o1.oui.compareTo(o2.oui)
+                GroupBy.Name -> o1.name.compareTo(o2.name)
+            }
+        }
+
+        private fun ouiToString(oui: Long): String {
+            return String.format(Locale.ROOT, "%02X:%02X:%02X", (oui shr 16) and 0xFF, (oui shr 8) and 0xFF, oui and 0xFF)
+        }
+    }
+
+    /**
+     * The rows that match [filter] and share one OUI or name, and the header row that shows their count
+     */
+    private class DevicesGroup(val header: DeviceRow) {
+        /**
+         * The number of matching rows in the group; the count shown in the header
+         */
+        var count = 0
     }
 
     interface EventListener<T> {
+        /**
+         * @param item may be recycled after this returns; do not keep a reference to it
+         */
         fun onItemSelected(item: T)
     }
 
+    /**
+     * The adds/updates and removes posted since the last frame, keyed by macAddressLong.
+     * An item is only ever in one of the two arrays, so for each MAC address only the last event survives:
+     * many updates collapse to one, and an add followed by a remove collapses to a remove of an item that is not in the
+     * list, which is a no-op.
+     * Superseded rows were never seen by the list, so they are released back to the [DeviceRow] pool.
+     */
+    private class PendingUpdates {
+        val addedOrUpdated = IterableLongSparseArray<DeviceRow>()
+        val removed = IterableLongSparseArray<DeviceRow>()
+
+        val size: Int
+            get() = addedOrUpdated.size() + removed.size()
+
+        fun addOrUpdate(row: DeviceRow) {
+            val key = row.macAddressLong
+            release(removed.remove(key))
+            release(addedOrUpdated.get(key))
+            addedOrUpdated.put(key, row)
+        }
+
+        fun remove(row: DeviceRow) {
+            val key = row.macAddressLong
+            release(addedOrUpdated.remove(key))
+            release(removed.get(key))
+            removed.put(key, row)
+        }
+
+        private fun release(row: DeviceRow?) {
+            if (row != null) {
+                DeviceRow.release(row)
+            }
+        }
+
+        fun clear() {
+            addedOrUpdated.clear()
+            removed.clear()
+        }
+    }
+
     private val layoutInflater: LayoutInflater = LayoutInflater.from(context)
     private val itemViewOnClickListener: View.OnClickListener
-    private val itemsMacAddressToIndex = mutableMapOf<String, Int>()
-    private val itemsIndexToMacAddress = mutableListOf<String>()
-    private lateinit var items: SortedList<BleScanResult>
+    /**
+     * Every row currently known, visible or not, keyed by [DeviceRow.macAddressLong].
+     * The rows that match [filter] are the ones in [itemsByMacAddress]/[items].
+     */
+    private val allRows = IterableLongSparseArray<DeviceRow>()
+
+    /**
+     * The rows in [allRows] that match [filter], keyed by [DeviceRow.macAddressLong].
+     * These are the rows in [items], except for those in collapsed groups.
+     */
+    private val matchingRows = IterableLongSparseArray<DeviceRow>()
+
+    /**
+     * The instance of each item in [items] (including group headers), keyed by [DeviceRow.macAddressLong].
+     * Positions are not stored; they are found by binary searching [items] for the instance (see [findIndex]), so
+     * nothing needs to be re-indexed when items are inserted, moved, or removed.
+     */
+    private val itemsByMacAddress = IterableLongSparseArray<DeviceRow>()
+    private lateinit var items: SortedList<DeviceRow>
+
+    /**
+     * Rows can only go back to the [DeviceRow] pool when nothing else references them; [DevicesAsyncDiffer] snapshots
+     * may still reference replaced/removed rows, so they are left to the GC when asyncDiff is enabled.
+     */
+    private val recycleRows = !asyncDiff
 
     //private lateinit var comparators: Array<out Comparator<DeviceInfo>>
 
+    //
+    // Grouping; only supported when asyncDiff is disabled
+    //
+    private val groupsByOui = IterableLongSparseArray<DevicesGroup>()
+    private val groupsByName = mutableMapOf<String, DevicesGroup>()
+    private var groupNextId = 0L
+
+    //
+    // The keys of the groups that the user collapsed; kept apart from the groups so that the state survives
+    // rebuildItems (load, groupBy changes) and a group that empties and comes back. Only grows by user toggles.
+    //
+    private val collapsedOuis = mutableSetOf<Long>()
+    private val collapsedNames = mutableSetOf<String>()
+
+    @Volatile
     private var sortReversed: Boolean = false
 
+    @Volatile
     var sortBy: SortBy? = null
         set(value) {
             Log.d(TAG, "setSortBy(sortBy=$value)")
@@ -214,9 +353,14 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
             this.comparators = comparators.toTypedArray()
              */
 
+            if (asyncDiffer != null) {
+                asyncDiffer.invalidateOrder()
+                return
+            }
+
             // TODO:(pv) Tweak copied SortedList allow manually resorting existing items
             // Until then, rebuild the list by removing all items and then adding them back
-            val temp = mutableListOf<BleScanResult>()
+            val temp = mutableListOf<DeviceRow>()
             items.beginBatchedUpdates()
             while (items.size() > 0) {
                 //Log.e(TAG, "items.removeItemAt(0)")
@@ -229,17 +373,95 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
             items.endBatchedUpdates()
         }
 
-    private var eventListener: EventListener<BleScanResult>? = null
+    private var eventListener: EventListener<DeviceRow>? = null
+
+    //
+    // BEGIN: frameCoalesce
+    //
+    private val frameCoalesce = frameCoalesce
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val frameCallback = Choreographer.FrameCallback { this@DevicesAdapter.onFrame() }
+    private val frameScheduleRunnable = Runnable { Choreographer.getInstance().postFrameCallback(frameCallback) }
+
+    /**
+     * Guards [framePending], [frameScheduled], [eventsReceived], and [eventsApplied]
+     */
+    private val frameLock = Any()
+
+    /**
+     * Double buffered: producers fill [framePending] while the main thread applies [frameApplying]
+     */
+    private var framePending = PendingUpdates()
+    private var frameApplying = PendingUpdates()
+    private var frameScheduled = false
+
+    private var eventsReceived = 0L
+    private var eventsApplied = 0L
+
+    /**
+     * The number of [add]/[remove] calls received since construction
+     */
+    @Suppress("unused")
+    val frameEventsReceived: Long
+        get() = synchronized(frameLock) { eventsReceived }
+
+    /**
+     * The number of collapsed adds/updates/removes actually applied to the list since construction
+     */
+    @Suppress("unused")
+    val frameEventsApplied: Long
+        get() = synchronized(frameLock) { eventsApplied }
+    //
+    // END: frameCoalesce
+    //
+
+    private val asyncDiffer: DevicesAsyncDiffer<DeviceRow>? = if (!asyncDiff) null else DevicesAsyncDiffer(
+        TAG,
+        object : DevicesAsyncDiffer.Callback<DeviceRow> {
+            override fun getKey(item: DeviceRow): Long = item.macAddressLong
+
+            override fun getComparator(): Comparator<DeviceRow> =
+                DevicesAdapter.getComparator(sortBy, sortReversed)
+
+            override fun areContentsTheSame(oldItem: DeviceRow, newItem: DeviceRow, updated: Boolean): Boolean {
+                return DeviceRow.getChanges(oldItem, newItem) == 0
+            }
+
+            override fun getChangePayload(oldItem: DeviceRow, newItem: DeviceRow): Any? =
+                this@DevicesAdapter.getChangePayload(oldItem, newItem)
+        },
+        object : DevicesAsyncDiffer.Listener<DeviceRow> {
+            private val updateCallback = AdapterListUpdateCallback(this@DevicesAdapter)
+
+            override fun onSnapshot(
+                snapshot: DevicesAsyncDiffer.Snapshot<DeviceRow>,
+                updates: DevicesAsyncDiffer.Updates
+            ) {
+                updates.dispatchUpdatesTo(updateCallback)
+            }
+        })
 
     init {
+        setHasStableIds(true)
         itemViewOnClickListener = View.OnClickListener { this@DevicesAdapter.onItemClicked(it) }
         items = SortedList(
-            BleScanResult::class.java,
+            DeviceRow::class.java,
             object :
-                SortedList.SortedListAdapterCallback<BleScanResult>(
+                SortedList.SortedListAdapterCallback<DeviceRow>(
                     this
                 ) {
-                override fun compare(o1: BleScanResult?, o2: BleScanResult?): Int {
+                override fun compare(o1: DeviceRow?, o2: DeviceRow?): Int {
+                    val groupBy = groupBy
+                    if (groupBy != GroupBy.None) {
+                        val resultGroup = compareGroups(groupBy, o1!!, o2!!)
+                        if (resultGroup != 0) {
+                            return resultGroup
+                        }
+                        // Each group's header is first in the group
+                        if (o1.isHeader != o2.isHeader) {
+                            return if (o1.isHeader) -1 else 1
+                        }
+                    }
                     return getComparator(
                         sortBy,
                         sortReversed
@@ -252,67 +474,32 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
                 }
                 */
 
-                override fun areItemsTheSame(item1: BleScanResult?, item2: BleScanResult?): Boolean {
+                override fun areItemsTheSame(item1: DeviceRow?, item2: DeviceRow?): Boolean {
                     //Log.e(TAG, "areItemsTheSame: item1=$item1")
                     //Log.e(TAG, "areItemsTheSame: item2=$item2")
-                    @Suppress("UnnecessaryVariable") val result = item1!!.macAddress == item2!!.macAddress
+                    @Suppress("UnnecessaryVariable") val result = item1!!.macAddressLong == item2!!.macAddressLong
                     //Log.e(TAG, "areItemsTheSame: result=$result")
                     return result
                 }
 
-                override fun areContentsTheSame(oldItem: BleScanResult?, newItem: BleScanResult?): Boolean {
+                override fun areContentsTheSame(oldItem: DeviceRow?, newItem: DeviceRow?): Boolean {
                     //Log.e(TAG, "areContentsTheSame: oldItem=$oldItem")
                     //Log.e(TAG, "areContentsTheSame: newItem=$newItem")
-                    @Suppress("UnnecessaryVariable") val result = oldItem == newItem
-                    //val result = oldItem!!.equals(newItem)
+                    @Suppress("UnnecessaryVariable") val result = DeviceRow.getChanges(oldItem!!, newItem!!) == 0
                     //Log.e(TAG, "areContentsTheSame: result=$result")
                     return result
                 }
 
+                override fun getChangePayload(item1: DeviceRow?, item2: DeviceRow?): Any? {
+                    return this@DevicesAdapter.getChangePayload(item1!!, item2!!)
+                }
+
                 override fun onInserted(position: Int, count: Int) {
                     @Suppress("ConstantConditionIf")
                     if (LOG_INSERTED) {
                         Log.e(TAG, "onInserted(position=$position, count=$count)")
-
                         Log.e(TAG, "onInserted: items($itemCount)=${itemsToString(items)}")
-
-                        Log.e(TAG, "onInserted: BEFORE itemsMacAddressToIndex=$itemsMacAddressToIndex")
-                        Log.e(TAG, "onInserted: BEFORE itemsIndexToMacAddress=$itemsIndexToMacAddress")
-                    }
-
-                    for (i in position until position + count) {
-                        val item = getItemByIndex(i)
-                        val macAddress = item.macAddress
-                        @Suppress("ConstantConditionIf")
-                        if (LOG_INSERTED) {
-                            Log.e(TAG, "onInserted: macAddress=$macAddress, position=$i")
-                        }
-
-                        // Insert the item; items to the end are shifted one to the right
-                        @Suppress("ConstantConditionIf")
-                        if (LOG_INSERTED) {
-                            Log.e(TAG, "onInserted: itemsIndexToMacAddress.add($i, $macAddress)")
-                        }
-                        itemsIndexToMacAddress.add(i, macAddress)
                     }
-
-                    // Readjust the dictionary for the shifted items only
-                    val size = itemsIndexToMacAddress.size
-                    for (i in position until size) {
-                        @Suppress("NAME_SHADOWING") val macAddress = itemsIndexToMacAddress[i]
-                        @Suppress("ConstantConditionIf")
-                        if (LOG_INSERTED) {
-                            Log.e(TAG, "onInserted: itemsMacAddressToIndex[$macAddress] = $i")
-                        }
-                        itemsMacAddressToIndex[macAddress] = i
-                    }
-
-                    @Suppress("ConstantConditionIf")
-                    if (LOG_INSERTED) {
-                        Log.e(TAG, "onInserted:  AFTER itemsMacAddressToIndex=$itemsMacAddressToIndex")
-                        Log.e(TAG, "onInserted:  AFTER itemsIndexToMacAddress=$itemsIndexToMacAddress")
-                    }
-
                     super.onInserted(position, count)
                 }
 
@@ -320,72 +507,8 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
                     @Suppress("ConstantConditionIf")
                     if (LOG_MOVED) {
                         Log.e(TAG, "onMoved(fromPosition=$fromPosition, toPosition=$toPosition)")
-                    }
-
-                    val item = getItemByIndex(toPosition)
-                    val macAddress = item.macAddress
-
-                    @Suppress("ConstantConditionIf")
-                    if (LOG_MOVED) {
                         Log.e(TAG, "onMoved: items($itemCount)=${itemsToString(items)}")
-
-                        Log.e(TAG, "onMoved: macAddress=$macAddress, fromPosition=$fromPosition, toPosition=$toPosition")
-
-                        Log.e(TAG, "onMoved: BEFORE itemsMacAddressToIndex=$itemsMacAddressToIndex")
-                        Log.e(TAG, "onMoved: BEFORE itemsIndexToMacAddress=$itemsIndexToMacAddress")
                     }
-
-                    @Suppress("ConstantConditionIf")
-                    if (LOG_MOVED) {
-                        Log.e(TAG, "onMoved: itemsIndexToMacAddress.removeAt($fromPosition)")
-                    }
-                    itemsIndexToMacAddress.removeAt(fromPosition)
-
-                    @Suppress("ConstantConditionIf")
-                    if (LOG_MOVED) {
-                        Log.e(TAG, "onMoved: itemsIndexToMacAddress.add($toPosition, $macAddress)")
-                    }
-                    itemsIndexToMacAddress.add(toPosition, macAddress)
-
-                    // Item could have moved from left to right or right to left
-                    // Readjust the dictionary for the shifted items only
-                    if (fromPosition < toPosition) {
-                        @Suppress("ConstantConditionIf")
-                        if (LOG_MOVED) {
-                            Log.e(TAG, "onMoved: left ($fromPosition) -> right ($toPosition)")
-                        }
-                        // Item moved left to right: items from old position to new position are shifted left one position
-                        // Readjust the dictionary for the shifted items only
-                        for (i in fromPosition until toPosition + 1) {
-                            @Suppress("NAME_SHADOWING") val macAddress = itemsIndexToMacAddress[i]
-                            @Suppress("ConstantConditionIf")
-                            if (LOG_MOVED) {
-                                Log.e(TAG, "onMoved: itemsMacAddressToIndex[$macAddress] = $i")
-                            }
-                            itemsMacAddressToIndex[macAddress] = i
-                        }
-                    } else { // fromPosition > toPosition
-                        @Suppress("ConstantConditionIf")
-                        if (LOG_MOVED) {
-                            Log.e(TAG, "onMoved: left ($toPosition) <- right ($fromPosition)")
-                        }
-                        // Item moved right to left: items from new position to old position are shifted right one position
-                        for (i in toPosition until fromPosition + 1) {
-                            @Suppress("NAME_SHADOWING") val macAddress = itemsIndexToMacAddress[i]
-                            @Suppress("ConstantConditionIf")
-                            if (LOG_MOVED) {
-                                Log.e(TAG, "onMoved: itemsMacAddressToIndex[$macAddress] = $i")
-                            }
-                            itemsMacAddressToIndex[macAddress] = i
-                        }
-                    }
-
-                    @Suppress("ConstantConditionIf")
-                    if (LOG_MOVED) {
-                        Log.e(TAG, "onMoved:  AFTER itemsMacAddressToIndex=$itemsMacAddressToIndex")
-                        Log.e(TAG, "onMoved:  AFTER itemsIndexToMacAddress=$itemsIndexToMacAddress")
-                    }
-
                     super.onMoved(fromPosition, toPosition)
                 }
 
@@ -393,50 +516,8 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
                     @Suppress("ConstantConditionIf")
                     if (LOG_REMOVED) {
                         Log.e(TAG, "onRemoved(position=$position, count=$count)")
+                        Log.e(TAG, "onRemoved: items($itemCount)=${itemsToString(items)}")
                     }
-
-                    if (position >= 0 && position < itemsIndexToMacAddress.size) {
-                        @Suppress("ConstantConditionIf")
-                        if (LOG_REMOVED) {
-                            Log.e(TAG, "onRemoved: items($itemCount)=${itemsToString(items)}")
-
-                            Log.e(TAG, "onRemoved: BEFORE itemsMacAddressToIndex=$itemsMacAddressToIndex")
-                            Log.e(TAG, "onRemoved: BEFORE itemsIndexToMacAddress=$itemsIndexToMacAddress")
-                        }
-
-                        // Delete the item; items to the end are shifted one to the left
-                        for (i in 0 until count) {
-                            @Suppress("ConstantConditionIf")
-                            if (LOG_REMOVED) {
-                                Log.e(TAG, "onRemoved: itemsIndexToMacAddress.removeAt($position)")
-                            }
-                            val macAddress = itemsIndexToMacAddress.removeAt(position)
-
-                            @Suppress("ConstantConditionIf")
-                            if (LOG_REMOVED) {
-                                Log.e(TAG, "onRemoved: itemsMacAddressToIndex.remove($macAddress)")
-                            }
-                            itemsMacAddressToIndex.remove(macAddress)
-                        }
-
-                        // Readjust the dictionary for the shifted items only
-                        val size = itemsIndexToMacAddress.size
-                        for (i in position until size) {
-                            @Suppress("NAME_SHADOWING") val macAddress = itemsIndexToMacAddress[i]
-                            @Suppress("ConstantConditionIf")
-                            if (LOG_REMOVED) {
-                                Log.e(TAG, "onRemoved: itemsMacAddressToIndex[$macAddress] = $i")
-                            }
-                            itemsMacAddressToIndex[macAddress] = i
-                        }
-
-                        @Suppress("ConstantConditionIf")
-                        if (LOG_REMOVED) {
-                            Log.e(TAG, "onRemoved:  AFTER itemsMacAddressToIndex=$itemsMacAddressToIndex")
-                            Log.e(TAG, "onRemoved:  AFTER itemsIndexToMacAddress=$itemsIndexToMacAddress")
-                        }
-                    }
-
                     super.onRemoved(position, count)
                 }
             })
@@ -460,24 +541,49 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
         return layoutInflater.inflate(resource, root, false)
     }
 
-    fun setEventListener(eventListener: EventListener<BleScanResult>) {
+    /**
+     * Stops the time labels ticker and the [DevicesAsyncDiffer] worker thread, if any
+     */
+    fun release() {
+        if (frameCoalesce) {
+            synchronized(frameLock) {
+                framePending.clear()
+                frameScheduled = false
+            }
+            mainHandler.removeCallbacks(frameScheduleRunnable)
+            Choreographer.getInstance().removeFrameCallback(frameCallback)
+        }
+        mainHandler.removeCallbacks(runnableRefreshVisibleItems)
+        asyncDiffer?.quit()
+    }
+
+    fun setEventListener(eventListener: EventListener<DeviceRow>) {
         this.eventListener = eventListener
     }
 
     private fun onItemClicked(v: View) {
-        if (eventListener != null) {
-            val holder = v.tag as BindableViewHolder<*>
-            val item = getItemFromHolder(holder)
-            eventListener!!.onItemSelected(item)
+        val holder = v.tag as BindableViewHolder<*>
+        val item = getItemFromHolder(holder)
+        if (item.isHeader) {
+            toggleGroupCollapsed(item)
+            return
         }
+        eventListener?.onItemSelected(item)
     }
 
     //
     //
     //
 
-    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): DevicesViewHolder {
+    override fun getItemViewType(position: Int): Int {
+        return if (getItemByIndex(position).isHeader) VIEW_TYPE_GROUP_HEADER else VIEW_TYPE_DEVICE
+    }
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): BindableViewHolder<DeviceRow> {
         //Log.e(TAG, "onCreateViewHolder(...)")
+        if (viewType == VIEW_TYPE_GROUP_HEADER) {
+            return DevicesGroupHeaderViewHolder(inflate(R.layout.device_group_header, parent) as ViewGroup)
+        }
         val viewGroup = inflate(R.layout.device_cell, parent) as ViewGroup
         return DevicesViewHolder(
             context,
@@ -485,17 +591,49 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
         )
     }
 
-    override fun onBindViewHolder(holder: DevicesViewHolder, position: Int) {
+    override fun onBindViewHolder(holder: BindableViewHolder<DeviceRow>, position: Int) {
         //Log.e(TAG, "onBindViewHolder(...)")
         val item = getItemByIndex(position)
         holder.bindTo(item, itemViewOnClickListener)
     }
 
+    /**
+     * Payloads are DeviceRow.CHANGED_* bitmasks (see [getChangePayload]); RecyclerView accumulates them until the
+     * holder is bound, so they are OR'd together. Anything else (ex: an empty list) falls back to a full bind.
+     */
+    override fun onBindViewHolder(holder: BindableViewHolder<DeviceRow>, position: Int, payloads: MutableList<Any>) {
+        if (payloads.isEmpty() || holder !is DevicesViewHolder) {
+            onBindViewHolder(holder, position)
+            return
+        }
+        var changes = 0
+        for (payload in payloads) {
+            if (payload !is Int) {
+                onBindViewHolder(holder, position)
+                return
+            }
+            changes = changes or payload
+        }
+        holder.bindChanges(getItemByIndex(position), changes)
+    }
+
+    override fun getItemId(position: Int): Long {
+        return getItemByIndex(position).macAddressLong
+    }
+
+    /**
+     * NOTE:(pv) The small Int bitmasks are boxed from the Integer cache, so this does not allocate.
+     * @return DeviceRow.CHANGED_* bitmask of the fields that differ between the rows
+     */
+    private fun getChangePayload(oldRow: DeviceRow, newRow: DeviceRow): Any? {
+        return DeviceRow.getChanges(oldRow, newRow)
+    }
+
     //
     //
     //
 
-    private fun getItemFromHolder(holder: BindableViewHolder<*>): BleScanResult {
+    private fun getItemFromHolder(holder: BindableViewHolder<*>): DeviceRow {
         val adapterPosition = holder.adapterPosition
         val layoutPosition = holder.layoutPosition
         @Suppress("ConstantConditionIf")
@@ -507,12 +645,12 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
     }
 
     @Suppress("MemberVisibilityCanBePrivate")
-    fun getItemByIndex(index: Int): BleScanResult {
+    fun getItemByIndex(index: Int): DeviceRow {
         @Suppress("ConstantConditionIf")
         if (LOG_GET_ITEM_BY_INDEX) {
             Log.e(TAG, "getItemByIndex($index)")
         }
-        val item = items.get(index)
+        val item = asyncDiffer?.current?.get(index) ?: items.get(index)
         @Suppress("ConstantConditionIf")
         if (LOG_GET_ITEM_BY_INDEX) {
             Log.e(TAG, "getItemByIndex: $item")
@@ -525,121 +663,558 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
     //
 
     override fun getItemCount(): Int {
-        return items.size()
+        return asyncDiffer?.current?.size ?: items.size()
     }
 
     fun clear() {
-        itemsMacAddressToIndex.clear()
-        itemsIndexToMacAddress.clear()
+        if (frameCoalesce) {
+            synchronized(frameLock) {
+                framePending.clear()
+            }
+        }
+        allRows.clear()
+        matchingRows.clear()
+        itemsByMacAddress.clear()
+        groupsByOui.clear()
+        groupsByName.clear()
+        if (asyncDiffer != null) {
+            asyncDiffer.clear()
+            return
+        }
         items.clear()
     }
 
-    /*
-    @Suppress("MemberVisibilityCanBePrivate")
-    fun addAll(bleTool: BleTool) {
-        items.beginBatchedUpdates()
-        val iterator = bleTool.recentlyNearbyDevicesIterator
-        iterator.forEach { item ->
-            val device = bleTool.getDevice(item)
-            add(item, device)
+    /**
+     * Replaces all rows with a snapshot, for example the one handed to an observer when it attaches.
+     * Must be called on the main thread, before any of the adds/removes that follow the snapshot; anything still
+     * pending from before the snapshot is dropped.
+     *
+     * @param rows owned by the adapter after this call
+     */
+    fun load(rows: List<DeviceRow>) {
+        Log.d(TAG, "load(rows.size=${rows.size})")
+        if (frameCoalesce) {
+            synchronized(frameLock) {
+                framePending.clear()
+            }
+        }
+        val previousRows = if (recycleRows) (0 until allRows.size()).map { allRows.valueAt(it) } else null
+        allRows.clear()
+        matchingRows.clear()
+        val filter = filter
+        for (row in rows) {
+            val key = row.macAddressLong
+            allRows.put(key, row)
+            if (filter.matches(row)) {
+                matchingRows.put(key, row)
+            }
+        }
+        if (asyncDiffer != null) {
+            itemsByMacAddress.clear()
+            asyncDiffer.clear()
+            for (i in 0 until matchingRows.size()) {
+                val row = matchingRows.valueAt(i)
+                itemsByMacAddress.put(row.macAddressLong, row)
+                asyncDiffer.addOrUpdate(row)
+            }
+            return
         }
-        items.endBatchedUpdates()
+        rebuildItems()
+        previousRows?.forEach { DeviceRow.release(it) }
     }
-    */
 
     /**
      * NOTE: SortedList items sorts items by a defined comparison, and SortedList.indexOf(...) is only a binary search that
-     * assumes that sort order.
-     * Ergo, you cannot sort by signalStrength and then expect to be able to reliably use indexOf(deviceInfo) to find the
-     * index of a device with deviceInfo.macAddress.
-     * You would only be able to reliably find the index of an element with the sorted field, in this case
-     * deviceInfo.signalStrength.
+     * assumes that sort order; it falls back to a linear search through any run of rows that compare equal.
+     * The row that is in [items] is found by macAddressLong in O(log n), and then SortedList.indexOf(...) binary
+     * searches for that row in O(log n); neither allocates. That relies on every comparator (see [getComparator]) being
+     * a total order, broken by macAddressLong, so that there are no runs of equal rows.
+     * Rows are immutable, so the row in [items] is always still where its sort key says it is.
+     * @return the index of the row in [items] with the same macAddressLong as row
      */
-    private fun findIndexByMacAddress(macAddress: String): Int {
-        @Suppress("UnnecessaryVariable") val index = itemsMacAddressToIndex[macAddress] ?: SortedList.INVALID_POSITION
-        //Log.e(TAG, "findIndexByMacAddress: index=$index")
+    private fun findIndex(row: DeviceRow): Int {
+        val existing = itemsByMacAddress.get(row.macAddressLong) ?: return SortedList.INVALID_POSITION
+        @Suppress("UnnecessaryVariable") val index = items.indexOf(existing)
+        //Log.e(TAG, "findIndex: index=$index")
         return index
     }
 
-    fun add(scanResult: BleScanResult): Int {
+    /**
+     * May be called from any thread if frameCoalesce is enabled; otherwise must be called on the main thread.
+     *
+     * @param row owned by the adapter after this call
+     * @return the index of the added or updated item, or [SortedList.INVALID_POSITION] if asyncDiff or frameCoalesce
+     * is enabled
+     */
+    fun add(row: DeviceRow): Int {
+        if (frameCoalesce) {
+            post(row, false)
+            return SortedList.INVALID_POSITION
+        }
+        return addNow(row)
+    }
+
+    /**
+     * May be called from any thread if frameCoalesce is enabled; otherwise must be called on the main thread.
+     *
+     * @param row only its macAddressLong is used; it is released to the [DeviceRow] pool
+     * @return true if the item was removed, or always true if asyncDiff or frameCoalesce is enabled
+     */
+    fun remove(row: DeviceRow): Boolean {
+        if (frameCoalesce) {
+            post(row, true)
+            return true
+        }
+        return removeNow(row)
+    }
+
+    private fun post(row: DeviceRow, remove: Boolean) {
+        synchronized(frameLock) {
+            eventsReceived++
+            if (remove) {
+                framePending.remove(row)
+            } else {
+                framePending.addOrUpdate(row)
+            }
+            if (frameScheduled) {
+                return
+            }
+            frameScheduled = true
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            frameScheduleRunnable.run()
+        } else {
+            mainHandler.post(frameScheduleRunnable)
+        }
+    }
+
+    /**
+     * Applies everything posted since the previous frame as a single batch
+     */
+    private fun onFrame() {
+        val applying: PendingUpdates
+        synchronized(frameLock) {
+            applying = framePending
+            framePending = frameApplying
+            frameApplying = applying
+            frameScheduled = false
+        }
+
+        val size = applying.size
+        if (size == 0) {
+            return
+        }
+
+        @Suppress("ConstantConditionIf")
+        if (LOG_FRAME) {
+            Log.e(TAG, "onFrame: applying $size update(s)")
+        }
+
+        items.beginBatchedUpdates()
+        try {
+            val removed = applying.removed
+            for (i in 0 until removed.size()) {
+                removeNow(removed.valueAt(i))
+            }
+            val addedOrUpdated = applying.addedOrUpdated
+            for (i in 0 until addedOrUpdated.size()) {
+                addNow(addedOrUpdated.valueAt(i))
+            }
+        } finally {
+            items.endBatchedUpdates()
+            applying.clear()
+        }
+
+        synchronized(frameLock) {
+            eventsApplied += size
+        }
+    }
+
+    /**
+     * Evaluates the row against [filter]: shows (adds or updates) it if it matches and its group is not collapsed,
+     * otherwise hides it.
+     * @return the index of the row in [items], or [SortedList.INVALID_POSITION] if asyncDiff is enabled or the row is
+     * filtered out or collapsed
+     */
+    private fun addNow(row: DeviceRow): Int {
+        val key = row.macAddressLong
+        val previous = allRows.get(key)
+        allRows.put(key, row)
+        val index = if (filter.matches(row)) {
+            val group = setMatching(key, row)
+            if (group?.header?.groupCollapsed == true) {
+                hideRow(key)
+                SortedList.INVALID_POSITION
+            } else {
+                showRow(row)
+            }
+        } else {
+            setMatching(key, null)
+            hideRow(key)
+            SortedList.INVALID_POSITION
+        }
+        if (recycleRows && previous != null && previous !== row) {
+            DeviceRow.release(previous)
+        }
+        return index
+    }
+
+    private fun removeNow(row: DeviceRow): Boolean {
+        @Suppress("ConstantConditionIf")
+        if (LOG_REMOVE) {
+            Log.e(TAG, "\n\n")
+            //Log.e(TAG, "remove($item)")
+            Log.e(TAG, "remove($row)")
+            Log.e(TAG, "remove: BEFORE items($itemCount)=${itemsToString(items)}")
+        }
+
+        val key = row.macAddressLong
+        val previous = allRows.remove(key)
+        setMatching(key, null)
+        val removed = hideRow(key)
+        if (recycleRows && previous != null && previous !== row) {
+            DeviceRow.release(previous)
+        }
+        // Only the key was used; also safe with asyncDiff because row was never handed to the differ
+        DeviceRow.release(row)
+
+        @Suppress("ConstantConditionIf")
+        if (LOG_REMOVE) {
+            Log.e(TAG, "remove: AFTER items($itemCount)=${itemsToString(items)}")
+            Log.e(TAG, "\n\n")
+        }
+
+        return removed
+    }
+
+    /**
+     * Adds the row to, or updates it in, the visible list.
+     * Does not release any rows; the caller owns that via [allRows].
+     */
+    private fun showRow(row: DeviceRow): Int {
+        if (asyncDiffer != null) {
+            itemsByMacAddress.put(row.macAddressLong, row)
+            asyncDiffer.addOrUpdate(row)
+            return SortedList.INVALID_POSITION
+        }
+
         @Suppress("ConstantConditionIf")
         if (LOG_ADD) {
             Log.e(TAG, "\n\n")
             //Log.e(TAG, "add($item)")
-            Log.e(TAG, "add($scanResult)")
+            Log.e(TAG, "add($row)")
             Log.e(TAG, "add: BEFORE items($itemCount)=${itemsToString(items)}")
         }
 
-        if (false) {
-            @Suppress("ConstantConditionIf")
-            if (LOG_ADD) {
-                Log.e(TAG, "add: items.add($scanResult)")
-            }
-            val indexAdded = items.add(scanResult)
+        @Suppress("ConstantConditionIf")
+        if (LOG_ADD) {
+            Log.e(TAG, "add: indexExisting = findIndex(${row.macAddress})")
+        }
+        val indexExisting = findIndex(row)
+        @Suppress("ConstantConditionIf")
+        if (LOG_ADD) {
+            Log.e(TAG, "add: indexExisting=$indexExisting")
+        }
+
+        itemsByMacAddress.put(row.macAddressLong, row)
+        val indexAdded = if (indexExisting == SortedList.INVALID_POSITION) {
             @Suppress("ConstantConditionIf")
             if (LOG_ADD) {
-                Log.e(TAG, "add: indexAdded=$indexAdded")
+                Log.e(TAG, "add: items.add($row)")
             }
-            return indexAdded
+            items.add(row)
         } else {
             @Suppress("ConstantConditionIf")
             if (LOG_ADD) {
-                Log.e(TAG, "add: indexExisting = findIndexByMacAddress(${scanResult.macAddress})")
-            }
-            val indexExisting = findIndexByMacAddress(scanResult.macAddress)
-            @Suppress("ConstantConditionIf")
-            if (LOG_ADD) {
-                Log.e(TAG, "add: indexExisting=$indexExisting")
+                Log.e(TAG, "add: items.updateItemAt($indexExisting, $row)")
             }
+            // NOTE:(pv) Only re-sorts if compare != 0 !!!
+            items.updateItemAt(indexExisting, row)
+            items.indexOf(row)
+        }
 
-            val indexAdded = if (indexExisting == SortedList.INVALID_POSITION) {
-                @Suppress("ConstantConditionIf")
-                if (LOG_ADD) {
-                    Log.e(TAG, "add: items.add($scanResult)")
+        @Suppress("ConstantConditionIf")
+        if (LOG_ADD) {
+            Log.e(TAG, "add: AFTER items($itemCount)=${itemsToString(items)}")
+            Log.e(TAG, "\n\n")
+        }
+
+        return indexAdded
+    }
+
+    /**
+     * Removes the row with the given key from the visible list, if it is there.
+     * Does not release any rows; the caller owns that via [allRows].
+     * @return true if the row was visible
+     */
+    private fun hideRow(key: Long): Boolean {
+        val existing = itemsByMacAddress.get(key) ?: return false
+        if (asyncDiffer != null) {
+            itemsByMacAddress.remove(key)
+            asyncDiffer.remove(existing)
+            return true
+        }
+        val index = findIndex(existing)
+        @Suppress("ConstantConditionIf")
+        if (LOG_REMOVE) {
+            Log.e(TAG, "hideRow: items.removeItemAt($index)")
+        }
+        itemsByMacAddress.remove(key)
+        if (index != SortedList.INVALID_POSITION) {
+            items.removeItemAt(index)
+        }
+        return true
+    }
+
+    //
+    // Filter
+    //
+
+    /**
+     * Only the rows that match this are shown.
+     * Changing it re-evaluates as few rows as possible:
+     * If the new filter is narrower (more specific) then only the visible rows are re-checked;
+     * If the new filter is wider (less specific) then only the hidden rows are re-checked;
+     * Otherwise both are.
+     */
+    var filter: DevicesFilter = DevicesFilter.NONE
+        set(value) {
+            val previous = field
+            if (value == previous) {
+                return
+            }
+            Log.d(TAG, "setFilter(filter=$value)")
+            field = value
+            val narrower = value.isNarrowerOrEqualTo(previous)
+            val wider = previous.isNarrowerOrEqualTo(value)
+            items.beginBatchedUpdates()
+            try {
+                if (!wider) {
+                    hideNonMatchingVisibleRows()
                 }
-                items.add(scanResult)
-            } else {
-                @Suppress("ConstantConditionIf")
-                if (LOG_ADD) {
-                    Log.e(TAG, "add: items.updateItemAt($indexExisting, $scanResult)")
+                if (!narrower) {
+                    showMatchingHiddenRows()
                 }
-                // NOTE:(pv) Only re-sorts if compare != 0 !!!
-                items.updateItemAt(indexExisting, scanResult)
-                indexExisting
+            } finally {
+                items.endBatchedUpdates()
             }
+        }
 
-            @Suppress("ConstantConditionIf")
-            if (LOG_ADD) {
-                Log.e(TAG, "add: AFTER items($itemCount)=${itemsToString(items)}")
-                Log.e(TAG, "\n\n")
+    private fun hideNonMatchingVisibleRows() {
+        val filter = filter
+        // Backwards so that removing index i does not shift the indexes still to be visited
+        for (i in matchingRows.size() - 1 downTo 0) {
+            val row = matchingRows.valueAt(i)
+            if (!filter.matches(row)) {
+                val key = row.macAddressLong
+                setMatching(key, null)
+                hideRow(key)
             }
+        }
+    }
 
-            return indexAdded
+    private fun showMatchingHiddenRows() {
+        val filter = filter
+        val size = allRows.size()
+        for (i in 0 until size) {
+            val row = allRows.valueAt(i)
+            val key = row.macAddressLong
+            if (!matchingRows.containsKey(key) && filter.matches(row)) {
+                val group = setMatching(key, row)
+                if (group?.header?.groupCollapsed != true) {
+                    showRow(row)
+                }
+            }
         }
     }
 
-    fun remove(scanResult: BleScanResult): Boolean {
-        @Suppress("ConstantConditionIf")
-        if (LOG_REMOVE) {
-            Log.e(TAG, "\n\n")
-            //Log.e(TAG, "remove($item)")
-            Log.e(TAG, "remove($scanResult)")
-            Log.e(TAG, "remove: BEFORE items($itemCount)=${itemsToString(items)}")
+    //
+    // Grouping
+    //
+
+    /**
+     * Not supported when asyncDiff is enabled.
+     * Changing it rebuilds the groups from the matching rows in O(n); after that, each add/update/remove adjusts the
+     * affected group counts in O(1) (plus the O(log n) lookups of the groups and headers).
+     * Groups do not hold their members, so collapsing/expanding one scans the matching rows in O(n).
+     */
+    var groupBy: GroupBy = GroupBy.None
+        set(value) {
+            if (field == value) {
+                return
+            }
+            if (asyncDiffer != null) {
+                Log.w(TAG, "setGroupBy: grouping is not supported when asyncDiff is enabled; ignoring")
+                return
+            }
+            Log.d(TAG, "setGroupBy(groupBy=$value)")
+            field = value
+            rebuildItems()
         }
 
-        @Suppress("ConstantConditionIf")
-        if (LOG_REMOVE) {
-            Log.e(TAG, "remove: items.remove($scanResult)")
+    private fun findGroup(row: DeviceRow): DevicesGroup? {
+        return when (groupBy) {
+            GroupBy.None -> null
+            GroupBy.Oui -> groupsByOui.get(row.oui)
+            GroupBy.Name -> groupsByName[row.name]
         }
-        val removed = items.remove(scanResult)
+    }
 
-        @Suppress("ConstantConditionIf")
-        if (LOG_REMOVE) {
-            Log.e(TAG, "remove: AFTER items($itemCount)=${itemsToString(items)}")
-            Log.e(TAG, "\n\n")
+    /**
+     * Creates the group, but does not add its header to [items]
+     */
+    private fun newGroup(row: DeviceRow): DevicesGroup? {
+        val group = when (groupBy) {
+            GroupBy.None -> return null
+            GroupBy.Oui -> {
+                val oui = row.oui
+                val group = DevicesGroup(DeviceRow.newHeader(groupNextId++, oui, ouiToString(oui)))
+                group.header.groupCollapsed = collapsedOuis.contains(oui)
+                groupsByOui.put(oui, group)
+                group
+            }
+            GroupBy.Name -> {
+                val group = DevicesGroup(DeviceRow.newHeader(groupNextId++, 0, row.name))
+                group.header.groupCollapsed = collapsedNames.contains(row.name)
+                groupsByName[row.name] = group
+                group
+            }
         }
+        return group
+    }
 
-        return removed
+    private fun removeGroup(group: DevicesGroup) {
+        val header = group.header
+        when (groupBy) {
+            GroupBy.None -> {
+            }
+            GroupBy.Oui -> groupsByOui.remove(header.oui)
+            GroupBy.Name -> groupsByName.remove(header.name)
+        }
+        hideRow(header.macAddressLong)
+    }
+
+    /**
+     * Updates [matchingRows], group membership, and the affected group counts, for the row with the given key
+     * @param row the row if it now matches [filter], or null if it does not (or was removed)
+     * @return the group of row, or null if row is null or not grouping
+     */
+    private fun setMatching(key: Long, row: DeviceRow?): DevicesGroup? {
+        val previous = if (row == null) matchingRows.remove(key) else matchingRows.get(key)
+        if (row != null) {
+            matchingRows.put(key, row)
+        }
+        if (groupBy == GroupBy.None) {
+            return null
+        }
+        val oldGroup = if (previous != null) findGroup(previous) else null
+        var newGroup = if (row != null) findGroup(row) else null
+        if (oldGroup != null && oldGroup === newGroup) {
+            // Same group; count unchanged
+            return oldGroup
+        }
+        if (oldGroup != null) {
+            if (--oldGroup.count == 0) {
+                removeGroup(oldGroup)
+            } else {
+                notifyGroupChanged(oldGroup)
+            }
+        }
+        if (row != null) {
+            if (newGroup == null) {
+                newGroup = newGroup(row)!!
+                newGroup.count = 1
+                newGroup.header.groupCount = 1
+                showRow(newGroup.header)
+            } else {
+                newGroup.count++
+                notifyGroupChanged(newGroup)
+            }
+        }
+        return newGroup
+    }
+
+    private fun notifyGroupChanged(group: DevicesGroup) {
+        val header = group.header
+        header.groupCount = group.count
+        val index = findIndex(header)
+        if (index != SortedList.INVALID_POSITION) {
+            items.notifyItemChangedAt(index, DeviceRow.CHANGED_GROUP)
+        }
+    }
+
+    private fun toggleGroupCollapsed(header: DeviceRow) {
+        val group = findGroup(header) ?: return
+        val collapsed = !header.groupCollapsed
+        Log.d(TAG, "toggleGroupCollapsed: ${header.name} collapsed=$collapsed")
+        header.groupCollapsed = collapsed
+        when (groupBy) {
+            GroupBy.None -> {
+            }
+            GroupBy.Oui -> if (collapsed) collapsedOuis.add(header.oui) else collapsedOuis.remove(header.oui)
+            GroupBy.Name -> if (collapsed) collapsedNames.add(header.name) else collapsedNames.remove(header.name)
+        }
+        items.beginBatchedUpdates()
+        try {
+            for (i in 0 until matchingRows.size()) {
+                val row = matchingRows.valueAt(i)
+                if (findGroup(row) !== group) {
+                    continue
+                }
+                if (collapsed) {
+                    hideRow(row.macAddressLong)
+                } else {
+                    showRow(row)
+                }
+            }
+            notifyGroupChanged(group)
+        } finally {
+            items.endBatchedUpdates()
+        }
+    }
+
+    /**
+     * Removes everything from [items], then regroups [matchingRows] and adds back the headers and rows in one batched
+     * addAll; the rows of collapsed groups stay hidden
+     */
+    private fun rebuildItems() {
+        items.beginBatchedUpdates()
+        try {
+            while (items.size() > 0) {
+                items.removeItemAt(items.size() - 1)
+            }
+            itemsByMacAddress.clear()
+            groupsByOui.clear()
+            groupsByName.clear()
+
+            val temp = mutableListOf<DeviceRow>()
+            for (i in 0 until matchingRows.size()) {
+                val row = matchingRows.valueAt(i)
+                var group = findGroup(row)
+                if (group == null) {
+                    group = newGroup(row)
+                    if (group != null) {
+                        temp.add(group.header)
+                    }
+                }
+                if (group != null) {
+                    group.count++
+                    if (group.header.groupCollapsed) {
+                        continue
+                    }
+                }
+                temp.add(row)
+            }
+            for (row in temp) {
+                if (row.isHeader) {
+                    row.groupCount = findGroup(row)!!.count
+                }
+                itemsByMacAddress.put(row.macAddressLong, row)
+            }
+            items.addAll(temp)
+        } finally {
+            items.endBatchedUpdates()
+        }
     }
 
     //
@@ -654,44 +1229,77 @@ class DevicesAdapter(var context: Context, initialSortBy: SortBy) : RecyclerView
         super.onAttachedToRecyclerView(recyclerView)
         this.recyclerView = recyclerView
         this.layoutManager = recyclerView.layoutManager as LinearLayoutManager?
+        autoUpdateVisibleItems(autoUpdateEnabled)
     }
 
     override fun onDetachedFromRecyclerView(recyclerView: RecyclerView) {
         //Log.e(TAG, "onDetachedFromRecyclerView(...)")
         super.onDetachedFromRecyclerView(recyclerView)
-        autoUpdateVisibleItems(false)
         this.recyclerView = null
+        mainHandler.removeCallbacks(runnableRefreshVisibleItems)
         this.layoutManager = null
     }
 
-    private val runnableRefreshVisibleItems = Runnable {
-        autoUpdateVisibleItems(true)
+    //
+    // Time labels ticker
+    //
+
+    /**
+     * The holders currently attached to the RecyclerView, ie: the only ones whose time labels can be seen
+     */
+    private val attachedHolders = mutableListOf<DevicesViewHolder>()
+
+    private var autoUpdateEnabled = true
+
+    private val runnableRefreshVisibleItems = object : Runnable {
+        override fun run() {
+            refreshVisibleTimeLabels()
+            mainHandler.postDelayed(this, AUTO_UPDATE_INTERVAL_MILLIS)
+        }
+    }
+
+    override fun onViewAttachedToWindow(holder: BindableViewHolder<DeviceRow>) {
+        super.onViewAttachedToWindow(holder)
+        if (holder is DevicesViewHolder) {
+            attachedHolders.add(holder)
+        }
+    }
+
+    override fun onViewDetachedFromWindow(holder: BindableViewHolder<DeviceRow>) {
+        super.onViewDetachedFromWindow(holder)
+        if (holder is DevicesViewHolder) {
+            attachedHolders.remove(holder)
+        }
     }
 
+    /**
+     * While enabled and attached to a RecyclerView, refreshes the age/last-seen/timeout labels of the attached holders
+     * every [AUTO_UPDATE_INTERVAL_MILLIS], in place: no adapter notifications, no rebinds, and no re-sorting.
+     */
     fun autoUpdateVisibleItems(enable: Boolean) {
         @Suppress("ConstantConditionIf")
         if (!AUTO_UPDATE_ENABLE) {
             return
         }
-        Log.e(TAG, "autoUpdateVisibleItems($enable)")
-        if (enable) {
-            val positionStart = layoutManager?.findFirstVisibleItemPosition() ?: RecyclerView.NO_POSITION
-            if (positionStart != RecyclerView.NO_POSITION) {
-                val positionStop = layoutManager!!.findLastVisibleItemPosition()
-                val itemCount = 1 + positionStop - positionStart
-                @Suppress("ConstantConditionIf")
-                if (LOG_AUTO_UPDATE) {
-                    Log.e(
-                        TAG,
-                        "refreshVisibleItems: positionStart=$positionStart, positionStop=$positionStop, itemCount=$itemCount"
-                    )
-                    Log.e(TAG, "refreshVisibleItems: notifyItemRangeChanged($positionStart, $itemCount)")
-                }
-                notifyItemRangeChanged(positionStart, itemCount)
-            }
-            recyclerView?.postDelayed(runnableRefreshVisibleItems, 1000)
-        } else {
-            recyclerView?.removeCallbacks(runnableRefreshVisibleItems)
+        @Suppress("ConstantConditionIf")
+        if (LOG_AUTO_UPDATE) {
+            Log.e(TAG, "autoUpdateVisibleItems($enable)")
+        }
+        autoUpdateEnabled = enable
+        mainHandler.removeCallbacks(runnableRefreshVisibleItems)
+        if (enable && recyclerView != null) {
+            mainHandler.postDelayed(runnableRefreshVisibleItems, AUTO_UPDATE_INTERVAL_MILLIS)
+        }
+    }
+
+    private fun refreshVisibleTimeLabels() {
+        val nowUptimeMillis = SystemClock.uptimeMillis()
+        @Suppress("ConstantConditionIf")
+        if (LOG_AUTO_UPDATE) {
+            Log.e(TAG, "refreshVisibleTimeLabels: ${attachedHolders.size} holder(s)")
+        }
+        for (holder in attachedHolders) {
+            holder.bindTimes(nowUptimeMillis)
         }
     }
 
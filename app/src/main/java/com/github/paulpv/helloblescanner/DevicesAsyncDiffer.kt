@@ -0,0 +1,517 @@
+package com.github.paulpv.helloblescanner
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Looper
+import android.os.Message
+import android.util.Log
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListUpdateCallback
+import com.github.paulpv.helloblescanner.collections.IterableLongSparseArray
+import com.github.paulpv.helloblescanner.collections.LongHashSet
+import com.github.paulpv.helloblescanner.utils.Utils
+import java.util.*
+import kotlin.math.max
+
+/**
+ * Moves the sorting and diffing of the device list off of the main thread.
+ *
+ * Any thread may post adds/updates/removes; they are queued and drained in passes on a private worker thread.
+ * Each pass merges the k items that changed since the last [Snapshot] it published into that (already sorted) snapshot
+ * in O(n + k log k), recording the removals/insertions/changes as it goes, and hands the new immutable [Snapshot] plus
+ * those [Updates] to the main thread. Only a pass after [invalidateOrder] re-sorts everything and runs a full
+ * [DiffUtil] diff.
+ * The arrays of the snapshots that the main thread is done with are recycled for the next passes.
+ *
+ * The main thread only ever reads the most recently applied [Snapshot], and a [Snapshot] is swapped in within the same
+ * main thread message that dispatches its [Updates], so the UI never sees a torn state.
+ * Snapshots are published in order and each diff is computed against the previously published snapshot, so the chain
+ * of diffs applied on the main thread is always consistent.
+ */
+class DevicesAsyncDiffer<T>(
+    name: String,
+    private val callback: Callback<T>,
+    private val listener: Listener<T>
+) {
+    companion object {
+        private val TAG = Utils.TAG(DevicesAsyncDiffer::class)
+
+        private const val LOG_PASS = false
+
+        private const val MESSAGE_WHAT_PROCESS = 1
+
+        //
+        // The types of MergeUpdates ops
+        //
+        private const val REMOVED = 0
+        private const val INSERTED = 1
+        private const val CHANGED = 2
+    }
+
+    interface Callback<T> {
+        fun getKey(item: T): Long
+
+        /**
+         * Called on the worker thread; may be changed at any time followed by a call to [invalidateOrder]
+         */
+        fun getComparator(): Comparator<T>
+
+        /**
+         * Called on the worker thread
+         * @param updated true if [newItem] was posted since the previous pass
+         */
+        fun areContentsTheSame(oldItem: T, newItem: T, updated: Boolean): Boolean
+
+        /**
+         * Called on the main thread while the [Updates] are being dispatched
+         */
+        fun getChangePayload(oldItem: T, newItem: T): Any? = null
+    }
+
+    interface Listener<T> {
+        /**
+         * Called on the main thread; the listener must make [snapshot] visible and then dispatch [updates] before
+         * returning.
+         */
+        fun onSnapshot(snapshot: Snapshot<T>, updates: Updates)
+    }
+
+    /**
+     * The changes from one [Snapshot] to the next, like [DiffUtil.DiffResult]
+     */
+    interface Updates {
+        fun dispatchUpdatesTo(updateCallback: ListUpdateCallback)
+    }
+
+    /**
+     * An immutable, ordered view of the items as of one worker pass
+     * @param items only the first [size] are the snapshot's; the array is recycled once the main thread is done with it
+     */
+    class Snapshot<T>(val generation: Long, internal val items: Array<Any?>, val size: Int) {
+        @Suppress("UNCHECKED_CAST")
+        operator fun get(index: Int): T {
+            if (index >= size) {
+                throw IndexOutOfBoundsException("index=$index, size=$size")
+            }
+            return items[index] as T
+        }
+
+        override fun toString(): String {
+            return "{ generation=$generation, size=$size }"
+        }
+    }
+
+    private enum class OperationType {
+        AddOrUpdate,
+        Remove,
+        Clear,
+        Resort
+    }
+
+    private class Operation<T>(val type: OperationType, val key: Long, val item: T?)
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val workerThread = HandlerThread("\"$name\".DevicesAsyncDiffer")
+    private val workerHandler: Handler
+
+    /**
+     * Guarded by itself; written by any thread, drained by the worker thread
+     */
+    private val pending = mutableListOf<Operation<T>>()
+    private var isProcessScheduled = false
+
+    /**
+     * Set by [quit]; checked by the worker thread before a pass, and by the main thread before publishing one, since a
+     * pass can still be in flight when [quit] removes the posted ones
+     */
+    @Volatile
+    private var isQuit = false
+
+    //
+    // BEGIN: Only accessed by the worker thread
+    //
+    private val workingItems = IterableLongSparseArray<T>()
+
+    /**
+     * The keys added, updated, or removed since the last pass
+     */
+    private val workingChangedKeys = LongHashSet()
+
+    /**
+     * The changed keys whose items keep their position; scratch of [merge]
+     */
+    private val workingKeptKeys = LongHashSet()
+
+    /**
+     * The items to insert, sorted; scratch of [merge]
+     */
+    private var workingInserted = arrayOfNulls<Any?>(16)
+    private var workingCleared = false
+    private var workingResort = false
+    private val workingDrained = mutableListOf<Operation<T>>()
+    private var lastPublished = Snapshot<T>(0, emptyArray(), 0)
+    //
+    // END: Only accessed by the worker thread
+    //
+
+    /**
+     * Only accessed by the main thread
+     */
+    var current: Snapshot<T> = lastPublished
+        private set
+
+    /**
+     * Guarded by [recycledLock]; handed back by the main thread, taken by the worker thread
+     */
+    private var recycledItems: Array<Any?>? = null
+    private val recycledLock = Any()
+
+    init {
+        workerThread.start()
+        workerHandler = Handler(workerThread.looper) { msg -> this@DevicesAsyncDiffer.handleMessage(msg) }
+    }
+
+    /**
+     * Must be called on the main thread; after it returns, [Listener.onSnapshot] is no longer called
+     */
+    fun quit() {
+        isQuit = true
+        workerThread.quit()
+        mainHandler.removeCallbacksAndMessages(null)
+    }
+
+    fun addOrUpdate(item: T) = post(Operation(OperationType.AddOrUpdate, callback.getKey(item), item))
+
+    fun remove(item: T) = post(Operation(OperationType.Remove, callback.getKey(item), null))
+
+    fun clear() = post(Operation(OperationType.Clear, 0, null))
+
+    /**
+     * Forces the next pass to re-sort all items, for example after the comparator changed
+     */
+    fun invalidateOrder() = post(Operation(OperationType.Resort, 0, null))
+
+    private fun post(operation: Operation<T>) {
+        synchronized(pending) {
+            pending.add(operation)
+            if (isProcessScheduled) {
+                return
+            }
+            isProcessScheduled = true
+        }
+        workerHandler.sendEmptyMessage(MESSAGE_WHAT_PROCESS)
+    }
+
+    private fun handleMessage(msg: Message): Boolean {
+        return when (msg.what) {
+            MESSAGE_WHAT_PROCESS -> {
+                process()
+                true
+            }
+            else -> false
+        }
+    }
+
+    private fun process() {
+        if (isQuit) {
+            return
+        }
+        val drained = workingDrained
+        synchronized(pending) {
+            drained.addAll(pending)
+            pending.clear()
+            isProcessScheduled = false
+        }
+
+        var changed = false
+        for (operation in drained) {
+            when (operation.type) {
+                OperationType.AddOrUpdate -> {
+                    workingItems.put(operation.key, operation.item)
+                    workingChangedKeys.add(operation.key)
+                }
+                OperationType.Remove -> {
+                    workingItems.remove(operation.key)
+                    workingChangedKeys.add(operation.key)
+                }
+                OperationType.Clear -> {
+                    workingItems.clear()
+                    workingChangedKeys.clear()
+                    workingCleared = true
+                }
+                OperationType.Resort -> {
+                    workingResort = true
+                }
+            }
+            changed = true
+        }
+        drained.clear()
+        if (!changed) {
+            return
+        }
+
+        val oldSnapshot = lastPublished
+        val newItems = obtainItems(workingItems.size())
+        val updates = if (workingResort) resort(oldSnapshot, newItems) else merge(oldSnapshot, newItems)
+        val newSnapshot = Snapshot<T>(oldSnapshot.generation + 1, newItems, workingItems.size())
+        workingChangedKeys.clear()
+        workingCleared = false
+        workingResort = false
+
+        @Suppress("ConstantConditionIf")
+        if (LOG_PASS) {
+            Log.e(TAG, "process: $oldSnapshot -> $newSnapshot")
+        }
+
+        lastPublished = newSnapshot
+        mainHandler.post {
+            if (isQuit) {
+                return@post
+            }
+            val previous = current
+            current = newSnapshot
+            listener.onSnapshot(newSnapshot, updates)
+            recycleItems(previous)
+        }
+    }
+
+    /**
+     * @return an array of at least size, recycled from a snapshot that the main thread no longer uses if possible
+     */
+    private fun obtainItems(size: Int): Array<Any?> {
+        val recycled = synchronized(recycledLock) {
+            val recycled = recycledItems
+            recycledItems = null
+            recycled
+        }
+        if (recycled != null && recycled.size >= size) {
+            return recycled
+        }
+        return arrayOfNulls(max(size, size + (size shr 1)))
+    }
+
+    /**
+     * Called on the main thread, once snapshot has been replaced and its successor's updates dispatched
+     */
+    private fun recycleItems(snapshot: Snapshot<T>) {
+        val items = snapshot.items
+        synchronized(recycledLock) {
+            val recycled = recycledItems
+            if (recycled == null || recycled.size < items.size) {
+                recycledItems = items
+            }
+        }
+    }
+
+    /**
+     * O(n + k log k) for k changed keys: the items of oldSnapshot that did not change are already in order, so only the
+     * changed ones are sorted, and then merged in.
+     * An updated item that still compares equal to its old version (the comparator is a total order, so its sort key did
+     * not change) stays where it is and is reported as changed; the others are reported as removed and inserted, which
+     * RecyclerView animates as a move since the adapter has stable ids.
+     */
+    private fun merge(oldSnapshot: Snapshot<T>, newItems: Array<Any?>): Updates {
+        val comparator = callback.getComparator()
+        val changedKeys = workingChangedKeys
+        val keptKeys = workingKeptKeys
+        val updates = MergeUpdates()
+
+        // Removals, from the end so that each position is still valid when it is dispatched
+        val oldSize = oldSnapshot.size
+        var removedEnd = -1
+        for (i in oldSize - 1 downTo 0) {
+            val oldItem = oldSnapshot[i]
+            val key = callback.getKey(oldItem)
+            var removed = workingCleared
+            if (!removed && changedKeys.contains(key)) {
+                val newItem = workingItems.get(key)
+                removed = newItem == null || comparator.compare(oldItem, newItem) != 0
+                if (!removed) {
+                    keptKeys.add(key)
+                }
+            }
+            if (removed) {
+                if (removedEnd == -1) {
+                    removedEnd = i + 1
+                }
+            } else if (removedEnd != -1) {
+                updates.add(REMOVED, i + 1, removedEnd - (i + 1))
+                removedEnd = -1
+            }
+        }
+        if (removedEnd != -1) {
+            updates.add(REMOVED, 0, removedEnd)
+        }
+
+        // The items to insert, sorted
+        var insertCount = 0
+        if (workingCleared) {
+            for (i in 0 until workingItems.size()) {
+                insertCount = addInserted(workingItems.valueAt(i), insertCount)
+            }
+        } else {
+            for (i in 0 until changedKeys.size()) {
+                val key = changedKeys.keyAt(i)
+                if (keptKeys.contains(key)) {
+                    continue
+                }
+                val item = workingItems.get(key) ?: continue
+                insertCount = addInserted(item, insertCount)
+            }
+        }
+        val inserted = workingInserted
+        @Suppress("UNCHECKED_CAST")
+        Arrays.sort(inserted, 0, insertCount, comparator as Comparator<Any?>)
+
+        // Insertions, in order, merged with the kept items; changes are dispatched last, at their final positions
+        var oldIndex = 0
+        var insertIndex = 0
+        var position = 0
+        var insertedStart = -1
+        while (true) {
+            var oldItem: T? = null
+            if (!workingCleared) {
+                while (oldIndex < oldSize) {
+                    val candidate = oldSnapshot[oldIndex]
+                    val key = callback.getKey(candidate)
+                    if (!changedKeys.contains(key) || keptKeys.contains(key)) {
+                        oldItem = candidate
+                        break
+                    }
+                    oldIndex++
+                }
+            }
+            @Suppress("UNCHECKED_CAST")
+            val insertItem = if (insertIndex < insertCount) inserted[insertIndex] as T else null
+            if (oldItem == null && insertItem == null) {
+                break
+            }
+            if (insertItem != null && (oldItem == null || comparator.compare(insertItem, oldItem) < 0)) {
+                if (insertedStart == -1) {
+                    insertedStart = position
+                }
+                newItems[position++] = insertItem
+                insertIndex++
+                continue
+            }
+            if (insertedStart != -1) {
+                updates.add(INSERTED, insertedStart, position - insertedStart)
+                insertedStart = -1
+            }
+            val key = callback.getKey(oldItem!!)
+            val newItem = if (keptKeys.contains(key)) workingItems.get(key)!! else oldItem
+            if (newItem !== oldItem && !callback.areContentsTheSame(oldItem, newItem, true)) {
+                updates.addChanged(position, oldItem, newItem)
+            }
+            newItems[position++] = newItem
+            oldIndex++
+        }
+        if (insertedStart != -1) {
+            updates.add(INSERTED, insertedStart, position - insertedStart)
+        }
+        Arrays.fill(newItems, position, newItems.size, null)
+        Arrays.fill(inserted, 0, insertCount, null)
+        keptKeys.clear()
+        return updates
+    }
+
+    private fun addInserted(item: T, count: Int): Int {
+        if (count == workingInserted.size) {
+            workingInserted = workingInserted.copyOf(max(16, count * 2))
+        }
+        workingInserted[count] = item
+        return count + 1
+    }
+
+    /**
+     * O(n log n) plus a full diff; only after the comparator changed, when every position may have changed
+     */
+    private fun resort(oldSnapshot: Snapshot<T>, newItems: Array<Any?>): Updates {
+        val size = workingItems.size()
+        for (i in 0 until size) {
+            newItems[i] = workingItems.valueAt(i)
+        }
+        Arrays.fill(newItems, size, newItems.size, null)
+        @Suppress("UNCHECKED_CAST")
+        Arrays.sort(newItems as Array<T>, 0, size, callback.getComparator())
+        val newSnapshot = Snapshot<T>(0, newItems as Array<Any?>, size)
+
+        val changedKeys = workingChangedKeys
+        val cleared = workingCleared
+        val diffResult = DiffUtil.calculateDiff(object : DiffUtil.Callback() {
+            override fun getOldListSize(): Int = oldSnapshot.size
+
+            override fun getNewListSize(): Int = newSnapshot.size
+
+            override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+                return !cleared &&
+                        callback.getKey(oldSnapshot[oldItemPosition]) == callback.getKey(newSnapshot[newItemPosition])
+            }
+
+            override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+                val newItem = newSnapshot[newItemPosition]
+                val updated = changedKeys.contains(callback.getKey(newItem))
+                return callback.areContentsTheSame(oldSnapshot[oldItemPosition], newItem, updated)
+            }
+
+            override fun getChangePayload(oldItemPosition: Int, newItemPosition: Int): Any? {
+                return callback.getChangePayload(oldSnapshot[oldItemPosition], newSnapshot[newItemPosition])
+            }
+        })
+        return object : Updates {
+            override fun dispatchUpdatesTo(updateCallback: ListUpdateCallback) = diffResult.dispatchUpdatesTo(updateCallback)
+        }
+    }
+
+    /**
+     * The removals (from the end), then the insertions (in order), then the changes (at their final positions) that
+     * turn one snapshot into the next
+     */
+    private inner class MergeUpdates : Updates {
+        private var ops = IntArray(3 * 4)
+        private var opsCount = 0
+        private var changed = arrayOfNulls<Any?>(2 * 4)
+        private var changedCount = 0
+
+        fun add(type: Int, position: Int, count: Int) {
+            if (opsCount + 3 > ops.size) {
+                ops = ops.copyOf(ops.size * 2)
+            }
+            ops[opsCount++] = type
+            ops[opsCount++] = position
+            ops[opsCount++] = count
+        }
+
+        fun addChanged(position: Int, oldItem: T, newItem: T) {
+            add(CHANGED, position, changedCount)
+            if (2 * changedCount + 2 > changed.size) {
+                changed = changed.copyOf(changed.size * 2)
+            }
+            changed[2 * changedCount] = oldItem
+            changed[2 * changedCount + 1] = newItem
+            changedCount++
+        }
+
+        override fun dispatchUpdatesTo(updateCallback: ListUpdateCallback) {
+            var i = 0
+            while (i < opsCount) {
+                val type = ops[i++]
+                val position = ops[i++]
+                val value = ops[i++]
+                when (type) {
+                    REMOVED -> updateCallback.onRemoved(position, value)
+                    INSERTED -> updateCallback.onInserted(position, value)
+                    CHANGED -> {
+                        @Suppress("UNCHECKED_CAST")
+                        val payload = callback.getChangePayload(changed[2 * value] as T, changed[2 * value + 1] as T)
+                        updateCallback.onChanged(position, 1, payload)
+                    }
+                }
+            }
+        }
+
+        override fun toString(): String {
+            return "{ ops=${opsCount / 3}, changed=$changedCount }"
+        }
+    }
+}
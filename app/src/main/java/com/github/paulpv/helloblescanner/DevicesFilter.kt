@@ -0,0 +1,57 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.utils.Utils
+import java.util.*
+
+/**
+ * An immutable predicate over [DeviceRow]s: a case insensitive name fragment and/or a minimum RSSI.
+ *
+ * @param nameFragment null or empty to match any name
+ * @param rssiMin [RSSI_MIN_NONE] to match any RSSI
+ */
+class DevicesFilter(nameFragment: String? = null, val rssiMin: Int = RSSI_MIN_NONE) {
+    companion object {
+        const val RSSI_MIN_NONE = Int.MIN_VALUE
+
+        val NONE = DevicesFilter()
+    }
+
+    /**
+     * Lower case, or null to match any name
+     */
+    val nameFragment: String? = if (nameFragment.isNullOrEmpty()) null else nameFragment.toLowerCase(Locale.ROOT)
+
+    val isNone: Boolean
+        get() = nameFragment == null && rssiMin == RSSI_MIN_NONE
+
+    fun matches(row: DeviceRow): Boolean {
+        if (row.rssiSmoothed < rssiMin) {
+            return false
+        }
+        val nameFragment = nameFragment ?: return true
+        return row.name.contains(nameFragment, ignoreCase = true)
+    }
+
+    /**
+     * @return true if every row that matches this also matches other, ie: this is the same as or more specific than other
+     */
+    fun isNarrowerOrEqualTo(other: DevicesFilter): Boolean {
+        if (rssiMin < other.rssiMin) {
+            return false
+        }
+        val otherNameFragment = other.nameFragment ?: return true
+        return nameFragment?.contains(otherNameFragment) ?: false
+    }
+
+    override fun equals(other: Any?): Boolean {
+        return other is DevicesFilter && nameFragment == other.nameFragment && rssiMin == other.rssiMin
+    }
+
+    override fun hashCode(): Int {
+        return 31 * (nameFragment?.hashCode() ?: 0) + rssiMin
+    }
+
+    override fun toString(): String {
+        return "{ nameFragment=${Utils.quote(nameFragment)}, rssiMin=$rssiMin }"
+    }
+}
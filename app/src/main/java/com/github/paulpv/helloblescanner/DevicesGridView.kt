@@ -0,0 +1,449 @@
+package com.github.paulpv.helloblescanner
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import android.os.SystemClock
+import android.util.AttributeSet
+import android.util.Log
+import android.view.MotionEvent
+import android.view.View
+import com.github.paulpv.helloblescanner.collections.ExpiringIterableLongSparseArray
+import com.github.paulpv.helloblescanner.collections.IterableLongSparseArray
+import com.github.paulpv.helloblescanner.utils.Utils
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * A dense alternative to [DevicesRecyclerView] for when there are too many devices (10k+) for one row of [android.widget.TextView]s
+ * each: every device is one tile of a grid, colored by its smoothed RSSI (hue) and by how long ago it was last seen
+ * relative to its timeout (fade).
+ *
+ * Each device is assigned a fixed slot (tile) when it is added, and the slot is reused after it is removed.
+ * The state of each slot is kept in primitive arrays, and the tiles are drawn into a backing [Bitmap]; a change only
+ * marks its slot dirty, and the next frame redraws just the dirty tiles into that bitmap before drawing the bitmap.
+ * So the per frame cost scales with the number of changed devices, not the total number of devices.
+ *
+ * [add]/[remove]/[clear] may be called from any thread.
+ */
+class DevicesGridView @JvmOverloads constructor(
+    context: Context,
+    attrs: AttributeSet? = null,
+    defStyleAttr: Int = 0
+) :
+    View(context, attrs, defStyleAttr) {
+    companion object {
+        private val TAG = Utils.TAG(DevicesGridView::class)
+
+        private const val LOG_DRAW = false
+
+        private const val CAPACITY_INITIAL = 256
+
+        private const val TILE_SIZE_MIN_PX = 4
+        private const val TILE_SIZE_MAX_DP = 48
+        private const val TILE_GAP_PX = 1
+
+        //
+        // RSSIs are clamped to this range and colored from red (min) to green (max)
+        //
+        private const val RSSI_COLOR_MIN = -100
+        private const val RSSI_COLOR_MAX = -40
+        private const val RSSI_COLOR_HUE_MIN = 0f
+        private const val RSSI_COLOR_HUE_MAX = 120f
+
+        /**
+         * The number of steps that a tile fades through between being seen and timing out
+         */
+        private const val AGE_LEVELS = 4
+
+        private const val AGE_UPDATE_INTERVAL_MILLIS = 1000L
+
+        private const val COLOR_EMPTY = Color.WHITE
+
+        private const val SLOT_NONE = -1
+
+        /**
+         * Opaque colors, pre-blended towards white by age level, indexed by [paletteIndex]
+         */
+        private val PALETTE = newPalette()
+
+        private fun newPalette(): IntArray {
+            val rssiCount = RSSI_COLOR_MAX - RSSI_COLOR_MIN + 1
+            val palette = IntArray(rssiCount * AGE_LEVELS)
+            val hsv = FloatArray(3)
+            for (rssiOffset in 0 until rssiCount) {
+                hsv[0] = RSSI_COLOR_HUE_MIN + (RSSI_COLOR_HUE_MAX - RSSI_COLOR_HUE_MIN) * rssiOffset / (rssiCount - 1)
+                hsv[2] = 1f
+                for (ageLevel in 0 until AGE_LEVELS) {
+                    hsv[1] = 1f - ageLevel / AGE_LEVELS.toFloat()
+                    palette[rssiOffset * AGE_LEVELS + ageLevel] = Color.HSVToColor(hsv)
+                }
+            }
+            return palette
+        }
+
+        private fun paletteIndex(rssiSmoothed: Int, ageLevel: Int): Int {
+            val rssiOffset = min(max(rssiSmoothed, RSSI_COLOR_MIN), RSSI_COLOR_MAX) - RSSI_COLOR_MIN
+            return rssiOffset * AGE_LEVELS + ageLevel
+        }
+
+        private fun getAgeLevel(nowUptimeMillis: Long, lastUpdatedUptimeMillis: Long, timeoutMillis: Long): Int {
+            if (timeoutMillis <= 0) {
+                return 0
+            }
+            val level = (nowUptimeMillis - lastUpdatedUptimeMillis) * AGE_LEVELS / timeoutMillis
+            return min(max(level, 0L), AGE_LEVELS - 1L).toInt()
+        }
+    }
+
+    interface EventListener {
+        fun onItemSelected(item: BleScanResult)
+    }
+
+    var eventListener: EventListener? = null
+
+    private val tileSizeMaxPx = (TILE_SIZE_MAX_DP * resources.displayMetrics.density).toInt()
+
+    /**
+     * Guards all of the slot and dirty state below
+     */
+    private val lock = Any()
+
+    //
+    // BEGIN: Slots; guarded by lock
+    //
+    private var capacity = CAPACITY_INITIAL
+    private var slotItems = arrayOfNulls<BleScanResult>(capacity)
+    private var slotRssiSmoothed = IntArray(capacity)
+    private var slotLastUpdatedUptimeMillis = LongArray(capacity)
+    private var slotTimeoutMillis = LongArray(capacity)
+    private var slotAgeLevels = IntArray(capacity)
+
+    /**
+     * true if the slot's tile needs to be redrawn; set iff the slot is in [dirtySlots]
+     */
+    private var slotDirty = BooleanArray(capacity)
+
+    /**
+     * One past the highest slot ever used since the last [clear]
+     */
+    private var slotCount = 0
+    private var freeSlots = IntArray(capacity)
+    private var freeSlotsCount = 0
+
+    /**
+     * Boxed slot indexes are only allocated when a key is added, never on update
+     */
+    private val slotsByKey = IterableLongSparseArray<Int>()
+
+    private var dirtySlots = IntArray(capacity)
+    private var dirtySlotsCount = 0
+    private var isFullRedrawPending = true
+    private var isInvalidatePending = false
+    //
+    // END: Slots; guarded by lock
+    //
+
+    //
+    // BEGIN: Only accessed by the main thread
+    //
+    private var bitmap: Bitmap? = null
+    private var bitmapCanvas: Canvas? = null
+    private val paint = Paint()
+    private var tileSize = 0
+    private var columns = 1
+    private var autoUpdateEnabled = false
+    //
+    // END: Only accessed by the main thread
+    //
+
+    private val runnableUpdateAgeLevels = Runnable { updateAgeLevels() }
+
+    init {
+        paint.isAntiAlias = false
+        paint.style = Paint.Style.FILL
+    }
+
+    override fun onAttachedToWindow() {
+        super.onAttachedToWindow()
+        autoUpdateAgeLevels(isShown)
+    }
+
+    override fun onDetachedFromWindow() {
+        super.onDetachedFromWindow()
+        autoUpdateAgeLevels(false)
+    }
+
+    override fun onVisibilityChanged(changedView: View, visibility: Int) {
+        super.onVisibilityChanged(changedView, visibility)
+        autoUpdateAgeLevels(isAttachedToWindow && isShown)
+    }
+
+    //
+    //
+    //
+
+    fun add(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
+        val scanResult = item.value
+        val key = scanResult.macAddressLong
+        synchronized(lock) {
+            val slot = slotsByKey.get(key) ?: newSlot(key)
+            slotItems[slot] = scanResult
+            slotRssiSmoothed[slot] = scanResult.rssiSmoothed
+            slotLastUpdatedUptimeMillis[slot] = item.lastUpdatedUptimeMillis
+            slotTimeoutMillis[slot] = item.timeoutMillis
+            slotAgeLevels[slot] = getAgeLevel(SystemClock.uptimeMillis(), item.lastUpdatedUptimeMillis, item.timeoutMillis)
+            markDirty(slot)
+        }
+    }
+
+    fun remove(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
+        val key = item.value.macAddressLong
+        synchronized(lock) {
+            val slot = slotsByKey.remove(key) ?: return
+            slotItems[slot] = null
+            freeSlots[freeSlotsCount++] = slot
+            markDirty(slot)
+        }
+    }
+
+    /**
+     * Replaces all tiles with a snapshot, for example the one handed to an observer when it attaches
+     */
+    fun load(items: List<ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>>) {
+        synchronized(lock) {
+            clear()
+            for (item in items) {
+                add(item)
+            }
+        }
+    }
+
+    fun clear() {
+        synchronized(lock) {
+            slotsByKey.clear()
+            slotItems.fill(null, 0, slotCount)
+            slotDirty.fill(false, 0, slotCount)
+            slotCount = 0
+            freeSlotsCount = 0
+            dirtySlotsCount = 0
+            isFullRedrawPending = true
+            requestInvalidate()
+        }
+    }
+
+    //
+    // Slots; must be called while holding lock
+    //
+
+    private fun newSlot(key: Long): Int {
+        val slot = if (freeSlotsCount > 0) {
+            freeSlots[--freeSlotsCount]
+        } else {
+            if (slotCount == capacity) {
+                grow()
+            }
+            slotCount++
+        }
+        slotsByKey.put(key, slot)
+        return slot
+    }
+
+    /**
+     * Doubles the capacity; the tiles are resized to fit the new capacity, so everything is redrawn
+     */
+    private fun grow() {
+        val capacity = capacity * 2
+        Log.d(TAG, "grow: capacity=$capacity")
+        this.capacity = capacity
+        slotItems = slotItems.copyOf(capacity)
+        slotRssiSmoothed = slotRssiSmoothed.copyOf(capacity)
+        slotLastUpdatedUptimeMillis = slotLastUpdatedUptimeMillis.copyOf(capacity)
+        slotTimeoutMillis = slotTimeoutMillis.copyOf(capacity)
+        slotAgeLevels = slotAgeLevels.copyOf(capacity)
+        slotDirty = slotDirty.copyOf(capacity)
+        freeSlots = freeSlots.copyOf(capacity)
+        dirtySlots = dirtySlots.copyOf(capacity)
+        isFullRedrawPending = true
+    }
+
+    private fun markDirty(slot: Int) {
+        if (!slotDirty[slot]) {
+            slotDirty[slot] = true
+            dirtySlots[dirtySlotsCount++] = slot
+        }
+        requestInvalidate()
+    }
+
+    private fun requestInvalidate() {
+        if (!isInvalidatePending) {
+            isInvalidatePending = true
+            postInvalidateOnAnimation()
+        }
+    }
+
+    //
+    // Age levels
+    //
+
+    private fun autoUpdateAgeLevels(enable: Boolean) {
+        if (enable == autoUpdateEnabled) {
+            return
+        }
+        autoUpdateEnabled = enable
+        removeCallbacks(runnableUpdateAgeLevels)
+        if (enable) {
+            postDelayed(runnableUpdateAgeLevels, AGE_UPDATE_INTERVAL_MILLIS)
+        }
+    }
+
+    /**
+     * O(n) integer compares, but only the slots whose age level changed are redrawn
+     */
+    private fun updateAgeLevels() {
+        val now = SystemClock.uptimeMillis()
+        synchronized(lock) {
+            for (slot in 0 until slotCount) {
+                if (slotItems[slot] == null) {
+                    continue
+                }
+                val ageLevel = getAgeLevel(now, slotLastUpdatedUptimeMillis[slot], slotTimeoutMillis[slot])
+                if (ageLevel != slotAgeLevels[slot]) {
+                    slotAgeLevels[slot] = ageLevel
+                    markDirty(slot)
+                }
+            }
+        }
+        if (autoUpdateEnabled) {
+            postDelayed(runnableUpdateAgeLevels, AGE_UPDATE_INTERVAL_MILLIS)
+        }
+    }
+
+    //
+    // Drawing
+    //
+
+    override fun onSizeChanged(w: Int, h: Int, oldw: Int, oldh: Int) {
+        super.onSizeChanged(w, h, oldw, oldh)
+        bitmap?.recycle()
+        if (w > 0 && h > 0) {
+            val bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888)
+            this.bitmap = bitmap
+            bitmapCanvas = Canvas(bitmap)
+        } else {
+            bitmap = null
+            bitmapCanvas = null
+        }
+        synchronized(lock) {
+            isFullRedrawPending = true
+        }
+    }
+
+    /**
+     * Must be called while holding lock
+     */
+    private fun updateTileSize(width: Int, height: Int) {
+        val tileSize = sqrt(width.toDouble() * height / capacity).toInt()
+        this.tileSize = min(max(tileSize, TILE_SIZE_MIN_PX), tileSizeMaxPx)
+        columns = max(width / this.tileSize, 1)
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        super.onDraw(canvas)
+        val bitmap = bitmap ?: return
+        val bitmapCanvas = bitmapCanvas!!
+        synchronized(lock) {
+            isInvalidatePending = false
+            if (isFullRedrawPending) {
+                isFullRedrawPending = false
+                updateTileSize(bitmap.width, bitmap.height)
+                bitmap.eraseColor(COLOR_EMPTY)
+                @Suppress("ConstantConditionIf")
+                if (LOG_DRAW) {
+                    Log.v(TAG, "onDraw: full; slotCount=$slotCount, tileSize=$tileSize, columns=$columns")
+                }
+                for (slot in 0 until slotCount) {
+                    drawTile(bitmapCanvas, slot)
+                }
+            } else {
+                @Suppress("ConstantConditionIf")
+                if (LOG_DRAW) {
+                    Log.v(TAG, "onDraw: dirtySlotsCount=$dirtySlotsCount")
+                }
+                for (i in 0 until dirtySlotsCount) {
+                    drawTile(bitmapCanvas, dirtySlots[i])
+                }
+            }
+            for (i in 0 until dirtySlotsCount) {
+                slotDirty[dirtySlots[i]] = false
+            }
+            dirtySlotsCount = 0
+        }
+        canvas.drawBitmap(bitmap, 0f, 0f, null)
+    }
+
+    /**
+     * Must be called while holding lock
+     */
+    private fun drawTile(canvas: Canvas, slot: Int) {
+        val left = (slot % columns) * tileSize
+        val top = (slot / columns) * tileSize
+        paint.color = COLOR_EMPTY
+        canvas.drawRect(left.toFloat(), top.toFloat(), (left + tileSize).toFloat(), (top + tileSize).toFloat(), paint)
+        if (slotItems[slot] == null) {
+            return
+        }
+        paint.color = PALETTE[paletteIndex(slotRssiSmoothed[slot], slotAgeLevels[slot])]
+        canvas.drawRect(
+            left.toFloat(),
+            top.toFloat(),
+            (left + tileSize - TILE_GAP_PX).toFloat(),
+            (top + tileSize - TILE_GAP_PX).toFloat(),
+            paint
+        )
+    }
+
+    //
+    // Selection
+    //
+
+    /**
+     * @return the slot of the tile at x,y, or [SLOT_NONE]
+     */
+    private fun getSlotAt(x: Float, y: Float): Int {
+        val tileSize = tileSize
+        if (tileSize <= 0 || x < 0 || y < 0) {
+            return SLOT_NONE
+        }
+        val column = x.toInt() / tileSize
+        if (column >= columns) {
+            return SLOT_NONE
+        }
+        return (y.toInt() / tileSize) * columns + column
+    }
+
+    override fun onTouchEvent(event: MotionEvent): Boolean {
+        when (event.actionMasked) {
+            MotionEvent.ACTION_DOWN -> return true
+            MotionEvent.ACTION_UP -> {
+                val slot = getSlotAt(event.x, event.y)
+                val item = synchronized(lock) {
+                    if (slot in 0 until slotCount) slotItems[slot] else null
+                }
+                performClick()
+                if (item != null) {
+                    eventListener?.onItemSelected(item)
+                }
+                return true
+            }
+        }
+        return super.onTouchEvent(event)
+    }
+
+    override fun performClick(): Boolean {
+        return super.performClick()
+    }
+}
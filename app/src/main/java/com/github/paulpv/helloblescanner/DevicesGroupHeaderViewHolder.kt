@@ -0,0 +1,41 @@
+package com.github.paulpv.helloblescanner
+
+import android.view.View.OnClickListener
+import android.view.ViewGroup
+import android.widget.TextView
+import com.github.paulpv.helloblescanner.utils.Utils
+
+class DevicesGroupHeaderViewHolder(itemView: ViewGroup) :
+        BindableViewHolder<DeviceRow>(itemView) {
+    private val labelGroupName: TextView = itemView.findViewById(R.id.labelGroupName)
+    private val labelGroupCount: TextView = itemView.findViewById(R.id.labelGroupCount)
+
+    //
+    // The values last rendered into the labels, so that unchanged labels are not touched
+    //
+    private var renderedName: String? = null
+    private var renderedCollapsed = false
+    private var renderedCount = -1
+
+    private val bufferCount = CharArray(16)
+
+    override fun bindTo(item: DeviceRow, clickListener: OnClickListener) {
+        super.bindTo(item, clickListener)
+        val name = item.name
+        val collapsed = item.groupCollapsed
+        if (renderedName != name || renderedCollapsed != collapsed) {
+            renderedName = name
+            renderedCollapsed = collapsed
+            labelGroupName.text = (if (collapsed) "+ " else "- ") + name
+        }
+        val count = item.groupCount
+        if (renderedCount != count) {
+            renderedCount = count
+            var offset = 0
+            bufferCount[offset++] = '('
+            offset = Utils.formatNumber(count.toLong(), 1, bufferCount, offset)
+            bufferCount[offset++] = ')'
+            labelGroupCount.setText(bufferCount, 0, offset)
+        }
+    }
+}
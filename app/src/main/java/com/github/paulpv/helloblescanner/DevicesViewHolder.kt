@@ -1,17 +1,26 @@
 package com.github.paulpv.helloblescanner
 
-import android.annotation.SuppressLint
 import android.content.Context
+import android.os.SystemClock
 import android.view.View.OnClickListener
 import android.view.ViewGroup
 import android.widget.TextView
-import java.util.*
+import com.github.paulpv.helloblescanner.utils.PaddedIntFormatter
+import com.github.paulpv.helloblescanner.utils.Utils
+import java.util.concurrent.TimeUnit
 
 class DevicesViewHolder(val context: Context, itemView: ViewGroup) :
-        BindableViewHolder<BleScanResult>(itemView) {
-    //companion object {
-    //    private val TAG = TAG(DevicesViewHolder::class)
-    //}
+        BindableViewHolder<DeviceRow>(itemView) {
+    companion object {
+        //private val TAG = TAG(DevicesViewHolder::class)
+
+        //
+        // Shared by all holders; only ever used on the main thread
+        //
+        private val RSSI_REAL_FORMATTER = PaddedIntFormatter("real=", 4, PaddedIntFormatter.RSSI_MIN, PaddedIntFormatter.RSSI_MAX)
+        private val RSSI_AVERAGE_FORMATTER = PaddedIntFormatter("avg=", 4, PaddedIntFormatter.RSSI_MIN, PaddedIntFormatter.RSSI_MAX)
+        private val BATTERY_PERCENT_FORMATTER = PaddedIntFormatter("batt= ", 2, 0, 100, "%")
+    }
 
     private val groupDeviceCell: ViewGroup = itemView.findViewById(R.id.groupDeviceCell)
     private val labelAddress: TextView = itemView.findViewById(R.id.labelAddress)
@@ -23,19 +32,116 @@ class DevicesViewHolder(val context: Context, itemView: ViewGroup) :
     private val labelRssiAverage: TextView = itemView.findViewById(R.id.labelRssiAverage)
     private val labelBatteryPercent: TextView = itemView.findViewById(R.id.labelBatteryPercent)
 
-    @SuppressLint("SetTextI18n")
-    override fun bindTo(item: BleScanResult, clickListener: OnClickListener) {
+    //
+    // The values last rendered into the labels, so that unchanged labels are not touched
+    //
+    private var renderedMacAddressLong = -1L
+    private var renderedName: String? = null
+    private var renderedRssi = Int.MIN_VALUE
+    private var renderedRssiSmoothed = Int.MIN_VALUE
+    private var renderedBatteryPercent = Int.MIN_VALUE
+
+    //
+    // Per label buffers for values outside of the formatters' cached ranges
+    //
+    private val bufferRssiReal = RSSI_REAL_FORMATTER.newBuffer()
+    private val bufferRssiAverage = RSSI_AVERAGE_FORMATTER.newBuffer()
+    private val bufferBatteryPercent = BATTERY_PERCENT_FORMATTER.newBuffer()
+
+    //
+    // The times of the bound row; copied, not referenced, because rows are recycled
+    //
+    private var addedUptimeMillis = 0L
+    private var lastUpdatedUptimeMillis = 0L
+    private var timeoutMillis = 0L
+
+    //
+    // Per label buffers for the time labels; TextView keeps a reference to the array, so these are not shared
+    //
+    private val bufferAge = CharArray(32)
+    private val bufferLastSeen = CharArray(32)
+    private val bufferTimeoutRemaining = CharArray(32)
+
+    override fun bindTo(item: DeviceRow, clickListener: OnClickListener) {
         super.bindTo(item, clickListener)
         //val backgroundColor = if (item.isClicked) R.color.colorDeviceCellClicked else R.color.colorDeviceCell
         //groupDeviceCell.setBackgroundColor(Utils.getColor(context, backgroundColor))
-        labelAddress.text = item.macAddress
-        //labelAge.text = "age=${Utils.getTimeDurationFormattedString(item.addedElapsedMillis)}"
-        //labelLastSeen.text = "seen=${Utils.getTimeDurationFormattedString(item.lastUpdatedElapsedMillis, TimeUnit.MINUTES)}"
-        //labelTimeoutRemaining.text = "remain=${Utils.getTimeDurationFormattedString(item.timeoutRemainingMillis, TimeUnit.MINUTES)}"
-        labelName.text = item.name
-        val locale = Locale.getDefault()
-        labelRssiReal.text = String.format(locale, "real=%04d", item.rssi)
-        labelRssiAverage.text = String.format(locale, "avg=%04d", item.rssiSmoothed)
-        //labelBatteryPercent.text = String.format(locale, "batt= %02d%%", item.batteryPercent)
+        if (renderedMacAddressLong != item.macAddressLong) {
+            renderedMacAddressLong = item.macAddressLong
+            labelAddress.text = item.macAddress
+        }
+        bindChanges(item, DeviceRow.CHANGED_ALL)
+    }
+
+    /**
+     * Partial bind of the same item that is already bound
+     * @param changes DeviceRow.CHANGED_* bitmask of the labels that may need to be refreshed
+     */
+    fun bindChanges(item: DeviceRow, changes: Int) {
+        if (changes and DeviceRow.CHANGED_NAME != 0) {
+            val name = item.name
+            if (renderedName != name) {
+                renderedName = name
+                labelName.text = name
+            }
+        }
+        if (changes and DeviceRow.CHANGED_RSSI != 0) {
+            val rssi = item.rssi
+            if (renderedRssi != rssi) {
+                renderedRssi = rssi
+                RSSI_REAL_FORMATTER.setText(labelRssiReal, rssi, bufferRssiReal)
+            }
+        }
+        if (changes and DeviceRow.CHANGED_RSSI_SMOOTHED != 0) {
+            val rssiSmoothed = item.rssiSmoothed
+            if (renderedRssiSmoothed != rssiSmoothed) {
+                renderedRssiSmoothed = rssiSmoothed
+                RSSI_AVERAGE_FORMATTER.setText(labelRssiAverage, rssiSmoothed, bufferRssiAverage)
+            }
+        }
+        if (changes and DeviceRow.CHANGED_BATTERY != 0) {
+            val batteryPercent = item.batteryPercent
+            if (renderedBatteryPercent != batteryPercent) {
+                renderedBatteryPercent = batteryPercent
+                if (batteryPercent == BleScanResult.BATTERY_PERCENT_NONE) {
+                    labelBatteryPercent.text = null
+                } else {
+                    BATTERY_PERCENT_FORMATTER.setText(labelBatteryPercent, batteryPercent, bufferBatteryPercent)
+                }
+            }
+        }
+        if (changes and DeviceRow.CHANGED_TIMES != 0) {
+            addedUptimeMillis = item.addedUptimeMillis
+            lastUpdatedUptimeMillis = item.lastUpdatedUptimeMillis
+            timeoutMillis = item.timeoutMillis
+            bindTimes(SystemClock.uptimeMillis())
+        }
+    }
+
+    /**
+     * Refreshes only the time labels, from the times of the last bound row; called periodically while attached
+     */
+    fun bindTimes(nowUptimeMillis: Long) {
+        val addedElapsedMillis = nowUptimeMillis - addedUptimeMillis
+        val lastUpdatedElapsedMillis = nowUptimeMillis - lastUpdatedUptimeMillis
+        val timeoutRemainingMillis = timeoutMillis - lastUpdatedElapsedMillis
+        setTimeText(labelAge, "age=", addedElapsedMillis, TimeUnit.HOURS, bufferAge)
+        setTimeText(labelLastSeen, "seen=", lastUpdatedElapsedMillis, TimeUnit.MINUTES, bufferLastSeen)
+        setTimeText(labelTimeoutRemaining, "remain=", timeoutRemainingMillis, TimeUnit.MINUTES, bufferTimeoutRemaining)
+    }
+
+    private fun setTimeText(
+        textView: TextView,
+        prefix: String,
+        elapsedMillis: Long,
+        maximumTimeUnit: TimeUnit,
+        buffer: CharArray
+    ) {
+        var offset = 0
+        for (c in prefix) {
+            buffer[offset++] = c
+        }
+        offset = Utils.getTimeDurationFormattedChars(elapsedMillis, maximumTimeUnit, buffer, offset)
+        textView.setText(buffer, 0, offset)
     }
 }
@@ -0,0 +1,10 @@
+package com.github.paulpv.helloblescanner
+
+enum class GroupBy {
+    None,
+    /**
+     * The Organizationally Unique Identifier, ie: the top 24 bits of the MAC address
+     */
+    Oui,
+    Name
+}
@@ -10,6 +10,7 @@ import android.view.View
 import android.widget.TextView
 import androidx.activity.result.contract.ActivityResultContracts
 import androidx.appcompat.app.AppCompatActivity
+import androidx.appcompat.widget.SearchView
 import androidx.appcompat.widget.SwitchCompat
 import androidx.appcompat.widget.Toolbar
 import androidx.core.content.ContextCompat
@@ -18,12 +19,23 @@ import androidx.recyclerview.widget.DividerItemDecoration
 import androidx.recyclerview.widget.LinearLayoutManager
 import com.github.paulpv.helloblescanner.collections.ExpiringIterableLongSparseArray
 import com.github.paulpv.helloblescanner.scanners.ScannerAbstract
+import com.github.paulpv.helloblescanner.utils.RssiHistory
 import com.google.android.material.snackbar.Snackbar
 import kotlinx.android.synthetic.main.activity_main.*
 
 class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
     companion object {
         private const val TAG = "MainActivity"
+
+        /**
+         * true to sort/diff the device list on a worker thread; false to sort it synchronously
+         */
+        private const val DEVICES_ASYNC_DIFF = false
+
+        /**
+         * true to collapse device list updates and apply them once per display frame; false to apply each one
+         */
+        private const val DEVICES_FRAME_COALESCE = true
     }
 
     private lateinit var businessLogic: MyBusinessLogic
@@ -31,6 +43,12 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
     private lateinit var switchScan: SwitchCompat
     private lateinit var devicesAdapter: DevicesAdapter
 
+    /**
+     * true to show the devices in [DevicesGridView]; false to show them in [DevicesRecyclerView].
+     * Only the one that is shown is kept up to date.
+     */
+    private var devicesDisplayGrid = false
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
 
@@ -43,9 +61,9 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
             setSupportActionBar(toolbar)
         }
 
-        devicesAdapter = DevicesAdapter(this, SortBy.Address)
-        devicesAdapter.setEventListener(object : DevicesAdapter.EventListener<BleScanResult> {
-            override fun onItemSelected(item: BleScanResult) = this@MainActivity.onItemSelected(item)
+        devicesAdapter = DevicesAdapter(this, SortBy.Address, DEVICES_ASYNC_DIFF, DEVICES_FRAME_COALESCE)
+        devicesAdapter.setEventListener(object : DevicesAdapter.EventListener<DeviceRow> {
+            override fun onItemSelected(item: DeviceRow) = this@MainActivity.onItemSelected(item)
         })
 
         val layoutManager = LinearLayoutManager(this, LinearLayoutManager.VERTICAL, false)
@@ -57,6 +75,15 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
             itemAnimator = null
             adapter = devicesAdapter
         }
+
+        devices_grid.eventListener = object : DevicesGridView.EventListener {
+            override fun onItemSelected(item: BleScanResult) = this@MainActivity.onItemSelected(item)
+        }
+    }
+
+    override fun onDestroy() {
+        super.onDestroy()
+        devicesAdapter.release()
     }
 
     override fun onCreateOptionsMenu(menu: Menu): Boolean {
@@ -86,6 +113,19 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
             }
         }
 
+        val searchView = menu.findItem(R.id.action_filter_name)?.actionView as SearchView?
+        searchView?.setOnQueryTextListener(object : SearchView.OnQueryTextListener {
+            override fun onQueryTextSubmit(query: String?): Boolean {
+                setFilterName(query)
+                return true
+            }
+
+            override fun onQueryTextChange(newText: String?): Boolean {
+                setFilterName(newText)
+                return true
+            }
+        })
+
         return true
     }
 
@@ -116,6 +156,34 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
             }
         )?.isChecked = true
 
+        menu?.findItem(
+            when (businessLogic.rssiSmootherType) {
+                MyBusinessLogic.RssiSmootherType.Ewma -> R.id.action_rssi_smoother_ewma
+                MyBusinessLogic.RssiSmootherType.Median -> R.id.action_rssi_smoother_median
+                MyBusinessLogic.RssiSmootherType.Kalman -> R.id.action_rssi_smoother_kalman
+            }
+        )?.isChecked = true
+
+        menu?.findItem(
+            when (devicesAdapter.filter.rssiMin) {
+                -90 -> R.id.action_filter_rssi_90
+                -80 -> R.id.action_filter_rssi_80
+                -70 -> R.id.action_filter_rssi_70
+                -60 -> R.id.action_filter_rssi_60
+                else -> R.id.action_filter_rssi_none
+            }
+        )?.isChecked = true
+
+        menu?.findItem(
+            when (devicesAdapter.groupBy) {
+                GroupBy.Oui -> R.id.action_groupby_oui
+                GroupBy.Name -> R.id.action_groupby_name
+                else -> R.id.action_groupby_none
+            }
+        )?.isChecked = true
+
+        menu?.findItem(R.id.action_display_grid)?.isChecked = devicesDisplayGrid
+
         return true
     }
 
@@ -149,6 +217,42 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
             R.id.action_scanner_filter_specific -> {
                 businessLogic.scanFilterType = MyBusinessLogic.ScanFilterType.Specific
             }
+            R.id.action_rssi_smoother_ewma -> {
+                businessLogic.rssiSmootherType = MyBusinessLogic.RssiSmootherType.Ewma
+            }
+            R.id.action_rssi_smoother_median -> {
+                businessLogic.rssiSmootherType = MyBusinessLogic.RssiSmootherType.Median
+            }
+            R.id.action_rssi_smoother_kalman -> {
+                businessLogic.rssiSmootherType = MyBusinessLogic.RssiSmootherType.Kalman
+            }
+            R.id.action_filter_rssi_none -> {
+                setFilterRssiMin(DevicesFilter.RSSI_MIN_NONE)
+            }
+            R.id.action_filter_rssi_90 -> {
+                setFilterRssiMin(-90)
+            }
+            R.id.action_filter_rssi_80 -> {
+                setFilterRssiMin(-80)
+            }
+            R.id.action_filter_rssi_70 -> {
+                setFilterRssiMin(-70)
+            }
+            R.id.action_filter_rssi_60 -> {
+                setFilterRssiMin(-60)
+            }
+            R.id.action_groupby_none -> {
+                devicesAdapter.groupBy = GroupBy.None
+            }
+            R.id.action_groupby_oui -> {
+                devicesAdapter.groupBy = GroupBy.Oui
+            }
+            R.id.action_groupby_name -> {
+                devicesAdapter.groupBy = GroupBy.Name
+            }
+            R.id.action_display_grid -> {
+                setDevicesDisplayGrid(!devicesDisplayGrid)
+            }
             R.id.action_clear -> {
                 businessLogic.clear()
             }
@@ -163,6 +267,40 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
     //
     //
 
+    private fun setFilterName(nameFragment: String?) {
+        devicesAdapter.filter = DevicesFilter(nameFragment, devicesAdapter.filter.rssiMin)
+    }
+
+    private fun setFilterRssiMin(rssiMin: Int) {
+        devicesAdapter.filter = DevicesFilter(devicesAdapter.filter.nameFragment, rssiMin)
+    }
+
+    /**
+     * The display that is hidden is cleared, and the one that is shown is reloaded by re-attaching for a new snapshot
+     */
+    private fun setDevicesDisplayGrid(grid: Boolean) {
+        if (grid == devicesDisplayGrid) {
+            return
+        }
+        Log.i(TAG, "setDevicesDisplayGrid(grid=$grid)")
+        devicesDisplayGrid = grid
+        if (grid) {
+            devicesAdapter.clear()
+            scan_results.visibility = View.GONE
+            devices_grid.visibility = View.VISIBLE
+        } else {
+            devices_grid.clear()
+            devices_grid.visibility = View.GONE
+            scan_results.visibility = View.VISIBLE
+        }
+        businessLogic.detach(this)
+        businessLogic.attach(this)
+    }
+
+    //
+    //
+    //
+
     private fun onScanningPermissionDenied() {
         switchScan?.isChecked = false
         val view: View = window.decorView.findViewById(android.R.id.content)
@@ -216,9 +354,31 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
         //text_scan_count.text = "(${devicesAdapter!!.itemCount})"
     }
 
+    override fun onScanResultsSnapshot(
+        version: Long,
+        items: List<ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>>
+    ) {
+        Log.v(TAG, "onScanResultsSnapshot(version=$version, items.size=${items.size})")
+        if (!::devicesAdapter.isInitialized) {
+            // NOTE:(pv) MyBusinessLogic only attaches from onActivityStarted, after onCreate; this never happens
+            Log.w(TAG, "onScanResultsSnapshot: views not created yet; ignoring version=$version")
+            return
+        }
+        if (devicesDisplayGrid) {
+            devices_grid.load(items)
+        } else {
+            devicesAdapter.load(items.map { DeviceRow.obtain(it) })
+        }
+        updateScanCount()
+    }
+
     override fun onScanResultAdded(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         Log.v(TAG, "onScanResultAdded($item)")
-        devicesAdapter.add(item.value)
+        if (devicesDisplayGrid) {
+            devices_grid.add(item)
+        } else {
+            devicesAdapter.add(DeviceRow.obtain(item))
+        }
         //val device = getDevice(item)
         //device?.gattHandler?.addListener(gattHandlerListener)
         updateScanCount()
@@ -226,12 +386,20 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
 
     override fun onScanResultUpdated(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         Log.v(TAG, "onScanResultUpdated($item)")
-        devicesAdapter.add(item.value)
+        if (devicesDisplayGrid) {
+            devices_grid.add(item)
+        } else {
+            devicesAdapter.add(DeviceRow.obtain(item))
+        }
     }
 
     override fun onScanResultRemoved(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         Log.v(TAG, "onScanResultRemovedRemoved($item)")
-        devicesAdapter.remove(item.value)
+        if (devicesDisplayGrid) {
+            devices_grid.remove(item)
+        } else {
+            devicesAdapter.remove(DeviceRow.obtain(item))
+        }
         //val device = getDevice(item)
         //device?.gattHandler?.removeListener(gattHandlerListener)
         updateScanCount()
@@ -241,8 +409,47 @@ class MainActivity : AppCompatActivity(), ScannerAbstract.Callbacks {
     //
     //
 
+    private fun onItemSelected(item: DeviceRow) {
+        Log.i(TAG, "onItemSelected: item=$item")
+        if (item.isHeader) {
+            return
+        }
+        onDeviceSelected(item.macAddressLong)
+        val scanResult = businessLogic.getRecentScanResult(item.macAddressLong)
+        if (scanResult != null) {
+            toggleRssiHistory(scanResult)
+        }
+        //...
+    }
+
     private fun onItemSelected(item: BleScanResult) {
         Log.i(TAG, "onItemSelected: item=$item")
+        onDeviceSelected(item.macAddressLong)
+        toggleRssiHistory(item)
+        //...
+    }
+
+    /**
+     * Starts recording the device's RSSI; selecting it again logs its statistics so far
+     */
+    private fun toggleRssiHistory(scanResult: BleScanResult) {
+        val rssiHistory = scanResult.rssiHistory
+        if (rssiHistory == null) {
+            scanResult.enableRssiHistory()
+        } else {
+            Log.i(TAG, "toggleRssiHistory: rssiHistory=${rssiHistory.read(RssiHistory.Statistics())}")
+        }
+    }
+
+    /**
+     * The scan results only keep the MAC address; this is where a BluetoothDevice is first needed (ie: to connect)
+     */
+    private fun onDeviceSelected(macAddressLong: Long) {
+        val device = businessLogic.getBluetoothDevice(macAddressLong) ?: return
+        Log.i(
+            TAG,
+            "onDeviceSelected: device=$device, name=${device.name}, type=${device.type}, bondState=${device.bondState}"
+        )
         //...
     }
-}
\ No newline at end of file
+}
@@ -4,6 +4,7 @@ import android.Manifest
 import android.app.Activity
 import android.app.Application
 import android.app.PendingIntent
+import android.bluetooth.BluetoothDevice
 import android.bluetooth.le.ScanFilter
 import android.bluetooth.le.ScanSettings
 import android.content.BroadcastReceiver
@@ -13,10 +14,16 @@ import android.os.*
 import android.util.Log
 import androidx.annotation.RequiresApi
 import com.github.paulpv.helloblescanner.collections.ExpiringIterableLongSparseArray
+import com.github.paulpv.helloblescanner.proximity.ProximityEngine
+import com.github.paulpv.helloblescanner.proximity.ProximityZone
+import com.github.paulpv.helloblescanner.scanners.ScanResultsChanges
 import com.github.paulpv.helloblescanner.scanners.ScannerAbstract
 import com.github.paulpv.helloblescanner.scanners.ScannerNative
 import com.github.paulpv.helloblescanner.scanners.ScannerNordic
 import com.github.paulpv.helloblescanner.scanners.ScannerSweetBlue
+import com.github.paulpv.helloblescanner.utils.KalmanRssiSmoother
+import com.github.paulpv.helloblescanner.utils.MedianRssiSmoother
+import com.github.paulpv.helloblescanner.utils.RssiSmoother
 import com.github.paulpv.helloblescanner.utils.Utils
 import kotlin.math.ceil
 
@@ -133,6 +140,24 @@ class MyBusinessLogic(private val application: Application, private val looper:
 
     private val observers: MutableSet<ScannerAbstract.Callbacks> = mutableSetOf()
 
+    /**
+     * Incremented for every add/update/remove dispatched to [observers]; guarded by [observers]
+     */
+    private var scanResultsVersion = 0L
+
+    private class PendingEvent(val type: Int, val item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
+        companion object {
+            const val ADDED = 0
+            const val UPDATED = 1
+            const val REMOVED = 2
+        }
+    }
+
+    /**
+     * The events for each observer that is being handed its snapshot, queued until it has it; guarded by [observers]
+     */
+    private val attaching = mutableMapOf<ScannerAbstract.Callbacks, MutableList<PendingEvent>>()
+
     private var currentActivity: Activity? = null
 
     @Suppress("MemberVisibilityCanBePrivate")
@@ -145,7 +170,7 @@ class MyBusinessLogic(private val application: Application, private val looper:
 
     private fun onActivityCreated(activity: Activity) {
         Log.v(TAG, "onActivityCreated(activity=$activity)")
-        activityAdd(activity)
+        // NOTE:(pv) Not attached until onActivityStarted, which always follows; its views do not exist yet
     }
 
     private fun onActivityStarted(activity: Activity) {
@@ -179,6 +204,10 @@ class MyBusinessLogic(private val application: Application, private val looper:
 
     private fun activityAdd(activity: Activity) {
         Log.v(TAG, "activityAdd(activity=$activity)")
+        if (currentActivity === activity) {
+            // Already attached (ie: onActivityResumed right after onActivityStarted); a new snapshot would only reload it
+            return
+        }
         if (currentActivity != null) {
             activityRemove(currentActivity!!, false) // false, because we will do it ourself in a few lines...
         }
@@ -200,13 +229,48 @@ class MyBusinessLogic(private val application: Application, private val looper:
         }
     }
 
+    /**
+     * A newly attached observer is first handed a snapshot of the current scan results, via
+     * [ScannerAbstract.Callbacks.onScanResultsSnapshot], and then every add/update/remove after that snapshot.
+     * Only the copy is made under the lock that the scanner dispatches its events under; the observer is handed it
+     * after that lock is released, so the scanner is not stalled while the observer loads it. The events dispatched in
+     * the meantime are queued, and delivered (in order, also outside of the lock) once the observer has the snapshot, so
+     * no event is lost or delivered twice. Does nothing if the observer is already attached.
+     * Must be called on the thread that the observer expects its events on.
+     */
     @Suppress("MemberVisibilityCanBePrivate")
     fun attach(observer: ScannerAbstract.Callbacks) {
         Log.d(TAG, "attach(observer=$observer)")
-        synchronized(observers) {
-            @Suppress("ControlFlowWithEmptyBody")
-            if (observers.add(observer)) {
-                //...
+        var version = 0L
+        val snapshot = scanner.withRecentScanResultsSnapshot { snapshot ->
+            synchronized(observers) {
+                if (observers.contains(observer) || attaching.containsKey(observer)) {
+                    return@withRecentScanResultsSnapshot null
+                }
+                attaching[observer] = mutableListOf()
+                version = scanResultsVersion
+            }
+            snapshot
+        } ?: return
+        Log.d(TAG, "attach: version=$version, snapshot.size=${snapshot.size}")
+        observer.onScanResultsSnapshot(version, snapshot)
+        while (true) {
+            val events = synchronized(observers) {
+                val events = attaching.remove(observer) ?: return // detached while being handed the snapshot
+                if (events.isEmpty()) {
+                    observers.add(observer)
+                    return
+                }
+                attaching[observer] = mutableListOf()
+                events
+            }
+            Log.d(TAG, "attach: delivering ${events.size} event(s) queued since the snapshot")
+            for (event in events) {
+                when (event.type) {
+                    PendingEvent.ADDED -> observer.onScanResultAdded(event.item)
+                    PendingEvent.UPDATED -> observer.onScanResultUpdated(event.item)
+                    PendingEvent.REMOVED -> observer.onScanResultRemoved(event.item)
+                }
             }
         }
     }
@@ -219,6 +283,7 @@ class MyBusinessLogic(private val application: Application, private val looper:
             if (observers.remove(observer)) {
                 //...
             }
+            attaching.remove(observer)
         }
     }
 
@@ -315,6 +380,40 @@ class MyBusinessLogic(private val application: Application, private val looper:
             }
         }
 
+    enum class RssiSmootherType(val smoother: RssiSmoother) {
+        Ewma(RssiSmoother.DEFAULT),
+        Median(MedianRssiSmoother()),
+        Kalman(KalmanRssiSmoother())
+    }
+
+    /**
+     * Chosen per scan session; changing it while scanning restarts the scan
+     */
+    var rssiSmootherType = RssiSmootherType.Ewma
+        set(value) {
+            if (value == field) return
+            val wasScanning = isScanStarted
+            if (wasScanning) {
+                scanStop()
+            }
+            field = value
+            scanner.rssiSmoother = value.smoother
+            if (wasScanning) {
+                scanStart()
+            }
+        }
+
+    /**
+     * Shared by every scanner, so that per device calibrations survive changing [scannerType]
+     */
+    val proximityEngine = ProximityEngine()
+
+    private val proximityListener = object : ProximityEngine.ProximityListener {
+        override fun onProximityZoneChanged(scanResult: BleScanResult, previous: ProximityZone, zone: ProximityZone) {
+            Log.i(TAG, "onProximityZoneChanged: ${scanResult.macAddress} $previous -> $zone (${scanResult.distanceMeters}m)")
+        }
+    }
+
     private fun newScanningPendingIntent(): PendingIntent? {
         return BleDeviceScanReceiver.newPendingIntent(application, SCAN_RECEIVER_REQUEST_CODE)
     }
@@ -324,6 +423,7 @@ class MyBusinessLogic(private val application: Application, private val looper:
         override fun onScanResultAdded(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) = this@MyBusinessLogic.onScanResultAdded(item)
         override fun onScanResultUpdated(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) = this@MyBusinessLogic.onScanResultUpdated(item)
         override fun onScanResultRemoved(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) = this@MyBusinessLogic.onScanResultRemoved(item)
+        override fun onScanResultsChanged(changes: ScanResultsChanges) = this@MyBusinessLogic.onScanResultsChanged(changes)
         //@formatter:on
     }
 
@@ -370,20 +470,35 @@ class MyBusinessLogic(private val application: Application, private val looper:
             return _scanner!!
         }
 
+    /**
+     * See [ScannerAbstract.getBluetoothDevice]
+     */
+    fun getBluetoothDevice(macAddressLong: Long): BluetoothDevice? = scanner.getBluetoothDevice(macAddressLong)
+
+    /**
+     * See [ScannerAbstract.getRecentScanResult]
+     */
+    fun getRecentScanResult(macAddressLong: Long): BleScanResult? = scanner.getRecentScanResult(macAddressLong)
+
     private fun newScanner(scannerType: ScannerTypes): ScannerAbstract {
         val scanResultTimeoutMillis = 30 * 1000L
-        return when (scannerType) {
+        val scanner = when (scannerType) {
             //@formatter:off
             ScannerTypes.Native -> ScannerNative(application, scanResultTimeoutMillis, scannerCallbacks, nativeScanSettings)
             ScannerTypes.Nordic -> ScannerNordic(application, scanResultTimeoutMillis, scannerCallbacks, nativeScanSettings)
             ScannerTypes.SweetBlue -> ScannerSweetBlue(application, scanResultTimeoutMillis, scannerCallbacks, nativeScanSettings, SWEETBLUE_API_KEY)
             //@formatter:on
         }
+        scanner.rssiSmoother = rssiSmootherType.smoother
+        scanner.proximityEngine = proximityEngine
+        return scanner
     }
 
     init {
         Log.i(TAG, "+init")
 
+        proximityEngine.addListener(proximityListener)
+
         application.registerActivityLifecycleCallbacks(object : Application.ActivityLifecycleCallbacks {
             //@formatter:off
             override fun onActivityCreated(activity: Activity?, savedInstanceState: Bundle?) = this@MyBusinessLogic.onActivityCreated(activity!!)
@@ -555,21 +670,64 @@ class MyBusinessLogic(private val application: Application, private val looper:
     private fun onScanResultAdded(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         Log.v(TAG, "onScanResultAdded($item)")
         synchronized(observers) {
+            scanResultsVersion++
             observers.forEach { it.onScanResultAdded(item) }
+            queueAttaching(PendingEvent.ADDED, item)
         }
     }
 
     private fun onScanResultUpdated(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         Log.v(TAG, "onScanResultUpdated($item)")
         synchronized(observers) {
+            scanResultsVersion++
             observers.forEach { it.onScanResultUpdated(item) }
+            queueAttaching(PendingEvent.UPDATED, item)
+        }
+    }
+
+    /**
+     * One lock and one dispatch per observer for the whole cycle
+     */
+    private fun onScanResultsChanged(changes: ScanResultsChanges) {
+        Log.v(TAG, "onScanResultsChanged($changes)")
+        synchronized(observers) {
+            scanResultsVersion += changes.size
+            observers.forEach { it.onScanResultsChanged(changes) }
+            if (attaching.isNotEmpty()) {
+                // Same order as the default Callbacks.onScanResultsChanged
+                val removed = changes.removed
+                for (i in 0 until removed.size) {
+                    queueAttaching(PendingEvent.REMOVED, removed[i])
+                }
+                val added = changes.added
+                for (i in 0 until added.size) {
+                    queueAttaching(PendingEvent.ADDED, added[i])
+                }
+                val updated = changes.updated
+                for (i in 0 until updated.size) {
+                    queueAttaching(PendingEvent.UPDATED, updated[i])
+                }
+            }
         }
     }
 
     private fun onScanResultRemoved(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         Log.v(TAG, "onScanResultRemoved($item)")
         synchronized(observers) {
+            scanResultsVersion++
             observers.forEach { it.onScanResultRemoved(item) }
+            queueAttaching(PendingEvent.REMOVED, item)
+        }
+    }
+
+    /**
+     * Must be called while holding the lock of [observers]
+     */
+    private fun queueAttaching(type: Int, item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
+        if (attaching.isEmpty()) {
+            return
         }
+        val event = PendingEvent(type, item)
+        attaching.values.forEach { it.add(event) }
     }
 }
\ No newline at end of file
@@ -428,30 +428,28 @@ public class ExpiringIterableLongSparseArray<V> {
 
             boolean reset = false;
 
-            synchronized (mListeners) {
-                for (ExpiringIterableLongSparseArrayListener<V> listener : mListeners.beginTraversing()) {
-                    if (listener.onItemExpiring(key, index, itemWrapper)) {
-                        reset = true;
-                        break;
-                    }
+            ListenerManager.Snapshot<ExpiringIterableLongSparseArrayListener<V>> listeners = mListeners.getListeners();
+            for (int i = 0; i < listeners.getSize(); i++) {
+                if (listeners.get(i).onItemExpiring(key, index, itemWrapper)) {
+                    reset = true;
+                    break;
                 }
-                mListeners.endTraversing();
-
-                if (reset) {
-                    if (VERBOSE_LOG_EXPIRE) {
-                        Log.w(TAG, '#' + mName +
-                                " itemExpire: item expiration reset by listener callback; resetting");
-                    }
-                    itemExpirationStart("itemExpire", itemWrapper);
-                    return;
+            }
+
+            if (reset) {
+                if (VERBOSE_LOG_EXPIRE) {
+                    Log.w(TAG, '#' + mName +
+                            " itemExpire: item expiration reset by listener callback; resetting");
                 }
+                itemExpirationStart("itemExpire", itemWrapper);
+                return;
+            }
 
-                Log.w(TAG, '#' + mName +
-                        " itemExpire: EXPIRED after " + timeoutMillis + "ms : key=" + key +
-                        ", index=" + index + ", value=" + value + "; removing item");
+            Log.w(TAG, '#' + mName +
+                    " itemExpire: EXPIRED after " + timeoutMillis + "ms : key=" + key +
+                    ", index=" + index + ", value=" + value + "; removing item");
 
-                removeAt(index, true); // direct
-            }
+            removeAt(index, true); // direct
         }
     }
 
@@ -550,15 +548,11 @@ public class ExpiringIterableLongSparseArray<V> {
     }
 
     public void addListener(ExpiringIterableLongSparseArrayListener<V> listener) {
-        synchronized (mListeners) {
-            mListeners.attach(listener);
-        }
+        mListeners.attach(listener);
     }
 
     public void removeListener(ExpiringIterableLongSparseArrayListener<V> listener) {
-        synchronized (mListeners) {
-            mListeners.detach(listener);
-        }
+        mListeners.detach(listener);
     }
 
     /**
@@ -589,11 +583,9 @@ public class ExpiringIterableLongSparseArray<V> {
         //long ageMillis = itemWrapper.getAddedElapsedMillis();
         long timeoutMillis = itemWrapper.getTimeoutMillis();
 
-        synchronized (mListeners) {
-            for (ExpiringIterableLongSparseArrayListener<V> listener : mListeners.beginTraversing()) {
-                listener.onItemRemoved(key, index, itemWrapper);
-            }
-            mListeners.endTraversing();
+        ListenerManager.Snapshot<ExpiringIterableLongSparseArrayListener<V>> listeners = mListeners.getListeners();
+        for (int i = 0; i < listeners.getSize(); i++) {
+            listeners.get(i).onItemRemoved(key, index, itemWrapper);
         }
 
         if (VERBOSE_LOG_REMOVE) {
@@ -617,19 +609,15 @@ public class ExpiringIterableLongSparseArray<V> {
         }
         if (index < 0) {
             int indexInserted = ~index;
-            synchronized (mListeners) {
-                for (ExpiringIterableLongSparseArrayListener<V> listener : mListeners.beginTraversing()) {
-                    listener.onItemAdded(itemWrapper.getKey(), indexInserted, itemWrapper);
-                }
-                mListeners.endTraversing();
+            ListenerManager.Snapshot<ExpiringIterableLongSparseArrayListener<V>> listeners = mListeners.getListeners();
+            for (int i = 0; i < listeners.getSize(); i++) {
+                listeners.get(i).onItemAdded(itemWrapper.getKey(), indexInserted, itemWrapper);
             }
         } else {
             //long ageMillis = itemWrapper.getAddedElapsedMillis();
-            synchronized (mListeners) {
-                for (ExpiringIterableLongSparseArrayListener<V> listener : mListeners.beginTraversing()) {
-                    listener.onItemUpdated(itemWrapper.getKey(), index, itemWrapper);
-                }
-                mListeners.endTraversing();
+            ListenerManager.Snapshot<ExpiringIterableLongSparseArrayListener<V>> listeners = mListeners.getListeners();
+            for (int i = 0; i < listeners.getSize(); i++) {
+                listeners.get(i).onItemUpdated(itemWrapper.getKey(), index, itemWrapper);
             }
         }
         if (VERBOSE_LOG_UPDATE) {
@@ -0,0 +1,134 @@
+package com.github.paulpv.helloblescanner.collections;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs, without boxing: the keys in the order they were first added, plus an open addressing
+ * (linear probing) table of their indexes.
+ * <p>
+ * O(1) {@link #add(long)} and {@link #contains(long)}, and O(1) {@link #clear()} (slots are tagged with a generation,
+ * so clearing does not touch the table); there is no remove. Once it has grown to the most keys it has held it never
+ * allocates.
+ * <p>
+ * Not thread safe.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class LongHashSet {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Fibonacci hashing; the high bits are well mixed even for sequential keys (ie: MAC addresses)
+     */
+    private static final long GOLDEN_RATIO_64 = 0x9E3779B97F4A7C15L;
+
+    private long[] mKeys;
+    private int mSize;
+
+    /**
+     * Each slot is an index into mKeys, valid only if its generation is mGeneration; always at least twice the capacity
+     * of mKeys, and a power of 2
+     */
+    private int[] mSlots;
+    private int[] mSlotGenerations;
+    private int mGeneration = 1;
+
+    public LongHashSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public LongHashSet(int initialCapacity) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        mKeys = new long[capacity];
+        mSlots = new int[capacity * 2];
+        mSlotGenerations = new int[capacity * 2];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @param index in the order the keys were first added, &lt; {@link #size()}
+     */
+    public long keyAt(int index) {
+        if (index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return mKeys[index];
+    }
+
+    public boolean contains(long key) {
+        return mSlotGenerations[findSlot(key)] == mGeneration;
+    }
+
+    /**
+     * @return true if key was not already in the set
+     */
+    public boolean add(long key) {
+        int slot = findSlot(key);
+        if (mSlotGenerations[slot] == mGeneration) {
+            return false;
+        }
+        if (mSize == mKeys.length) {
+            final int capacity = mSize * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            rehash(capacity * 2);
+            slot = findSlot(key);
+        }
+        mKeys[mSize] = key;
+        mSlots[slot] = mSize;
+        mSlotGenerations[slot] = mGeneration;
+        mSize++;
+        return true;
+    }
+
+    public void clear() {
+        mSize = 0;
+        if (++mGeneration == 0) {
+            Arrays.fill(mSlotGenerations, 0);
+            mGeneration = 1;
+        }
+    }
+
+    /**
+     * @return the slot of key, or else the empty slot where it would go
+     */
+    private int findSlot(long key) {
+        final int mask = mSlots.length - 1;
+        int slot = (int) ((key * GOLDEN_RATIO_64) >>> 32) & mask;
+        while (mSlotGenerations[slot] == mGeneration && mKeys[mSlots[slot]] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int length) {
+        mSlots = new int[length];
+        mSlotGenerations = new int[length];
+        mGeneration = 1;
+        for (int i = 0; i < mSize; i++) {
+            final int slot = findSlot(mKeys[i]);
+            mSlots[slot] = i;
+            mSlotGenerations[slot] = mGeneration;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < mSize; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(mKeys[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -50,6 +50,14 @@ public class SortedList<T> {
 
     private static final int MIN_CAPACITY = 10;
     private static final int CAPACITY_GROWTH = MIN_CAPACITY;
+    /**
+     * Runs of at most this many items are sorted with an insertion sort before being merged.
+     */
+    private static final int SORT_RUN_LENGTH = 16;
+    /**
+     * The smallest key table of {@link #mergeUpdates(Object[], int)}; a power of 2.
+     */
+    private static final int MIN_KEY_TABLE_LENGTH = 16;
     private static final int INSERTION = 1;
     private static final int DELETION = 1 << 1;
     private static final int LOOKUP = 1 << 2;
@@ -75,6 +83,28 @@ public class SortedList<T> {
      */
     private int mNewDataStart;
 
+    /**
+     * Reusable buffers so that batch operations (addAll, replaceAll, mergeUpdates) do not allocate once they have grown
+     * to the steady state batch size. They grow geometrically and are dropped by {@link #clear()}.
+     * <ul>
+     * <li>mScratchData: the ping-pong partner of mData; merges write into it and the old mData becomes the next one</li>
+     * <li>mScratchInput: holds a copy of caller input that we are not allowed to modify or retain</li>
+     * <li>mScratchSort: the auxiliary array of the stable merge sort</li>
+     * </ul>
+     * All references in unused scratch slots are always null so that they never retain items.
+     */
+    private T[] mScratchData;
+    private T[] mScratchInput;
+    private T[] mScratchSort;
+
+    /**
+     * The open addressing table that {@link #mergeUpdates(Object[], int)} indexes the incoming items' keys with: each
+     * slot is an index into the incoming items plus 1, or 0 if empty. Only the first mKeyTableLength slots are used, and
+     * they are all 0 between calls.
+     */
+    private int[] mKeyTable;
+    private int mKeyTableLength;
+
     /**
      * The callback instance that controls the behavior of the SortedList and get notified when
      * changes happen.
@@ -170,9 +200,9 @@ public class SortedList<T> {
         }
 
         if (mayModifyInput) {
-            addAllInternal(items);
+            addAllInternal(items, items.length);
         } else {
-            addAllInternal(copyArray(items));
+            addAllInternal(copyToScratchInput(items), items.length);
         }
     }
 
@@ -193,8 +223,130 @@ public class SortedList<T> {
      * @see com.pebblebee.bletool.testapp.adapter.SortedList#addAll(T[] items, boolean mayModifyInput)
      */
     public void addAll(@NonNull Collection<T> items) {
-        T[] copy = (T[]) Array.newInstance(mTClass, items.size());
-        addAll(items.toArray(copy), true);
+        throwIfInMutationOperation();
+        final int count = items.size();
+        if (count == 0) {
+            return;
+        }
+        addAllInternal(copyToScratchInput(items), count);
+    }
+
+    /**
+     * Adds new items and updates existing items in one batch, in O(n + k log k) for k items, without allocating once
+     * the internal buffers have grown to the batch size.
+     * <p>
+     * Unlike {@link #addAll(Object[], boolean)}, an existing item is found even if its sorting criteria changed: each
+     * item is looked up by {@link Callback#getItemKey(Object)} (or, if the callback has no keys, by
+     * {@link Callback#areItemsTheSame(Object, Object)} in O(n * k)). Existing items whose sort order did not change are
+     * updated in place (onChanged); the ones that moved are removed and inserted at their new position
+     * (onRemoved/onInserted).
+     * <p>
+     * Two different items must never compare equal (the callback's order must be total), and each item must be in the
+     * batch at most once. The first count items of the input array are sorted in place, but
+     * the array is not retained; the caller may reuse it for the next batch.
+     *
+     * @param items Array whose first count elements are the items to add or update.
+     * @param count Number of items in the array to merge.
+     */
+    public void mergeUpdates(@NonNull T[] items, int count) {
+        throwIfInMutationOperation();
+        if (count < 1) {
+            return;
+        }
+
+        final int newSize = sortAndDedup(items, count);
+
+        final boolean forceBatchedUpdates = !(mCallback instanceof BatchedCallback);
+        if (forceBatchedUpdates) {
+            beginBatchedUpdates();
+        }
+
+        removeReordered(items, newSize);
+
+        if (mSize == 0) {
+            mData = ensureCapacity(mData, newSize);
+            System.arraycopy(items, 0, mData, 0, newSize);
+            mSize = newSize;
+            mCallback.onInserted(0, newSize);
+        } else {
+            merge(items, newSize);
+        }
+
+        if (forceBatchedUpdates) {
+            endBatchedUpdates();
+        }
+    }
+
+    /**
+     * Removes each existing item that is the same as one of items but no longer compares equal to it, so that the merge
+     * that follows inserts it at its new position. Those that still compare equal are left for the merge to update.
+     */
+    private void removeReordered(@NonNull T[] items, int count) {
+        if (mSize == 0) {
+            return;
+        }
+        final boolean keyed = mCallback.getItemKey(items[0]) != Callback.NO_KEY;
+        if (keyed) {
+            indexKeys(items, count);
+        }
+        int write = 0;
+        for (int read = 0; read < mSize; read++) {
+            final T oldItem = mData[read];
+            final int index = keyed
+                    ? findKey(items, mCallback.getItemKey(oldItem))
+                    : findSameItem(oldItem, items, 0, count);
+            if (index != INVALID_POSITION && compare(oldItem, items[index]) != 0) {
+                // Its position is write, after the ones already removed
+                mCallback.onRemoved(write, 1);
+                continue;
+            }
+            mData[write++] = oldItem;
+        }
+        Arrays.fill(mData, write, mSize, null);
+        mSize = write;
+        if (keyed) {
+            Arrays.fill(mKeyTable, 0, mKeyTableLength, 0);
+        }
+    }
+
+    private void indexKeys(@NonNull T[] items, int count) {
+        int length = MIN_KEY_TABLE_LENGTH;
+        while (length < count << 1) {
+            length <<= 1;
+        }
+        if (mKeyTable == null || mKeyTable.length < length) {
+            mKeyTable = new int[length];
+        }
+        mKeyTableLength = length;
+        final int mask = length - 1;
+        for (int i = 0; i < count; i++) {
+            int slot = hashKey(mCallback.getItemKey(items[i])) & mask;
+            while (mKeyTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mKeyTable[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @return the index in items of the item with the given key, or {@link #INVALID_POSITION}
+     */
+    private int findKey(@NonNull T[] items, long key) {
+        final int mask = mKeyTableLength - 1;
+        int slot = hashKey(key) & mask;
+        int entry;
+        while ((entry = mKeyTable[slot]) != 0) {
+            if (mCallback.getItemKey(items[entry - 1]) == key) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return INVALID_POSITION;
+    }
+
+    private static int hashKey(long key) {
+        // Fibonacci hashing; the high bits are well mixed even for sequential keys (ie: MAC addresses)
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
     }
 
     /**
@@ -221,9 +373,9 @@ public class SortedList<T> {
         throwIfInMutationOperation();
 
         if (mayModifyInput) {
-            replaceAllInternal(items);
+            replaceAllInternal(items, items.length);
         } else {
-            replaceAllInternal(copyArray(items));
+            replaceAllInternal(copyToScratchInput(items), items.length);
         }
     }
 
@@ -246,28 +398,38 @@ public class SortedList<T> {
      * @see #replaceAll(T[], boolean)
      */
     public void replaceAll(@NonNull Collection<T> items) {
-        T[] copy = (T[]) Array.newInstance(mTClass, items.size());
-        replaceAll(items.toArray(copy), true);
+        throwIfInMutationOperation();
+        replaceAllInternal(copyToScratchInput(items), items.size());
     }
 
-    private void addAllInternal(T[] newItems) {
-        if (newItems.length < 1) {
+    private void addAllInternal(T[] newItems, int count) {
+        if (count < 1) {
             return;
         }
 
-        final int newSize = sortAndDedup(newItems, newItems.length);
+        final int newSize = sortAndDedup(newItems, count);
 
         if (mSize == 0) {
+            // Adopt the input array; the (empty) old data array becomes scratch.
+            final T[] oldData = mData;
             mData = newItems;
+            // Null the de-duplicated leftovers so they are not retained.
+            Arrays.fill(newItems, newSize, count, null);
+            if (newItems == mScratchInput) {
+                mScratchInput = oldData;
+            } else {
+                recycleScratchData(oldData, 0);
+            }
             mSize = newSize;
             mCallback.onInserted(0, newSize);
         } else {
             merge(newItems, newSize);
             //merge(newItems, newSize, true);
+            releaseScratchInput(newItems, count);
         }
     }
 
-    private void replaceAllInternal(@NonNull T[] newData) {
+    private void replaceAllInternal(@NonNull T[] newData, int count) {
         final boolean forceBatchedUpdates = !(mCallback instanceof BatchedCallback);
         if (forceBatchedUpdates) {
             beginBatchedUpdates();
@@ -278,8 +440,9 @@ public class SortedList<T> {
         mOldData = mData;
 
         mNewDataStart = 0;
-        int newSize = sortAndDedup(newData, newData.length);
-        mData = (T[]) Array.newInstance(mTClass, newSize);
+        int newSize = sortAndDedup(newData, count);
+        mData = ensureCapacity(mScratchData, newSize);
+        mScratchData = null;
 
         while (mNewDataStart < newSize || mOldDataStart < mOldDataSize) {
             if (mOldDataStart >= mOldDataSize) {
@@ -326,7 +489,10 @@ public class SortedList<T> {
             }
         }
 
+        final T[] oldData = mOldData;
         mOldData = null;
+        recycleScratchData(oldData, mOldDataSize);
+        releaseScratchInput(newData, count);
 
         if (forceBatchedUpdates) {
             endBatchedUpdates();
@@ -385,17 +551,66 @@ public class SortedList<T> {
         if (DEBUG_LOG) {
             Log.e(TAG, "sort(items=" + toString(items) + ", length=" + length + ")");
         }
+        if (length < 2) {
+            return;
+        }
         //for (Comparator<T> comparator : getComparators()) {
-        Comparator<T> comparator = mCallback;
-        if (DEBUG_LOG) {
-            Log.e(TAG, "sort: comparator=" + comparator);
-            Log.e(TAG, "sort: Arrays.sort(items, 0, length - 1, comparator)");
+        //
+        // A stable bottom-up merge sort (insertion sorted runs, then merges), because Arrays.sort allocates its own
+        // temporary storage on every call; this one reuses mScratchSort.
+        //
+        for (int runStart = 0; runStart < length; runStart += SORT_RUN_LENGTH) {
+            insertionSort(items, runStart, Math.min(runStart + SORT_RUN_LENGTH, length));
+        }
+        if (length <= SORT_RUN_LENGTH) {
+            return;
+        }
+        mScratchSort = ensureCapacity(mScratchSort, length);
+        T[] src = items;
+        T[] dst = mScratchSort;
+        for (int width = SORT_RUN_LENGTH; width < length; width <<= 1) {
+            for (int lo = 0; lo < length; lo += width << 1) {
+                final int mid = Math.min(lo + width, length);
+                final int hi = Math.min(lo + (width << 1), length);
+                mergeRuns(src, dst, lo, mid, hi);
+            }
+            T[] temp = src;
+            src = dst;
+            dst = temp;
         }
-        // Arrays.sort is stable.
-        Arrays.sort(items, 0, length - 1, comparator);
+        if (src != items) {
+            System.arraycopy(src, 0, items, 0, length);
+        }
+        Arrays.fill(mScratchSort, 0, length, null);
         //}
     }
 
+    private void insertionSort(@NonNull T[] items, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            final T item = items[i];
+            int j = i;
+            // Strictly greater keeps equal items in their original order (stable).
+            while (j > from && compare(items[j - 1], item) > 0) {
+                items[j] = items[j - 1];
+                j--;
+            }
+            items[j] = item;
+        }
+    }
+
+    private void mergeRuns(@NonNull T[] src, @NonNull T[] dst, int lo, int mid, int hi) {
+        int left = lo;
+        int right = mid;
+        for (int out = lo; out < hi; out++) {
+            // Ties take the left item to keep the merge stable.
+            if (left < mid && (right >= hi || compare(src[left], src[right]) <= 0)) {
+                dst[out] = src[left++];
+            } else {
+                dst[out] = src[right++];
+            }
+        }
+    }
+
     private int compare(T o1, T o2) {
         int result = 0;
         //for (Comparator<T> comparator : getComparators()) {
@@ -491,7 +706,8 @@ public class SortedList<T> {
         mOldDataSize = mSize;
 
         final int mergedCapacity = mSize + newDataSize + CAPACITY_GROWTH;
-        mData = (T[]) Array.newInstance(mTClass, mergedCapacity);
+        mData = ensureCapacity(mScratchData, mergedCapacity);
+        mScratchData = null;
         mNewDataStart = 0;
 
         boolean calledback = false;
@@ -551,7 +767,9 @@ public class SortedList<T> {
             }
         }
 
+        final T[] oldData = mOldData;
         mOldData = null;
+        recycleScratchData(oldData, mOldDataSize);
 
         if (forceBatchedUpdates) {
             endBatchedUpdates();
@@ -813,6 +1031,23 @@ public class SortedList<T> {
         }
     }
 
+    /**
+     * Dispatches {@link Callback#onChanged(int, int, Object)} for the item at the given index, whose contents were
+     * mutated in place without changing its sort order.
+     * <p>
+     * Unlike {@link #updateItemAt(int, Object)} with the same instance, this does not remove and re-add the item.
+     *
+     * @param index   The index of the item that changed.
+     * @param payload The change payload to pass to {@link Callback#onChanged(int, int, Object)}.
+     */
+    public void notifyItemChangedAt(int index, @Nullable Object payload) {
+        throwIfInMutationOperation();
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("cannot notify item at " + index + " because size is " + mSize);
+        }
+        mCallback.onChanged(index, 1, payload);
+    }
+
     /**
      * This method can be used to recalculate the position of the item at the given index, without
      * triggering an {@link Callback#onChanged(int, int)} callback.
@@ -968,17 +1203,69 @@ public class SortedList<T> {
         mSize++;
     }
 
-    private T[] copyArray(T[] items) {
-        T[] copy = (T[]) Array.newInstance(mTClass, items.length);
-        System.arraycopy(items, 0, copy, 0, items.length);
-        return copy;
+    /**
+     * @return buffer if it can already hold capacity items, otherwise a new array grown geometrically from it
+     */
+    private T[] ensureCapacity(@Nullable T[] buffer, int capacity) {
+        if (buffer != null && buffer.length >= capacity) {
+            return buffer;
+        }
+        int newCapacity = buffer != null ? Math.max(buffer.length, MIN_CAPACITY) : MIN_CAPACITY;
+        while (newCapacity < capacity) {
+            newCapacity += newCapacity >> 1;
+        }
+        T[] newBuffer = (T[]) Array.newInstance(mTClass, newCapacity);
+        if (buffer != null && buffer == mData) {
+            System.arraycopy(buffer, 0, newBuffer, 0, mSize);
+        }
+        return newBuffer;
+    }
+
+    private T[] copyToScratchInput(@NonNull T[] items) {
+        mScratchInput = ensureCapacity(mScratchInput, items.length);
+        System.arraycopy(items, 0, mScratchInput, 0, items.length);
+        return mScratchInput;
+    }
+
+    private T[] copyToScratchInput(@NonNull Collection<T> items) {
+        mScratchInput = ensureCapacity(mScratchInput, items.size());
+        int i = 0;
+        for (T item : items) {
+            mScratchInput[i++] = item;
+        }
+        return mScratchInput;
+    }
+
+    /**
+     * Nulls the used range of the scratch input so that it does not retain the caller's items.
+     */
+    private void releaseScratchInput(T[] items, int count) {
+        if (items == mScratchInput) {
+            Arrays.fill(items, 0, count, null);
+        }
+    }
+
+    /**
+     * Keeps a retired data array as the next merge target, keeping whichever of it and the current scratch is larger.
+     */
+    private void recycleScratchData(T[] oldData, int usedCount) {
+        Arrays.fill(oldData, 0, usedCount, null);
+        if (mScratchData == null || mScratchData.length < oldData.length) {
+            mScratchData = oldData;
+        }
     }
 
     /**
      * Removes all items from the SortedList.
+     * <p>
+     * Also drops the scratch buffers used by batch operations, so that a one-time large batch does not pin memory.
      */
     public void clear() {
         throwIfInMutationOperation();
+        mScratchData = null;
+        mScratchInput = null;
+        mScratchSort = null;
+        mKeyTable = null;
         if (mSize == 0) {
             return;
         }
@@ -997,6 +1284,11 @@ public class SortedList<T> {
      * data.
      */
     public static abstract class Callback<T2> implements Comparator<T2>, ListUpdateCallback {
+        /**
+         * Returned by {@link #getItemKey(Object)} when items have no key.
+         */
+        public static final long NO_KEY = Long.MIN_VALUE;
+
         /**
          * Similar to {@link Comparator#compare(Object, Object)}, should compare two and
          * return how they should be ordered.
@@ -1080,6 +1372,20 @@ public class SortedList<T> {
         public Object getChangePayload(T2 item1, T2 item2) {
             return null;
         }
+
+        /**
+         * Called by {@link SortedList#mergeUpdates(Object[], int)} to find the existing item that a new one replaces,
+         * even if their sorting criteria differ.
+         * <p>
+         * Default implementation returns {@link #NO_KEY}, and the existing item is searched for linearly.
+         *
+         * @param item The item.
+         * @return A key that is equal for two items if and only if {@link #areItemsTheSame(Object, Object)} returns
+         * true for them, or {@link #NO_KEY}.
+         */
+        public long getItemKey(T2 item) {
+            return NO_KEY;
+        }
     }
 
     /**
@@ -1168,6 +1474,11 @@ public class SortedList<T> {
             return mWrappedCallback.getChangePayload(item1, item2);
         }
 
+        @Override
+        public long getItemKey(T2 item) {
+            return mWrappedCallback.getItemKey(item);
+        }
+
         /**
          * This method dispatches any pending event notifications to the wrapped Callback.
          * You <b>must</b> always call this method after you are done with editing the SortedList.
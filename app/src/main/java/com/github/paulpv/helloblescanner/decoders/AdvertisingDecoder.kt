@@ -0,0 +1,23 @@
+package com.github.paulpv.helloblescanner.decoders
+
+import com.github.paulpv.helloblescanner.AdvertisingData
+import com.github.paulpv.helloblescanner.BleScanResult
+
+/**
+ * Decodes one kind of manufacturer specific data or service data into the primitive fields of a [BleScanResult].
+ *
+ * Registered in [AdvertisingDecoders] by company identifier or 16-bit service UUID.
+ * Called on the scanner thread for every changed payload that has a structure it is registered for, so implementations
+ * must not allocate; read the payload in place through [AdvertisingData] and only ever write primitives.
+ */
+interface AdvertisingDecoder {
+    /**
+     * @param data the payload, already walked
+     * @param index the index in data of the manufacturer specific data or service data structure that this decoder is
+     * registered for
+     * @param result the fields to write; they still hold what was decoded from earlier payloads, so write only the ones
+     * this structure carries (and all of the beacon ones at once, with [BleScanResult.setBeacon])
+     * @return true if the structure was recognized and decoded
+     */
+    fun decode(data: AdvertisingData, index: Int, result: BleScanResult): Boolean
+}
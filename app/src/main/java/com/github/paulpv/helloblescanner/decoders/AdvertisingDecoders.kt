@@ -0,0 +1,158 @@
+package com.github.paulpv.helloblescanner.decoders
+
+import com.github.paulpv.helloblescanner.AdvertisingData
+import com.github.paulpv.helloblescanner.BleScanResult
+
+/**
+ * The registry of [AdvertisingDecoder]s, keyed by company identifier (for manufacturer specific data) or by 16-bit
+ * service UUID (for service data), plus the loop that dispatches a payload's structures to them.
+ *
+ * Dispatch is a table lookup per structure (see [Table]), not a chain of ifs, so its cost does not grow with the number
+ * of registered decoders.
+ *
+ * NOTE:(pv) Decoding is eager (on the scanner thread, for every changed payload), not deferred to the first read of the
+ * decoded fields: those fields keep their values across payloads (see [BleScanResult.batteryPercent]), so a deferred
+ * decode would only ever see the payloads that happened to be current when someone read them, and miss the frames in
+ * between (ie: the Eddystone TLM frames interleaved with UID frames). To keep AdvertisingData lazy for the payloads
+ * that no decoder is interested in, [decode] first hops over the raw structure headers looking for a manufacturer
+ * specific data or service data structure with a registered decoder; only if it finds one are the structures walked
+ * and the decoders run.
+ *
+ * Comes with the built-in [IBeaconDecoder], [EddystoneDecoder], and [BatteryServiceDecoder]; vendor decoders (for
+ * example for a tag's model number or button state) can be added with [registerManufacturer]/[registerService].
+ * Register before scanning starts: registering is not synchronized with [decode].
+ */
+object AdvertisingDecoders {
+    /**
+     * A table of decoders keyed by a 16-bit value, in two levels of 256 entries each so that it stays small; the second
+     * level pages are only allocated for the high bytes that have a decoder.
+     */
+    private class Table {
+        private val pages = arrayOfNulls<Array<AdvertisingDecoder?>>(256)
+
+        /**
+         * The number of registered decoders
+         */
+        var size = 0
+            private set
+
+        operator fun get(key: Int): AdvertisingDecoder? {
+            val page = pages[(key ushr 8) and 0xFF] ?: return null
+            return page[key and 0xFF]
+        }
+
+        /**
+         * @return the decoder previously registered for key, or null
+         */
+        fun put(key: Int, decoder: AdvertisingDecoder?): AdvertisingDecoder? {
+            val pageIndex = (key ushr 8) and 0xFF
+            var page = pages[pageIndex]
+            if (page == null) {
+                if (decoder == null) {
+                    return null
+                }
+                page = arrayOfNulls(256)
+                pages[pageIndex] = page
+            }
+            val previous = page[key and 0xFF]
+            page[key and 0xFF] = decoder
+            if (previous == null && decoder != null) {
+                size++
+            } else if (previous != null && decoder == null) {
+                size--
+            }
+            return previous
+        }
+    }
+
+    private val manufacturerDecoders = Table()
+    private val serviceDecoders = Table()
+
+    init {
+        registerManufacturer(IBeaconDecoder.COMPANY_ID_APPLE, IBeaconDecoder)
+        registerService(EddystoneDecoder.SERVICE_UUID_16, EddystoneDecoder)
+        registerService(BatteryServiceDecoder.SERVICE_UUID_16, BatteryServiceDecoder)
+    }
+
+    /**
+     * @param companyId the 16-bit Bluetooth SIG company identifier at the start of the manufacturer specific data
+     * @param decoder null to unregister
+     * @return the decoder previously registered for companyId, or null
+     */
+    fun registerManufacturer(companyId: Int, decoder: AdvertisingDecoder?): AdvertisingDecoder? {
+        return manufacturerDecoders.put(companyId, decoder)
+    }
+
+    /**
+     * @param uuid16 the 16-bit service UUID at the start of the service data
+     * @param decoder null to unregister
+     * @return the decoder previously registered for uuid16, or null
+     */
+    fun registerService(uuid16: Int, decoder: AdvertisingDecoder?): AdvertisingDecoder? {
+        return serviceDecoders.put(uuid16, decoder)
+    }
+
+    /**
+     * Runs the registered decoder, if any, of every manufacturer specific data and 16-bit service data structure in
+     * data, in order; does not walk data's structures unless at least one of them has a decoder
+     * @return the number of structures that were decoded
+     */
+    fun decode(data: AdvertisingData, result: BleScanResult): Int {
+        if (!hasDecoder(data)) {
+            return 0
+        }
+        var decodedCount = 0
+        for (i in 0 until data.structureCount) {
+            val decoder = when (data.getType(i)) {
+                AdvertisingData.TYPE_MANUFACTURER_SPECIFIC_DATA -> {
+                    if (data.getDataLength(i) < 2) null else manufacturerDecoders[data.getManufacturerId(i)]
+                }
+                AdvertisingData.TYPE_SERVICE_DATA_16_BIT -> {
+                    if (data.getDataLength(i) < 2) null else serviceDecoders[data.getUInt16(data.getDataOffset(i))]
+                }
+                else -> null
+            } ?: continue
+            if (decoder.decode(data, i, result)) {
+                decodedCount++
+            }
+        }
+        return decodedCount
+    }
+
+    /**
+     * Hops over the raw structure headers of data (2 bytes read per structure, nothing recorded), the same way
+     * AdvertisingData walks them
+     * @return true if any manufacturer specific data or 16-bit service data structure has a registered decoder
+     */
+    private fun hasDecoder(data: AdvertisingData): Boolean {
+        if (manufacturerDecoders.size == 0 && serviceDecoders.size == 0) {
+            return false
+        }
+        val bytes = data.bytes ?: return false
+        val end = data.bytesOffset + data.bytesLength
+        var position = data.bytesOffset
+        while (position < end) {
+            val structureLength = bytes[position].toInt() and 0xFF
+            if (structureLength == 0) {
+                break
+            }
+            val structureEnd = position + 1 + structureLength
+            if (structureEnd > end) {
+                break
+            }
+            // Type plus a 16-bit id
+            if (structureLength >= 3) {
+                val table = when (bytes[position + 1].toInt() and 0xFF) {
+                    AdvertisingData.TYPE_MANUFACTURER_SPECIFIC_DATA -> manufacturerDecoders
+                    AdvertisingData.TYPE_SERVICE_DATA_16_BIT -> serviceDecoders
+                    else -> null
+                }
+                if (table != null && table[data.getUInt16(position + 2)] != null) {
+                    return true
+                }
+            }
+            position = structureEnd
+        }
+        return false
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.paulpv.helloblescanner.decoders
+
+import com.github.paulpv.helloblescanner.AdvertisingData
+import com.github.paulpv.helloblescanner.BleScanResult
+
+/**
+ * The Battery Level characteristic of the Battery Service (0x180F) advertised as service data: 1 byte, 0 to 100 percent.
+ */
+object BatteryServiceDecoder : AdvertisingDecoder {
+    const val SERVICE_UUID_16 = 0x180F
+
+    override fun decode(data: AdvertisingData, index: Int, result: BleScanResult): Boolean {
+        if (data.getServiceDataLength(index) < 1) {
+            return false
+        }
+        val batteryPercent = data.getUInt8(data.getServiceDataOffset(index))
+        if (batteryPercent > 100) {
+            return false
+        }
+        result.batteryPercent = batteryPercent
+        return true
+    }
+}
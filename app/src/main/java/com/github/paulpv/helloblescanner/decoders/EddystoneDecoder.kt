@@ -0,0 +1,85 @@
+package com.github.paulpv.helloblescanner.decoders
+
+import com.github.paulpv.helloblescanner.AdvertisingData
+import com.github.paulpv.helloblescanner.BleScanResult
+
+/**
+ * Google Eddystone, in service data of service 0xFEAA; https://github.com/google/eddystone/blob/master/protocol-specification.md
+ *
+ * The first byte is the frame type:
+ *  * UID: TX power at 0m (1 byte), namespace (10 bytes), instance (6 bytes); decoded as one 16 byte beacon id
+ *  * URL: TX power at 0m (1 byte), encoded URL; the URL itself is not decoded, since that would allocate
+ *  * TLM: version (1 byte), battery voltage in mV (2 bytes, 0 if not supported), ...; only the battery is decoded, and
+ *  it leaves the beacon fields as the last UID/URL/EID frame set them, since TLM frames are interleaved with those
+ *  * EID: TX power at 0m (1 byte), ephemeral id (8 bytes)
+ *
+ * All big endian.
+ */
+object EddystoneDecoder : AdvertisingDecoder {
+    const val SERVICE_UUID_16 = 0xFEAA
+
+    private const val FRAME_TYPE_UID = 0x00
+    private const val FRAME_TYPE_URL = 0x10
+    private const val FRAME_TYPE_TLM = 0x20
+    private const val FRAME_TYPE_EID = 0x30
+
+    private const val LENGTH_UID = 18
+    private const val LENGTH_URL = 3
+    private const val LENGTH_TLM = 4
+    private const val LENGTH_EID = 10
+
+    private const val TLM_VERSION_UNENCRYPTED = 0x00
+
+    override fun decode(data: AdvertisingData, index: Int, result: BleScanResult): Boolean {
+        val length = data.getServiceDataLength(index)
+        if (length < 1) {
+            return false
+        }
+        val offset = data.getServiceDataOffset(index)
+        when (data.getUInt8(offset)) {
+            FRAME_TYPE_UID -> {
+                if (length < LENGTH_UID) {
+                    return false
+                }
+                result.setBeacon(
+                    BleScanResult.BEACON_TYPE_EDDYSTONE_UID,
+                    data.getInt64BigEndian(offset + 2),
+                    data.getInt64BigEndian(offset + 10),
+                    0,
+                    0,
+                    data.getInt8(offset + 1)
+                )
+            }
+            FRAME_TYPE_URL -> {
+                if (length < LENGTH_URL) {
+                    return false
+                }
+                result.setBeacon(BleScanResult.BEACON_TYPE_EDDYSTONE_URL, 0L, 0L, 0, 0, data.getInt8(offset + 1))
+            }
+            FRAME_TYPE_TLM -> {
+                if (length < LENGTH_TLM || data.getUInt8(offset + 1) != TLM_VERSION_UNENCRYPTED) {
+                    return false
+                }
+                val batteryMillivolts = data.getUInt16BigEndian(offset + 2)
+                if (batteryMillivolts != 0) {
+                    result.batteryMillivolts = batteryMillivolts
+                }
+            }
+            FRAME_TYPE_EID -> {
+                if (length < LENGTH_EID) {
+                    return false
+                }
+                result.setBeacon(
+                    BleScanResult.BEACON_TYPE_EDDYSTONE_EID,
+                    data.getInt64BigEndian(offset + 2),
+                    0L,
+                    0,
+                    0,
+                    data.getInt8(offset + 1)
+                )
+            }
+            else -> return false
+        }
+        return true
+    }
+}
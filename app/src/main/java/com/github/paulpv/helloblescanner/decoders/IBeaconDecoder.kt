@@ -0,0 +1,35 @@
+package com.github.paulpv.helloblescanner.decoders
+
+import com.github.paulpv.helloblescanner.AdvertisingData
+import com.github.paulpv.helloblescanner.BleScanResult
+
+/**
+ * Apple iBeacon, in manufacturer specific data of company 0x004C:
+ * type 0x02, length 0x15, proximity UUID (16 bytes), major (2 bytes), minor (2 bytes), measured power at 1m (1 byte);
+ * all big endian.
+ */
+object IBeaconDecoder : AdvertisingDecoder {
+    const val COMPANY_ID_APPLE = 0x004C
+
+    private const val TYPE = 0x02
+    private const val LENGTH = 0x15
+
+    override fun decode(data: AdvertisingData, index: Int, result: BleScanResult): Boolean {
+        if (data.getManufacturerDataLength(index) < 2 + LENGTH) {
+            return false
+        }
+        val offset = data.getManufacturerDataOffset(index)
+        if (data.getUInt8(offset) != TYPE || data.getUInt8(offset + 1) != LENGTH) {
+            return false
+        }
+        result.setBeacon(
+            BleScanResult.BEACON_TYPE_IBEACON,
+            data.getInt64BigEndian(offset + 2),
+            data.getInt64BigEndian(offset + 10),
+            data.getUInt16BigEndian(offset + 18),
+            data.getUInt16BigEndian(offset + 20),
+            data.getInt8(offset + 22)
+        )
+        return true
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.paulpv.helloblescanner.proximity
+
+import kotlin.math.pow
+
+/**
+ * Log-distance path loss model: rssi = measuredPowerAt1m - 10 * [pathLossExponent] * log10(meters), solved for meters.
+ *
+ * @param pathLossExponent 2.0 in free space; typically 2.5 to 4.0 indoors, where walls and bodies absorb more
+ * @param defaultMeasuredPowerAt1m in dBm; used when neither the device nor a calibration says otherwise
+ */
+class PathLossModel(
+    val pathLossExponent: Double = 2.0,
+    val defaultMeasuredPowerAt1m: Int = -59
+) {
+    companion object {
+        /**
+         * The free space path loss at 1m at 2.4GHz, to convert a TX power at 0m (ie: the TX Power Level AD type, or
+         * Eddystone's ranging data) to the RSSI expected at 1m
+         */
+        const val PATH_LOSS_AT_1M = 41
+    }
+
+    init {
+        require(pathLossExponent > 0) { "pathLossExponent must be > 0" }
+    }
+
+    /**
+     * @param rssi in dBm, ideally smoothed
+     * @param measuredPowerAt1m in dBm, the RSSI expected at 1m
+     */
+    fun estimateMeters(rssi: Double, measuredPowerAt1m: Int): Double {
+        return 10.0.pow((measuredPowerAt1m - rssi) / (10.0 * pathLossExponent))
+    }
+
+    override fun toString(): String {
+        return "{ pathLossExponent=$pathLossExponent, defaultMeasuredPowerAt1m=$defaultMeasuredPowerAt1m }"
+    }
+}
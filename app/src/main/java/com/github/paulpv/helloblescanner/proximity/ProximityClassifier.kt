@@ -0,0 +1,52 @@
+package com.github.paulpv.helloblescanner.proximity
+
+/**
+ * Classifies an estimated distance into a [ProximityZone], with hysteresis so that a device that sits near a boundary
+ * does not flap between the two zones on every sample: leaving a zone outward requires going [hysteresis] past its
+ * boundary, and coming back in requires going [hysteresis] inside of it.
+ *
+ * @param immediateMaxMeters the boundary between [ProximityZone.Immediate] and [ProximityZone.Near]
+ * @param nearMaxMeters the boundary between [ProximityZone.Near] and [ProximityZone.Far]
+ * @param hysteresis a fraction of each boundary; 0.2 moves a 3m boundary to 3.6m outward and 2.4m inward
+ */
+class ProximityClassifier(
+    val immediateMaxMeters: Double = 0.5,
+    val nearMaxMeters: Double = 3.0,
+    val hysteresis: Double = 0.2
+) {
+    init {
+        require(immediateMaxMeters > 0 && nearMaxMeters > immediateMaxMeters) { "boundaries must be 0 < immediate < near" }
+        require(hysteresis in 0.0..0.5) { "hysteresis must be in [0, 0.5]" }
+    }
+
+    /**
+     * @param meters NaN if unknown
+     * @param current the device's zone before this estimate; [ProximityZone.Unknown] to classify without hysteresis
+     */
+    fun classify(meters: Double, current: ProximityZone): ProximityZone {
+        if (meters.isNaN()) {
+            return ProximityZone.Unknown
+        }
+        return when {
+            meters <= boundary(immediateMaxMeters, ProximityZone.Immediate, current) -> ProximityZone.Immediate
+            meters <= boundary(nearMaxMeters, ProximityZone.Near, current) -> ProximityZone.Near
+            else -> ProximityZone.Far
+        }
+    }
+
+    /**
+     * @param inner the zone on the near side of the boundary
+     * @return the boundary moved away from current, so that it takes more than the boundary to cross it
+     */
+    private fun boundary(meters: Double, inner: ProximityZone, current: ProximityZone): Double {
+        return when {
+            current == ProximityZone.Unknown -> meters
+            current <= inner -> meters * (1 + hysteresis)
+            else -> meters * (1 - hysteresis)
+        }
+    }
+
+    override fun toString(): String {
+        return "{ immediateMaxMeters=$immediateMaxMeters, nearMaxMeters=$nearMaxMeters, hysteresis=$hysteresis }"
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.paulpv.helloblescanner.proximity
+
+import com.github.paulpv.helloblescanner.AdvertisingData
+import com.github.paulpv.helloblescanner.BleScanResult
+import com.github.paulpv.helloblescanner.collections.IterableLongSparseArray
+import com.github.paulpv.helloblescanner.scanners.AdvertisementEvent
+import com.github.paulpv.helloblescanner.utils.ListenerManager
+import com.github.paulpv.helloblescanner.utils.Utils
+
+/**
+ * Estimates each device's distance from its smoothed RSSI and advertised TX power, classifies it into a
+ * [ProximityZone], and reports only the zone transitions, so that downstream code reacts to a few zone changes instead
+ * of to every RSSI update.
+ *
+ * Fed by [BleScanResult.update]; the estimate and zone are kept in the primitive fields of the [BleScanResult].
+ *
+ * The RSSI expected at 1m is, in order of preference:
+ *  1. the per device calibration (see [setCalibration])
+ *  1. the iBeacon measured power, or the Eddystone TX power at 0m
+ *  1. the TX Power Level AD type
+ *  1. the TX power reported by the controller (extended advertisements only)
+ *  1. [PathLossModel.defaultMeasuredPowerAt1m]
+ */
+class ProximityEngine(
+    val model: PathLossModel = PathLossModel(),
+    val classifier: ProximityClassifier = ProximityClassifier()
+) {
+    companion object {
+        private val TAG = Utils.TAG(ProximityEngine::class)
+    }
+
+    interface ProximityListener {
+        /**
+         * Called on the scanner thread, during the update of scanResult
+         */
+        fun onProximityZoneChanged(scanResult: BleScanResult, previous: ProximityZone, zone: ProximityZone)
+    }
+
+    private val listeners = ListenerManager<ProximityListener>(this)
+
+    /**
+     * Measured power at 1m by macAddressLong; kept even while a device is out of range. Guarded by itself.
+     */
+    private val calibrations = IterableLongSparseArray<Int>()
+
+    fun addListener(listener: ProximityListener) = listeners.attach(listener)
+
+    fun removeListener(listener: ProximityListener) = listeners.detach(listener)
+
+    /**
+     * Any thread
+     * @param measuredPowerAt1m the RSSI measured with the device held 1m away; null to clear it
+     */
+    fun setCalibration(macAddressLong: Long, measuredPowerAt1m: Int?) {
+        synchronized(calibrations) {
+            if (measuredPowerAt1m == null) {
+                calibrations.remove(macAddressLong)
+            } else {
+                calibrations.put(macAddressLong, measuredPowerAt1m)
+            }
+        }
+    }
+
+    fun getMeasuredPowerAt1m(scanResult: BleScanResult): Int {
+        val calibration = synchronized(calibrations) { calibrations.get(scanResult.macAddressLong) }
+        if (calibration != null) {
+            return calibration
+        }
+        val beaconTxPowerCalibrated = scanResult.beaconTxPowerCalibrated
+        if (beaconTxPowerCalibrated != AdvertisingData.TX_POWER_LEVEL_NONE) {
+            return when (scanResult.beaconType) {
+                BleScanResult.BEACON_TYPE_IBEACON -> beaconTxPowerCalibrated
+                else -> beaconTxPowerCalibrated - PathLossModel.PATH_LOSS_AT_1M
+            }
+        }
+        val txPowerLevel = scanResult.advertisingData.txPowerLevel
+        if (txPowerLevel != AdvertisingData.TX_POWER_LEVEL_NONE) {
+            return txPowerLevel - PathLossModel.PATH_LOSS_AT_1M
+        }
+        val txPower = scanResult.txPower
+        if (txPower != AdvertisementEvent.TX_POWER_NONE) {
+            return txPower - PathLossModel.PATH_LOSS_AT_1M
+        }
+        return model.defaultMeasuredPowerAt1m
+    }
+
+    /**
+     * Scanner thread only; called by [BleScanResult.update] after it has smoothed the new sample
+     * @return true if the zone changed
+     */
+    fun update(scanResult: BleScanResult): Boolean {
+        val meters = model.estimateMeters(scanResult.rssiSmoothedEstimate, getMeasuredPowerAt1m(scanResult))
+        val previous = scanResult.proximityZone
+        val zone = classifier.classify(meters, previous)
+        scanResult.setProximity(meters, zone)
+        if (zone == previous) {
+            return false
+        }
+        val listeners = listeners.listeners
+        for (i in 0 until listeners.size) {
+            listeners[i].onProximityZoneChanged(scanResult, previous, zone)
+        }
+        return true
+    }
+
+    override fun toString(): String {
+        return "{ model=$model, classifier=$classifier }"
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.paulpv.helloblescanner.proximity
+
+/**
+ * Ordered nearest to farthest (after [Unknown]), so zones can be compared by ordinal
+ */
+enum class ProximityZone {
+    Unknown,
+    Immediate,
+    Near,
+    Far
+}
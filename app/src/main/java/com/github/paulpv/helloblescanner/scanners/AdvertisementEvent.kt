@@ -0,0 +1,108 @@
+package com.github.paulpv.helloblescanner.scanners
+
+import com.github.paulpv.helloblescanner.utils.MacAddressCodec
+
+/**
+ * One received advertisement, independent of the scanner (native, Nordic, SweetBlue) that received it; the only thing
+ * that is passed downstream of [ScannerAbstract.ingest].
+ *
+ * Each scanner converts its vendor's scan result into this once, and owns (and reuses) one instance, so receiving an
+ * advertisement allocates nothing here; it is only valid until [ScannerAbstract.ingest] returns.
+ *
+ * Plain Kotlin (no Android types), so the whole pipeline downstream of it can be exercised on the JVM.
+ */
+class AdvertisementEvent {
+    companion object {
+        /**
+         * Same value as ScanResult.TX_POWER_NOT_PRESENT
+         */
+        const val TX_POWER_NONE = 127
+
+        //
+        // Values of [flags]
+        //
+
+        /**
+         * The advertisement is connectable; only known if [FLAG_CONNECTABLE_KNOWN] is set (API 26+)
+         */
+        const val FLAG_CONNECTABLE = 1 shl 0
+        const val FLAG_CONNECTABLE_KNOWN = 1 shl 1
+
+        /**
+         * A legacy (Bluetooth 4.x) advertisement, as opposed to an extended (Bluetooth 5) one
+         */
+        const val FLAG_LEGACY = 1 shl 2
+    }
+
+    var macAddressLong = 0L
+        private set
+    var rssi = 0
+        private set
+
+    /**
+     * When the advertisement was received, on the SystemClock.elapsedRealtimeNanos clock
+     */
+    var timestampNanos = 0L
+        private set
+
+    /**
+     * In dBm, as reported by the controller (ScanResult.getTxPower, extended advertisements only); [TX_POWER_NONE] if not
+     * reported. Not to be confused with the TX Power Level AD structure, which is in the payload.
+     */
+    var txPower = TX_POWER_NONE
+        private set
+
+    /**
+     * FLAG_*
+     */
+    var flags = 0
+        private set
+
+    //
+    // The advertisement (plus scan response) bytes, as a slice of an array that is never modified after it is set; null
+    // if there were none
+    //
+    var payload: ByteArray? = null
+        private set
+    var payloadOffset = 0
+        private set
+    var payloadLength = 0
+        private set
+
+    /**
+     * The name as already resolved by the scanner (ie: SweetBlue's normalized name); null to have it resolved downstream
+     */
+    var name: String? = null
+        private set
+
+    /**
+     * @return this, for chaining
+     */
+    fun set(
+        macAddressLong: Long,
+        rssi: Int,
+        timestampNanos: Long,
+        txPower: Int,
+        flags: Int,
+        payload: ByteArray?,
+        payloadOffset: Int = 0,
+        payloadLength: Int = payload?.size ?: 0,
+        name: String? = null
+    ): AdvertisementEvent {
+        this.macAddressLong = macAddressLong
+        this.rssi = rssi
+        this.timestampNanos = timestampNanos
+        this.txPower = txPower
+        this.flags = flags
+        this.payload = payload
+        this.payloadOffset = payloadOffset
+        this.payloadLength = if (payload == null) 0 else payloadLength
+        this.name = name
+        return this
+    }
+
+    override fun toString(): String {
+        return "{ macAddress=${MacAddressCodec.format(macAddressLong)}, rssi=$rssi, timestampNanos=$timestampNanos" +
+                ", txPower=$txPower, flags=0x${Integer.toHexString(flags)}, payloadLength=$payloadLength, name=$name }"
+    }
+}
@@ -0,0 +1,172 @@
+package com.github.paulpv.helloblescanner.scanners
+
+import com.github.paulpv.helloblescanner.AdvertisingData
+import com.github.paulpv.helloblescanner.collections.IterableLongSparseArray
+
+/**
+ * The name of each device by MAC address, so that resolving it does not cost a [RemoteNames.getName] (ie:
+ * BluetoothDevice.getName, a Binder call into the Bluetooth service) per advertisement.
+ *
+ * A device's name is only resolved again when the local name bytes of its advertisement change (or appear/disappear),
+ * and entries outlive the device's expiry from the recent scan results, so a device that comes back is not resolved
+ * again either. A device without a name (neither advertised nor known to the OS, which often only learns it later) is
+ * not cached as such: [RemoteNames.getName] is asked again every [REMOTE_NAME_RETRY_NANOS] until it has one.
+ *
+ * Every name is interned, so that thousands of devices advertising the same name (ie: "FNDR") share one [String]; a
+ * name that is already interned is looked up by the hash of its bytes and compared in place, without decoding it.
+ *
+ * Both tables are bounded by [capacity]; when one is full, adding to it evicts one entry, round robin over the table.
+ *
+ * Scanner thread only.
+ */
+class DeviceNameCache(
+    private val remoteNames: RemoteNames? = null,
+    private val capacity: Int = DEFAULT_CAPACITY
+) {
+    companion object {
+        const val DEFAULT_CAPACITY = 4096
+
+        /**
+         * The hash of "no local name"
+         */
+        private const val LOCAL_NAME_NONE = 0L
+
+        /**
+         * How often to ask [RemoteNames.getName] again for a device it had no name for
+         */
+        const val REMOTE_NAME_RETRY_NANOS = 5_000_000_000L
+    }
+
+    /**
+     * Where the name of a device that does not advertise one comes from
+     */
+    interface RemoteNames {
+        /**
+         * @return the name the OS knows the device by, or null if none
+         */
+        fun getName(macAddressLong: Long): String?
+    }
+
+    /**
+     * @param name null if neither advertised nor known to the OS (yet)
+     * @param retryNanos when to ask [RemoteNames.getName] again if name is null
+     */
+    private class Entry(var localNameHash: Long, var name: String?, var retryNanos: Long)
+
+    private val entries = IterableLongSparseArray<Entry>()
+
+    /**
+     * Interned names by the FNV-1a hash of their UTF-8 bytes
+     */
+    private val names = IterableLongSparseArray<String>()
+
+    //
+    // The next index of each table to evict when it is full
+    //
+    private var entriesEvictIndex = 0
+    private var namesEvictIndex = 0
+
+    /**
+     * NOTE:(pv) The advertised local name is preferred over [RemoteNames.getName]; it is what the OS caches as the
+     * device's name anyway, and it is free
+     * @param data the device's current payload
+     * @param timestampNanos of the advertisement, on the SystemClock.elapsedRealtimeNanos clock
+     * @return the local name in data, else the remote name, else null if the device has no name (yet); while null, the
+     * caller should keep calling this for every advertisement, not just when the payload changes, so that a name the OS
+     * learns later is picked up
+     */
+    fun resolve(macAddressLong: Long, data: AdvertisingData, timestampNanos: Long): String? {
+        val nameIndex = data.nameIndex
+        val localNameHash = if (nameIndex < 0) LOCAL_NAME_NONE else
+            AdvertisingData.hash(data.bytes!!, data.getDataOffset(nameIndex), data.getDataLength(nameIndex))
+        var entry = entries.get(macAddressLong)
+        if (entry != null && entry.localNameHash == localNameHash &&
+            (entry.name != null || timestampNanos - entry.retryNanos < 0)
+        ) {
+            return entry.name
+        }
+        val name = if (nameIndex < 0) {
+            val remoteName = remoteNames?.getName(macAddressLong)
+            if (remoteName != null) intern(remoteName) else null
+        } else {
+            intern(localNameHash, data.bytes!!, data.getDataOffset(nameIndex), data.getDataLength(nameIndex))
+        }
+        val retryNanos = timestampNanos + REMOTE_NAME_RETRY_NANOS
+        if (entry == null) {
+            if (entries.size() >= capacity) {
+                entriesEvictIndex = evictOne(entries, entriesEvictIndex)
+            }
+            entry = Entry(localNameHash, name, retryNanos)
+            entries.put(macAddressLong, entry)
+        } else {
+            entry.localNameHash = localNameHash
+            entry.name = name
+            entry.retryNanos = retryNanos
+        }
+        return name
+    }
+
+    /**
+     * @return the index to evict next time
+     */
+    private fun evictOne(table: IterableLongSparseArray<*>, index: Int): Int {
+        val evictIndex = if (index < table.size()) index else 0
+        table.removeAt(evictIndex)
+        return evictIndex + 1
+    }
+
+    fun clear() {
+        entries.clear()
+        names.clear()
+        entriesEvictIndex = 0
+        namesEvictIndex = 0
+    }
+
+    private fun intern(name: String): String {
+        val bytes = name.toByteArray(Charsets.UTF_8)
+        return intern(AdvertisingData.hash(bytes), bytes, 0, bytes.size)
+    }
+
+    private fun intern(hash: Long, bytes: ByteArray, offset: Int, length: Int): String {
+        val interned = names.get(hash)
+        if (interned != null && equalsUtf8(interned, bytes, offset, length)) {
+            return interned
+        }
+        val name = String(bytes, offset, length, Charsets.UTF_8)
+        if (interned == null) {
+            if (names.size() >= capacity) {
+                namesEvictIndex = evictOne(names, namesEvictIndex)
+            }
+            names.put(hash, name)
+        }
+        // else a hash collision; rare enough to just not intern this one
+        return name
+    }
+
+    /**
+     * Compares without decoding when the name is ASCII, which advertised names nearly always are
+     */
+    private fun equalsUtf8(name: String, bytes: ByteArray, offset: Int, length: Int): Boolean {
+        if (name.length == length) {
+            var ascii = true
+            for (i in 0 until length) {
+                val b = bytes[offset + i].toInt()
+                if (b < 0) {
+                    ascii = false
+                    break
+                }
+                if (name[i].toInt() != b) {
+                    return false
+                }
+            }
+            if (ascii) {
+                return true
+            }
+        }
+        return name == String(bytes, offset, length, Charsets.UTF_8)
+    }
+
+    override fun toString(): String {
+        return "{ entries.size()=${entries.size()}, names.size()=${names.size()} }"
+    }
+}
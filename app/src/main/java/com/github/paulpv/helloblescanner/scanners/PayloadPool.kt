@@ -0,0 +1,76 @@
+package com.github.paulpv.helloblescanner.scanners
+
+/**
+ * The payloads retained by BleScanResults, so that each one holds a trimmed copy of only the significant bytes of its
+ * advertisement (instead of the scanner's zero padded 62 byte array), and devices that advertise byte for byte the same
+ * payload (ie: many tags of the same model) share one copy.
+ *
+ * A direct-mapped cache indexed by the payload's hash, like the one in MacAddressCodec: a miss just replaces the slot,
+ * so it is bounded by [capacity] and never walks or rehashes. Arrays it hands out are never modified.
+ *
+ * Scanner thread only.
+ */
+class PayloadPool(val capacity: Int = DEFAULT_CAPACITY) {
+    companion object {
+        const val DEFAULT_CAPACITY = 1024
+
+        /**
+         * @return the length of the AD structures at the start of the slice, up to the first zero length (padding); the
+         * whole slice if its last structure is truncated, so that the copy is still seen as truncated
+         */
+        fun getSignificantLength(bytes: ByteArray, offset: Int, length: Int): Int {
+            val end = offset + length
+            var position = offset
+            while (position < end) {
+                val structureLength = bytes[position].toInt() and 0xFF
+                if (structureLength == 0) {
+                    break
+                }
+                position += 1 + structureLength
+                if (position > end) {
+                    return length
+                }
+            }
+            return position - offset
+        }
+    }
+
+    init {
+        require(capacity > 0 && capacity and (capacity - 1) == 0) { "capacity must be a power of 2" }
+    }
+
+    private val payloads = arrayOfNulls<ByteArray>(capacity)
+
+    /**
+     * @param hash AdvertisingData.hash of the slice
+     * @return a shared, trimmed copy of the slice; must not be modified
+     */
+    fun obtain(hash: Long, bytes: ByteArray, offset: Int, length: Int): ByteArray {
+        val significantLength = getSignificantLength(bytes, offset, length)
+        val index = (hash xor (hash ushr 32)).toInt() and (capacity - 1)
+        val pooled = payloads[index]
+        if (pooled != null && pooled.size == significantLength && equals(pooled, bytes, offset)) {
+            return pooled
+        }
+        val copy = bytes.copyOfRange(offset, offset + significantLength)
+        payloads[index] = copy
+        return copy
+    }
+
+    private fun equals(pooled: ByteArray, bytes: ByteArray, offset: Int): Boolean {
+        for (i in pooled.indices) {
+            if (pooled[i] != bytes[offset + i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    fun clear() {
+        payloads.fill(null)
+    }
+
+    override fun toString(): String {
+        return "{ capacity=$capacity }"
+    }
+}
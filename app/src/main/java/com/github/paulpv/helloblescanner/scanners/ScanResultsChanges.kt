@@ -0,0 +1,210 @@
+package com.github.paulpv.helloblescanner.scanners
+
+import com.github.paulpv.helloblescanner.BleScanResult
+import com.github.paulpv.helloblescanner.collections.ExpiringIterableLongSparseArray
+
+/**
+ * The net adds/updates/removes of one processing cycle of a scanner, for example one onBatchScanResults, delivered to
+ * [ScannerAbstract.Callbacks.onScanResultsChanged].
+ *
+ * Each key is in at most one of [added], [updated], or [removed]; events for the same key within a cycle are merged as
+ * they are recorded (see [onAdded], [onUpdated], [onRemoved]), so the three lists can be applied in any order.
+ *
+ * Instances are reused from one cycle to the next; a callback must not keep a reference to one after it returns.
+ */
+class ScanResultsChanges {
+    /**
+     * A growable list of items and their keys that is backed by arrays and does not allocate once it has grown.
+     *
+     * Indexed by key with a small open-addressing (linear probing) table of key to index, so that merging each change of
+     * a cycle is O(1) and a whole cycle of k changes (ie: a large onBatchScanResults in a dense venue) is O(k), not
+     * O(k^2). The table is cleared in O(1) by bumping a generation: a slot is only occupied if it was written in the
+     * current one.
+     *
+     * [removeAt] moves the last item into the removed index, so the order of the items is not the order they were added.
+     */
+    class ItemList {
+        private var keys = LongArray(INITIAL_CAPACITY)
+        private var items = arrayOfNulls<ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>>(INITIAL_CAPACITY)
+
+        //
+        // The key to index table; always at least twice the capacity of [keys], and a power of 2
+        //
+        private var slots = IntArray(INITIAL_CAPACITY * 2)
+        private var slotGenerations = IntArray(INITIAL_CAPACITY * 2)
+        private var generation = 1
+
+        var size = 0
+            private set
+
+        fun keyAt(index: Int): Long = keys[index]
+
+        operator fun get(index: Int): ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult> = items[index]!!
+
+        fun indexOfKey(key: Long): Int {
+            val slot = findSlot(key)
+            return if (isOccupied(slot)) slots[slot] else -1
+        }
+
+        internal fun add(key: Long, item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
+            if (size == keys.size) {
+                val capacity = size * 2
+                keys = keys.copyOf(capacity)
+                items = items.copyOf(capacity)
+                rehash(capacity * 2)
+            }
+            keys[size] = key
+            items[size] = item
+            occupy(findSlot(key), size)
+            size++
+        }
+
+        internal fun set(index: Int, item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
+            items[index] = item
+        }
+
+        internal fun removeAt(index: Int) {
+            vacate(findSlot(keys[index]))
+            val last = size - 1
+            if (index != last) {
+                keys[index] = keys[last]
+                items[index] = items[last]
+                slots[findSlot(keys[index])] = index
+            }
+            items[last] = null
+            size = last
+        }
+
+        internal fun clear() {
+            items.fill(null, 0, size)
+            size = 0
+            if (++generation == 0) {
+                slotGenerations.fill(0)
+                generation = 1
+            }
+        }
+
+        private fun home(key: Long): Int = ((key * GOLDEN_RATIO_64) ushr 32).toInt() and (slots.size - 1)
+
+        private fun isOccupied(slot: Int): Boolean = slotGenerations[slot] == generation
+
+        private fun occupy(slot: Int, index: Int) {
+            slots[slot] = index
+            slotGenerations[slot] = generation
+        }
+
+        /**
+         * @return the slot of key, or the empty slot where it would go
+         */
+        private fun findSlot(key: Long): Int {
+            val mask = slots.size - 1
+            var slot = home(key)
+            while (isOccupied(slot) && keys[slots[slot]] != key) {
+                slot = (slot + 1) and mask
+            }
+            return slot
+        }
+
+        /**
+         * Backward shift deletion: moves up the entries after slot that probed past it, so that no lookup stops early
+         */
+        private fun vacate(slot: Int) {
+            val mask = slots.size - 1
+            var hole = slot
+            var next = slot
+            while (true) {
+                next = (next + 1) and mask
+                if (!isOccupied(next)) {
+                    break
+                }
+                val home = home(keys[slots[next]])
+                // The entry at next may move to the hole only if its home is not cyclically within (hole, next]
+                val stays = if (hole <= next) home in (hole + 1)..next else home > hole || home <= next
+                if (!stays) {
+                    slots[hole] = slots[next]
+                    hole = next
+                }
+            }
+            slotGenerations[hole] = generation - 1
+        }
+
+        private fun rehash(tableSize: Int) {
+            slots = IntArray(tableSize)
+            slotGenerations = IntArray(tableSize)
+            generation = 1
+            for (i in 0 until size) {
+                occupy(findSlot(keys[i]), i)
+            }
+        }
+
+        override fun toString(): String {
+            return "{ size=$size }"
+        }
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 16
+
+        private const val GOLDEN_RATIO_64 = -0x61c8864680b583ebL // 0x9E3779B97F4A7C15
+    }
+
+    val added = ItemList()
+    val updated = ItemList()
+    val removed = ItemList()
+
+    val size: Int
+        get() = added.size + updated.size + removed.size
+
+    val isEmpty: Boolean
+        get() = size == 0
+
+    internal fun onAdded(key: Long, item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
+        val index = removed.indexOfKey(key)
+        if (index >= 0) {
+            // Removed and then added back within the cycle: an update to whoever already had it
+            removed.removeAt(index)
+            updated.add(key, item)
+        } else {
+            added.add(key, item)
+        }
+    }
+
+    internal fun onUpdated(key: Long, item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
+        var index = added.indexOfKey(key)
+        if (index >= 0) {
+            // Still an add
+            added.set(index, item)
+            return
+        }
+        index = updated.indexOfKey(key)
+        if (index >= 0) {
+            updated.set(index, item)
+        } else {
+            updated.add(key, item)
+        }
+    }
+
+    internal fun onRemoved(key: Long, item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
+        var index = added.indexOfKey(key)
+        if (index >= 0) {
+            // Added and then removed within the cycle: nobody ever needs to know about it
+            added.removeAt(index)
+            return
+        }
+        index = updated.indexOfKey(key)
+        if (index >= 0) {
+            updated.removeAt(index)
+        }
+        removed.add(key, item)
+    }
+
+    internal fun clear() {
+        added.clear()
+        updated.clear()
+        removed.clear()
+    }
+
+    override fun toString(): String {
+        return "{ added=$added, updated=$updated, removed=$removed }"
+    }
+}
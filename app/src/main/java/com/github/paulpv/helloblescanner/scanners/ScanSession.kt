@@ -0,0 +1,26 @@
+package com.github.paulpv.helloblescanner.scanners
+
+import com.github.paulpv.helloblescanner.proximity.ProximityEngine
+import com.github.paulpv.helloblescanner.utils.RssiSmoother
+
+/**
+ * What every BleScanResult constructor/update of one scan session is processed with; immutable, and taken by
+ * [ScannerAbstract.scanStart] from the scanner's settings, so changing a setting takes effect with the next session.
+ *
+ * @param nameCache scanner thread only; null to resolve every name from scratch
+ * @param payloadPool scanner thread only; null to retain each payload as the scanner delivered it
+ */
+class ScanSession(
+    val rssiSmoother: RssiSmoother = RssiSmoother.DEFAULT,
+    val proximityEngine: ProximityEngine? = null,
+    val nameCache: DeviceNameCache? = null,
+    val payloadPool: PayloadPool? = null
+) {
+    companion object {
+        val DEFAULT = ScanSession()
+    }
+
+    override fun toString(): String {
+        return "{ rssiSmoother=$rssiSmoother, proximityEngine=$proximityEngine, nameCache=$nameCache, payloadPool=$payloadPool }"
+    }
+}
@@ -1,12 +1,16 @@
 package com.github.paulpv.helloblescanner.scanners
 
 import android.app.PendingIntent
+import android.bluetooth.BluetoothDevice
 import android.bluetooth.le.ScanFilter
 import android.content.Context
 import android.content.Intent
 import android.util.Log
 import androidx.annotation.RequiresApi
 import com.github.paulpv.helloblescanner.BleScanResult
+import com.github.paulpv.helloblescanner.proximity.ProximityEngine
+import com.github.paulpv.helloblescanner.utils.MacAddressCodec
+import com.github.paulpv.helloblescanner.utils.RssiSmoother
 import com.github.paulpv.helloblescanner.utils.Utils
 import com.github.paulpv.helloblescanner.collections.ExpiringIterableLongSparseArray
 
@@ -19,10 +23,40 @@ abstract class ScannerAbstract(
         private val TAG = Utils.TAG(ScannerAbstract::class)
     }
 
+    /**
+     * Scanners deliver [onScanResultsChanged] once per processing cycle; its default implementation adapts it to the
+     * per item methods.
+     */
     interface Callbacks {
         fun onScanResultAdded(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>)
         fun onScanResultUpdated(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>)
         fun onScanResultRemoved(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>)
+
+        /**
+         * Called once when attached, with every scan result as of [version]; the adds/updates/removes that follow are
+         * exactly the ones after [version]. Not called while holding any lock, so it may take its time (ie: rebuild a
+         * whole list); the events dispatched meanwhile are delivered after it returns.
+         */
+        fun onScanResultsSnapshot(version: Long, items: List<ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>>) {
+        }
+
+        /**
+         * @param changes only valid until this returns
+         */
+        fun onScanResultsChanged(changes: ScanResultsChanges) {
+            val removed = changes.removed
+            for (i in 0 until removed.size) {
+                onScanResultRemoved(removed[i])
+            }
+            val added = changes.added
+            for (i in 0 until added.size) {
+                onScanResultAdded(added[i])
+            }
+            val updated = changes.updated
+            for (i in 0 until updated.size) {
+                onScanResultUpdated(updated[i])
+            }
+        }
     }
 
     protected val bluetoothAdapter = Utils.getBluetoothAdapter(applicationContext)
@@ -41,15 +75,130 @@ abstract class ScannerAbstract(
     @Suppress("unused")
     fun bluetoothAdapterToggle() = Utils.bluetoothAdapterEnable(bluetoothAdapter, !isBluetoothEnabled)
 
+    /**
+     * Materializes a BluetoothDevice from a MAC address; the scan results only keep the MAC address, so call this only
+     * when one is actually needed (ie: to connect, or when the user selects the device)
+     * @return null if there is no Bluetooth adapter
+     */
+    fun getBluetoothDevice(macAddressLong: Long): BluetoothDevice? {
+        return bluetoothAdapter?.getRemoteDevice(MacAddressCodec.format(macAddressLong))
+    }
+
     protected val recentScanResults =
         ExpiringIterableLongSparseArray<BleScanResult>("recentScanResults", scanResultTimeoutMillis)
 
+    //
+    // BEGIN: Guarded by recentScanResults.syncLock
+    //
+    private val changes = ScanResultsChanges()
+    private var changesBatchDepth = 0
+    //
+    // END: Guarded by recentScanResults.syncLock
+    //
+
+    /**
+     * How the RSSI of each device is smoothed; read by [scanStart], so a change takes effect with the next scan session
+     */
+    @Volatile
+    var rssiSmoother: RssiSmoother = RssiSmoother.DEFAULT
+
+    /**
+     * Estimates distance and zone of each device, if not null; read by [scanStart], like [rssiSmoother]
+     */
+    @Volatile
+    var proximityEngine: ProximityEngine? = null
+
+    //
+    // Kept for the life of the scanner, across sessions
+    //
+    private val nameCache = DeviceNameCache(object : DeviceNameCache.RemoteNames {
+        override fun getName(macAddressLong: Long): String? = getBluetoothDevice(macAddressLong)?.name
+    })
+    private val payloadPool = PayloadPool()
+
+    /**
+     * The settings of the current scan session; [ingest] passes it to every BleScanResult constructor/update
+     */
+    @Volatile
+    protected var session = ScanSession(rssiSmoother, proximityEngine, nameCache, payloadPool)
+        private set
+
     val recentScanResultsCount: Int
         get() = recentScanResults.size()
 
     val recentScanResultsIterator: Iterator<ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>>
         get() = recentScanResults.iterateValues()
 
+    /**
+     * Any thread
+     * @return null if the device has not been seen recently
+     */
+    fun getRecentScanResult(macAddressLong: Long): BleScanResult? = recentScanResults.get(macAddressLong)
+
+    /**
+     * Calls block with a copy of [recentScanResults] while holding its lock.
+     * Every add/update/remove is dispatched while holding that same lock, so none can be dispatched between the copy and
+     * whatever block does with it (ie: registering for the events that follow).
+     * Ingestion is blocked while block runs, so it should only register; the copy can be used after this returns.
+     */
+    fun <T> withRecentScanResultsSnapshot(block: (List<ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>>) -> T): T {
+        synchronized(recentScanResults.syncLock) {
+            val snapshot = ArrayList<ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>>(recentScanResults.size())
+            recentScanResults.iterateValues().forEach { snapshot.add(it) }
+            return block(snapshot)
+        }
+    }
+
+    /**
+     * Collects the adds/updates/removes of everything that block does to [recentScanResults] into one
+     * [Callbacks.onScanResultsChanged]; changes made outside of a batch are delivered one at a time.
+     * Holds the lock of [recentScanResults] for all of block, so [withRecentScanResultsSnapshot] can never see a change
+     * that has not been delivered yet. May be nested.
+     */
+    protected fun <T> batch(block: () -> T): T {
+        synchronized(recentScanResults.syncLock) {
+            changesBatchDepth++
+            try {
+                return block()
+            } finally {
+                if (--changesBatchDepth == 0) {
+                    flushChanges()
+                }
+            }
+        }
+    }
+
+    /**
+     * The single entry point of every advertisement into [recentScanResults]; nothing downstream of this sees the
+     * scanner's own scan result types.
+     * Must be called inside of [batch], which also serializes the use of each scanner's one reused event.
+     * @param event only read during this call
+     */
+    protected fun ingest(event: AdvertisementEvent) {
+        val macAddressLong = event.macAddressLong
+        var scanResult = recentScanResults.get(macAddressLong)
+        if (scanResult == null) {
+            scanResult = BleScanResult(event, session)
+        } else {
+            scanResult.update(event, session)
+        }
+        recentScanResults.put(macAddressLong, scanResult)
+    }
+
+    /**
+     * Must be called while holding recentScanResults.syncLock
+     */
+    private fun flushChanges() {
+        if (changes.isEmpty) {
+            return
+        }
+        try {
+            callbacks.onScanResultsChanged(changes)
+        } finally {
+            changes.clear()
+        }
+    }
+
     init {
         //@formatter:off
         recentScanResults.addListener(object : ExpiringIterableLongSparseArray.ExpiringIterableLongSparseArrayListener<BleScanResult> {
@@ -67,7 +216,7 @@ abstract class ScannerAbstract(
     }
 
     open fun clear() {
-        recentScanResults.clear()
+        batch { recentScanResults.clear() }
     }
 
     /**
@@ -79,6 +228,7 @@ abstract class ScannerAbstract(
      */
     open fun scanStart(scanFiltersNative: List<ScanFilter>?, scanPendingIntent: PendingIntent?): Boolean {
         Log.i(TAG, "scanStart(scanFiltersNative=$scanFiltersNative, scanPendingIntent=$scanPendingIntent)")
+        session = ScanSession(rssiSmoother, proximityEngine, nameCache, payloadPool)
         recentScanResults.resume()
         return true
     }
@@ -97,12 +247,18 @@ abstract class ScannerAbstract(
 
     private fun onScanResultAdded(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         Log.v(TAG, "onScanResultAdded($item)")
-        callbacks.onScanResultAdded(item)
+        changes.onAdded(item.key, item)
+        if (changesBatchDepth == 0) {
+            flushChanges()
+        }
     }
 
     private fun onScanResultUpdated(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         Log.v(TAG, "onScanResultUpdated($item)")
-        callbacks.onScanResultUpdated(item)
+        changes.onUpdated(item.key, item)
+        if (changesBatchDepth == 0) {
+            flushChanges()
+        }
     }
 
     private fun onScanResultExpiring(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>): Boolean {
@@ -112,6 +268,9 @@ abstract class ScannerAbstract(
 
     private fun onScanResultRemoved(item: ExpiringIterableLongSparseArray.ItemWrapper<BleScanResult>) {
         Log.v(TAG, "onScanResultRemoved($item)")
-        callbacks.onScanResultRemoved(item)
+        changes.onRemoved(item.key, item)
+        if (changesBatchDepth == 0) {
+            flushChanges()
+        }
     }
 }
\ No newline at end of file
@@ -7,7 +7,7 @@ import android.content.Intent
 import android.os.Build
 import android.util.Log
 import androidx.annotation.RequiresApi
-import com.github.paulpv.helloblescanner.BleScanResult
+import com.github.paulpv.helloblescanner.utils.MacAddressCodec
 import com.github.paulpv.helloblescanner.utils.Utils
 
 class ScannerNative(
@@ -30,6 +30,11 @@ class ScannerNative(
 
     private var scanPendingIntent: PendingIntent? = null
 
+    /**
+     * Guarded by batch
+     */
+    private val event = AdvertisementEvent()
+
     override fun scanStart(scanFiltersNative: List<ScanFilter>?, scanPendingIntent: PendingIntent?): Boolean {
         if (!super.scanStart(scanFiltersNative, scanPendingIntent)) {
             return false
@@ -92,8 +97,10 @@ class ScannerNative(
         if (callbackType == -1) {
             onBatchScanResults("PendingIntent", scanResults)
         } else {
-            for (scanResult in scanResults) {
-                onScanResult("PendingIntent", callbackType, scanResult)
+            batch {
+                for (scanResult in scanResults) {
+                    onScanResult("PendingIntent", callbackType, scanResult)
+                }
             }
         }
     }
@@ -118,8 +125,10 @@ class ScannerNative(
         try {
             Log.v(TAG, "+$msg")
         */
-        for (scanResult in scanResults) {
-            onScanResult("$caller->onBatchScanResults", ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult)
+        batch {
+            for (scanResult in scanResults) {
+                onScanResult("$caller->onBatchScanResults", ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult)
+            }
         }
         /*
         } finally {
@@ -131,9 +140,6 @@ class ScannerNative(
     private fun onScanResult(caller: String, callbackType: Int, scanResult: ScanResult?) {
         if (scanResult == null) return
 
-        val device = scanResult.device
-        val macAddressString = device.address
-
         @Suppress("SimplifyBooleanWithConstants", "ConstantConditionIf")
         if (true) {//false && BuildConfig.DEBUG) {
             //@formatter:off
@@ -141,13 +147,28 @@ class ScannerNative(
             //@formatter:on
         }
 
-        val macAddressLong = Utils.macAddressStringToLong(macAddressString)
-        var deviceInfo = recentScanResults.get(macAddressLong)
-        if (deviceInfo == null) {
-            deviceInfo = BleScanResult(scanResult)
+        batch { ingest(toEvent(scanResult)) }
+    }
+
+    private fun toEvent(scanResult: ScanResult): AdvertisementEvent {
+        val txPower: Int
+        val flags: Int
+        if (Build.VERSION.SDK_INT >= 26) {
+            txPower = scanResult.txPower
+            flags = AdvertisementEvent.FLAG_CONNECTABLE_KNOWN or
+                    (if (scanResult.isConnectable) AdvertisementEvent.FLAG_CONNECTABLE else 0) or
+                    (if (scanResult.isLegacy) AdvertisementEvent.FLAG_LEGACY else 0)
         } else {
-            deviceInfo.update(scanResult)
+            txPower = AdvertisementEvent.TX_POWER_NONE
+            flags = AdvertisementEvent.FLAG_LEGACY
         }
-        recentScanResults.put(macAddressLong, deviceInfo)
+        return event.set(
+            MacAddressCodec.parse(scanResult.device.address),
+            scanResult.rssi,
+            scanResult.timestampNanos,
+            txPower,
+            flags,
+            scanResult.scanRecord?.bytes
+        )
     }
-}
\ No newline at end of file
+}
@@ -7,7 +7,7 @@ import android.content.Intent
 import android.os.Build
 import android.util.Log
 import androidx.annotation.RequiresApi
-import com.github.paulpv.helloblescanner.BleScanResult
+import com.github.paulpv.helloblescanner.utils.MacAddressCodec
 import com.github.paulpv.helloblescanner.utils.Utils
 import no.nordicsemi.android.support.v18.scanner.*
 import java.util.*
@@ -69,43 +69,6 @@ class ScannerNordic(
             builder.setNumOfMatches(ScanSettings.MATCH_NUM_MAX_ADVERTISEMENT)// no scanSettingsNative getter?!?!?!
             return builder.build()
         }
-
-        /*
-        fun scanRecordNordicToNative(scanRecord: ScanRecord?): android.bluetooth.le.ScanRecord? {
-            return if (scanRecord == null) null else scanRecordFromBytes(scanRecord.bytes)
-        }
-
-        /**
-         * public static ScanRecord parseFromBytes(byte[] scanRecord) is annotated with @hide.
-         * To call this methods I see two options:
-         * 1) use reflection to call parseFromBytes
-         * 2) copy the code
-         * 3) don't call parseFromBytes, but use reflection to call ScanRecord constructor
-         * For now I am choosing the former.
-         * If that stops working I will choose the latter.
-         *
-         * @param scanRecordBytes
-         * @return
-         */
-        fun scanRecordFromBytes(scanRecordBytes: ByteArray?): android.bluetooth.le.ScanRecord? {
-            if (scanRecordBytes == null) {
-                return null
-            }
-            val method = try {
-                android.bluetooth.le.ScanRecord::class.java.getDeclaredMethod("parseFromBytes", ByteArray::class.java)
-            } catch (e: NoSuchMethodException) {
-                return null
-            }
-            method.isAccessible = true
-            return try {
-                method.invoke(null, *scanRecordBytes) as android.bluetooth.le.ScanRecord
-            } catch (e: IllegalAccessException) {
-                return null
-            } catch (e: InvocationTargetException) {
-                return null
-            }
-        }
-        */
     }
 
     private val scannerNordic = BluetoothLeScannerCompat.getScanner()
@@ -120,6 +83,11 @@ class ScannerNordic(
 
     private var scanPendingIntent: PendingIntent? = null
 
+    /**
+     * Guarded by batch
+     */
+    private val event = AdvertisementEvent()
+
     override fun scanStart(scanFiltersNative: List<android.bluetooth.le.ScanFilter>?, scanPendingIntent: PendingIntent?): Boolean {
         if (!super.scanStart(scanFiltersNative, scanPendingIntent)) {
             return false
@@ -172,8 +140,10 @@ class ScannerNordic(
         try {
             Log.v(TAG, "+$msg")
         */
-        for (scanResult in scanResults) {
-            onScanResult("$caller->onBatchScanResults", android.bluetooth.le.ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult)
+        batch {
+            for (scanResult in scanResults) {
+                onScanResult("$caller->onBatchScanResults", android.bluetooth.le.ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult)
+            }
         }
         /*
         } finally {
@@ -183,9 +153,6 @@ class ScannerNordic(
     }
 
     private fun onScanResult(caller: String, callbackType: Int, scanResult: ScanResult) {
-        val device = scanResult.device
-        val macAddressString = device.address
-
         @Suppress("SimplifyBooleanWithConstants", "ConstantConditionIf")
         if (true) {//false && BuildConfig.DEBUG) {
             Log.v(
@@ -194,13 +161,25 @@ class ScannerNordic(
             )
         }
 
-        val macAddressLong = Utils.macAddressStringToLong(macAddressString)
-        var deviceInfo = recentScanResults.get(macAddressLong)
-        if (deviceInfo == null) {
-            deviceInfo = BleScanResult(scanResult)
-        } else {
-            deviceInfo.update(scanResult)
+        batch { ingest(toEvent(scanResult)) }
+    }
+
+    /**
+     * NOTE:(pv) Below API 26 the Nordic ScanResult defaults isConnectable to true, so it is only trusted on API 26+
+     */
+    private fun toEvent(scanResult: ScanResult): AdvertisementEvent {
+        var flags = if (scanResult.isLegacy) AdvertisementEvent.FLAG_LEGACY else 0
+        if (Build.VERSION.SDK_INT >= 26) {
+            flags = flags or AdvertisementEvent.FLAG_CONNECTABLE_KNOWN or
+                    (if (scanResult.isConnectable) AdvertisementEvent.FLAG_CONNECTABLE else 0)
         }
-        recentScanResults.put(macAddressLong, deviceInfo)
+        return event.set(
+            MacAddressCodec.parse(scanResult.device.address),
+            scanResult.rssi,
+            scanResult.timestampNanos,
+            scanResult.txPower,
+            flags,
+            scanResult.scanRecord?.bytes
+        )
     }
-}
\ No newline at end of file
+}
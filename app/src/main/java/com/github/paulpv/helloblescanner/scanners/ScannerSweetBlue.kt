@@ -6,9 +6,10 @@ import android.bluetooth.le.ScanResult
 import android.content.Context
 import android.content.Intent
 import android.os.Build
+import android.os.SystemClock
 import android.util.Log
 import androidx.annotation.RequiresApi
-import com.github.paulpv.helloblescanner.BleScanResult
+import com.github.paulpv.helloblescanner.utils.MacAddressCodec
 import com.github.paulpv.helloblescanner.utils.Utils
 import com.idevicesinc.sweetblue.*
 import com.idevicesinc.sweetblue.internal.IBleDevice
@@ -131,6 +132,11 @@ class ScannerSweetBlue(
     private val manager: BleManager
     private val discoveryListener: DiscoveryListener
 
+    /**
+     * Guarded by batch
+     */
+    private val event = AdvertisementEvent()
+
     init {
         val config = BleManagerConfig()
         with(config) {
@@ -420,7 +426,7 @@ class ScannerSweetBlue(
                 val rssi = scanResult.rssi
 
                 @Suppress("LocalVariableName")
-                val name_normalized = BleScanResult.getDeviceNameOrScanRecordName(scanResult)
+                val name_normalized = deviceName ?: scanResult.scanRecord?.deviceName ?: deviceAddress
 
                 //
                 // Check filter and ignore if no pass
@@ -485,14 +491,23 @@ class ScannerSweetBlue(
         if (true) {//false && BuildConfig.DEBUG) {
             Log.v(TAG, "onScanResultAddedOrUpdated: device=$device")
         }
-        val macAddressLong = Utils.macAddressStringToLong(device.macAddress)
-        var deviceInfo = recentScanResults.get(macAddressLong)
-        if (deviceInfo == null) {
-            deviceInfo = BleScanResult(device)
-        } else {
-            deviceInfo.update(device)
-        }
-        recentScanResults.put(macAddressLong, deviceInfo)
+        batch { ingest(toEvent(device)) }
+    }
+
+    /**
+     * NOTE:(pv) SweetBlue does not expose when it received the advertisement, nor its TX power or connectability, so
+     * this stamps it as received now
+     */
+    private fun toEvent(device: BleDevice): AdvertisementEvent {
+        return event.set(
+            MacAddressCodec.parse(device.macAddress),
+            device.rssi,
+            SystemClock.elapsedRealtimeNanos(),
+            AdvertisementEvent.TX_POWER_NONE,
+            0,
+            device.scanRecord,
+            name = device.name_normalized
+        )
     }
 
     private fun onScanResultRemoved(device: BleDevice) {
@@ -504,7 +519,7 @@ class ScannerSweetBlue(
         if (true) {//false && BuildConfig.DEBUG) {
             Log.v(TAG, "onScanResultRemoved: device=$device")
         }
-        val macAddressLong = Utils.macAddressStringToLong(device.macAddress)
+        val macAddressLong = MacAddressCodec.parse(device.macAddress)
         recentScanResults.remove(macAddressLong)
     }
 }
\ No newline at end of file
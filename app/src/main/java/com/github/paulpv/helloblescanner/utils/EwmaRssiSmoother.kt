@@ -0,0 +1,38 @@
+package com.github.paulpv.helloblescanner.utils
+
+import kotlin.math.exp
+import kotlin.math.ln
+
+/**
+ * Exponentially weighted moving average whose alpha is scaled by the time between samples, so that a sample's weight
+ * depends on how long ago it was taken rather than on how many samples came after it:
+ * after [halfLifeMillis] an old estimate has half of its weight, however often the device advertises.
+ *
+ * Uses [RssiSmoothingState.estimate].
+ *
+ * @param halfLifeMillis the default of 1000 weighs samples a second apart like the old fixed
+ * [LowPassFilter.ALPHA_MEDIUM] did
+ * @param minimumIntervalMillis the interval assumed for samples with no time between them (ie: from the same batch),
+ * so that they still count for something
+ */
+class EwmaRssiSmoother(
+    halfLifeMillis: Long = 1000,
+    minimumIntervalMillis: Long = 100
+) : RssiSmoother {
+    private val decayPerNano = ln(2.0) / (halfLifeMillis * 1_000_000.0)
+    private val minimumIntervalNanos = minimumIntervalMillis * 1_000_000L
+
+    override fun update(state: RssiSmoothingState, rssi: Int, elapsedNanos: Long): Double {
+        if (state.sampleCount == 0) {
+            state.estimate = rssi.toDouble()
+        } else {
+            val alpha = 1.0 - exp(-decayPerNano * maxOf(elapsedNanos, minimumIntervalNanos))
+            state.estimate += alpha * (rssi - state.estimate)
+        }
+        return state.estimate
+    }
+
+    override fun toString(): String {
+        return "EWMA"
+    }
+}
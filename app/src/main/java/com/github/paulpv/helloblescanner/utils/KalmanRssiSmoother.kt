@@ -0,0 +1,35 @@
+package com.github.paulpv.helloblescanner.utils
+
+/**
+ * One dimensional Kalman filter that models the RSSI as a constant plus a random walk: the uncertainty of the estimate
+ * grows with the time since the last sample (at [processNoisePerSecond]), so a sample after a long gap moves the
+ * estimate further than one right after another, and each sample is weighed against [measurementNoise].
+ *
+ * Uses [RssiSmoothingState.estimate] and [RssiSmoothingState.variance] (the error covariance of the estimate).
+ *
+ * @param processNoisePerSecond in dBm² per second; how fast the true RSSI is expected to wander (ie: walking speed)
+ * @param measurementNoise in dBm²; the variance of a single sample around the true RSSI
+ */
+class KalmanRssiSmoother(
+    private val processNoisePerSecond: Double = 4.0,
+    private val measurementNoise: Double = 16.0
+) : RssiSmoother {
+    override fun update(state: RssiSmoothingState, rssi: Int, elapsedNanos: Long): Double {
+        if (state.sampleCount == 0) {
+            state.estimate = rssi.toDouble()
+            state.variance = measurementNoise
+        } else {
+            // Predict
+            val variance = state.variance + processNoisePerSecond * (elapsedNanos / 1_000_000_000.0)
+            // Correct
+            val gain = variance / (variance + measurementNoise)
+            state.estimate += gain * (rssi - state.estimate)
+            state.variance = (1.0 - gain) * variance
+        }
+        return state.estimate
+    }
+
+    override fun toString(): String {
+        return "Kalman"
+    }
+}
@@ -2,32 +2,78 @@ package com.github.paulpv.helloblescanner.utils
 
 import android.util.Log
 import com.github.paulpv.helloblescanner.BuildConfig
-import java.util.*
 
+/**
+ * Copy-on-write set of listeners.
+ *
+ * [attach]/[detach]/[clear] copy the listeners into a new immutable [Snapshot] and publish it through a volatile field.
+ * [listeners] just reads that field, so traversing is lock free and allocation free, and any listener may attach or
+ * detach listeners (even while nested inside another traversal) without affecting a traversal that is in progress;
+ * the change is seen by the next one.
+ */
 open class ListenerManager<T>(name: String) {
     companion object {
         private val TAG = Utils.TAG(ListenerManager::class)
 
         @Suppress("SimplifyBooleanWithConstants")
         private val VERBOSE_LOG = false && BuildConfig.DEBUG
+
+        private val EMPTY = Snapshot<Any?>(arrayOfNulls(0))
+    }
+
+    /**
+     * An immutable array of listeners; iterate by index:
+     * <pre>
+     * val listeners = listenerManager.listeners
+     * for (i in 0 until listeners.size) {
+     *     listeners[i].onSomething()
+     * }
+     * </pre>
+     */
+    class Snapshot<T> internal constructor(private val items: Array<Any?>) {
+        val size: Int
+            get() = items.size
+
+        @Suppress("UNCHECKED_CAST")
+        operator fun get(index: Int): T = items[index] as T
+
+        internal fun indexOf(listener: Any?): Int {
+            for (i in items.indices) {
+                if (items[i] == listener) {
+                    return i
+                }
+            }
+            return -1
+        }
+
+        internal fun with(listener: Any?): Snapshot<T> {
+            val items = items.copyOf(items.size + 1)
+            items[items.size - 1] = listener
+            return Snapshot(items)
+        }
+
+        internal fun without(index: Int): Snapshot<T> {
+            val items = arrayOfNulls<Any?>(this.items.size - 1)
+            System.arraycopy(this.items, 0, items, 0, index)
+            System.arraycopy(this.items, index + 1, items, index, items.size - index)
+            return Snapshot(items)
+        }
     }
 
     private val name: String = Utils.quote(name).trim { it <= ' ' }
-    private val listeners: MutableSet<T>
-    private val listenersToAdd: MutableSet<T>
-    private val listenersToRemove: MutableSet<T>
 
-    private var isTraversingListeners: Boolean = false
+    /**
+     * Guards writes to [snapshot]
+     */
+    private val lock = Any()
+
+    @Suppress("UNCHECKED_CAST")
+    @Volatile
+    private var snapshot = EMPTY as Snapshot<T>
 
     @Suppress("unused")
     constructor(name: Any) : this(Utils.getShortClassName(name))
 
-    init {
-        listeners = LinkedHashSet()
-        listenersToAdd = LinkedHashSet()
-        listenersToRemove = LinkedHashSet()
-    }
-
     override fun toString(): String {
         return "{ name=$name, size()=${size()} }"
     }
@@ -36,28 +82,20 @@ open class ListenerManager<T>(name: String) {
     fun isEmpty(): Boolean = size() == 0
 
     @Suppress("MemberVisibilityCanBePrivate")
-    fun size(): Int {
-        val size: Int
-        synchronized(listeners) {
-            val consolidated = LinkedHashSet(listeners)
-            consolidated.addAll(listenersToAdd)
-            consolidated.removeAll(listenersToRemove)
-            size = consolidated.size
-        }
-        /*
-        if (VERBOSE_LOG)
-        {
-            Log.v(TAG, "$name size() == $size");
-        }
-        */
-        return size
-    }
+    fun size(): Int = snapshot.size
 
-    operator fun contains(listener: T): Boolean {
-        synchronized(listeners) {
-            return (listeners.contains(listener) || listenersToAdd.contains(listener)) && listenersToRemove.contains(listener)
+    operator fun contains(listener: T): Boolean = snapshot.indexOf(listener) >= 0
+
+    /**
+     * The listeners as of now; never changes, so it is safe to traverse while listeners are attached or detached
+     */
+    val listeners: Snapshot<T>
+        get() {
+            if (VERBOSE_LOG) {
+                Log.v(TAG, "$name listeners")
+            }
+            return snapshot
         }
-    }
 
     fun attach(listener: T?): Boolean {
         if (VERBOSE_LOG) {
@@ -68,18 +106,12 @@ open class ListenerManager<T>(name: String) {
             return false
         }
 
-        synchronized(listeners) {
-            if (listeners.contains(listener) || listenersToAdd.contains(listener)) {
+        synchronized(lock) {
+            val snapshot = snapshot
+            if (snapshot.indexOf(listener) >= 0) {
                 return false
             }
-
-            if (isTraversingListeners) {
-                listenersToAdd.add(listener)
-            } else {
-
-                listeners.add(listener)
-                updateListeners()
-            }
+            publish(snapshot.with(listener))
             return true
         }
     }
@@ -93,17 +125,13 @@ open class ListenerManager<T>(name: String) {
             return false
         }
 
-        synchronized(listeners) {
-            if (!listeners.contains(listener) && !listenersToAdd.contains(listener)) {
+        synchronized(lock) {
+            val snapshot = snapshot
+            val index = snapshot.indexOf(listener)
+            if (index < 0) {
                 return false
             }
-
-            if (isTraversingListeners) {
-                listenersToRemove.add(listener)
-            } else {
-                listeners.remove(listener)
-                updateListeners()
-            }
+            publish(snapshot.without(index))
             return true
         }
     }
@@ -113,55 +141,21 @@ open class ListenerManager<T>(name: String) {
         if (VERBOSE_LOG) {
             Log.v(TAG, "$name clear()")
         }
-        synchronized(listeners) {
-            listenersToAdd.clear()
-            if (isTraversingListeners) {
-                listenersToRemove.addAll(listeners)
-            } else {
-                listeners.clear()
-                listenersToRemove.clear()
-            }
+        synchronized(lock) {
+            @Suppress("UNCHECKED_CAST")
+            publish(EMPTY as Snapshot<T>)
         }
     }
 
-    fun beginTraversing(): Set<T> {
+    /**
+     * Must be called while holding [lock]
+     */
+    private fun publish(snapshot: Snapshot<T>) {
         if (VERBOSE_LOG) {
-            Log.v(TAG, "$name beginTraversing()")
-        }
-        synchronized(listeners) {
-            isTraversingListeners = true
-            return Collections.unmodifiableSet(listeners)
-        }
-    }
-
-    fun endTraversing() {
-        if (VERBOSE_LOG) {
-            Log.v(TAG, "$name endTraversing()")
-        }
-        synchronized(listeners) {
-            updateListeners()
-            isTraversingListeners = false
-        }
-    }
-
-    private fun updateListeners() {
-        if (VERBOSE_LOG) {
-            Log.v(TAG, "$name updateListeners()")
-        }
-        synchronized(listeners) {
-            var it: MutableIterator<T> = listenersToAdd.iterator()
-            while (it.hasNext()) {
-                listeners.add(it.next())
-                it.remove()
-            }
-            it = listenersToRemove.iterator()
-            while (it.hasNext()) {
-                listeners.remove(it.next())
-                it.remove()
-            }
-
-            onListenersUpdated(listeners.size)
+            Log.v(TAG, "$name publish(size=${snapshot.size})")
         }
+        this.snapshot = snapshot
+        onListenersUpdated(snapshot.size)
     }
 
     @Suppress("MemberVisibilityCanBePrivate")
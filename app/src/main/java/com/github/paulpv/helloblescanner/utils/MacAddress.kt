@@ -0,0 +1,44 @@
+package com.github.paulpv.helloblescanner.utils
+
+/**
+ * A 48-bit MAC address carried as its Long, with no allocation (see [MacAddressCodec] for the layout).
+ */
+@Suppress("EXPERIMENTAL_FEATURE_WARNING")
+inline class MacAddress(val value: Long) {
+    companion object {
+        /**
+         * @throws IllegalArgumentException if chars is not a MAC address
+         */
+        fun parse(chars: CharSequence): MacAddress = MacAddress(MacAddressCodec.parse(chars))
+    }
+
+    /**
+     * The Organizationally Unique Identifier: the top 24 bits, which identify the vendor (unless [isLocallyAdministered])
+     */
+    val oui: Long
+        get() = value ushr 24
+
+    /**
+     * The bottom 24 bits, assigned by the vendor
+     */
+    val nic: Long
+        get() = value and 0xFFFFFF
+
+    private val firstOctet: Int
+        get() = (value ushr 40).toInt() and 0xFF
+
+    /**
+     * The U/L bit; set for addresses that were not assigned by a vendor, which in BLE includes random (ie: resolvable
+     * private) addresses, so [oui] means nothing for those
+     */
+    val isLocallyAdministered: Boolean
+        get() = firstOctet and 0x02 != 0
+
+    /**
+     * The I/G bit
+     */
+    val isMulticast: Boolean
+        get() = firstOctet and 0x01 != 0
+
+    override fun toString(): String = MacAddressCodec.format(value)
+}
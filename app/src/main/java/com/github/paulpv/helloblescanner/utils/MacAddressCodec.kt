@@ -0,0 +1,113 @@
+package com.github.paulpv.helloblescanner.utils
+
+/**
+ * Allocation free conversions between a MAC address as "XX:XX:XX:XX:XX:XX" and as a Long (the 48 bits in the bottom of
+ * the Long, first octet most significant, so Longs sort like the Strings do).
+ *
+ * [parse] reads the chars directly and validates them, instead of stripping/lower casing copies of the String and then
+ * parsing those; [format] caches the Strings it makes in a small direct-mapped cache, so the same few hundred devices
+ * do not allocate a new String every time one of them is shown.
+ */
+object MacAddressCodec {
+    /**
+     * "XX:XX:XX:XX:XX:XX"
+     */
+    const val LENGTH = 17
+
+    private const val CACHE_SIZE = 1024 // Must be a power of 2
+
+    private const val GOLDEN_RATIO_64 = -0x61c8864680b583ebL // 0x9E3779B97F4A7C15
+
+    private val HEX_DIGITS = "0123456789ABCDEF".toCharArray()
+
+    /**
+     * Immutable, so that an entry read from [cache] by any thread is always a consistent pair
+     */
+    private class Entry(val value: Long, val string: String)
+
+    private val cache = arrayOfNulls<Entry>(CACHE_SIZE)
+
+    /**
+     * @param chars "XX:XX:XX:XX:XX:XX" (or with '-' separators); hex digits in either case
+     * @throws IllegalArgumentException if chars is not a MAC address
+     */
+    fun parse(chars: CharSequence): Long {
+        if (chars.length != LENGTH) {
+            throw IllegalArgumentException("Invalid MAC address length: \"$chars\"")
+        }
+        var value = 0L
+        for (i in 0 until LENGTH) {
+            val c = chars[i]
+            if (i % 3 == 2) {
+                if (c != ':' && c != '-') {
+                    throw IllegalArgumentException("Invalid MAC address separator at $i: \"$chars\"")
+                }
+                continue
+            }
+            val digit = Character.digit(c, 16)
+            if (digit < 0) {
+                throw IllegalArgumentException("Invalid MAC address digit at $i: \"$chars\"")
+            }
+            value = (value shl 4) or digit.toLong()
+        }
+        return value
+    }
+
+    /**
+     * @return true if chars is a MAC address that [parse] accepts
+     */
+    fun isValid(chars: CharSequence?): Boolean {
+        if (chars == null || chars.length != LENGTH) {
+            return false
+        }
+        for (i in 0 until LENGTH) {
+            val c = chars[i]
+            val valid = if (i % 3 == 2) c == ':' || c == '-' else Character.digit(c, 16) >= 0
+            if (!valid) {
+                return false
+            }
+        }
+        return true
+    }
+
+    /**
+     * Any thread
+     * @return "XX:XX:XX:XX:XX:XX", upper case like BluetoothDevice.getAddress
+     */
+    fun format(value: Long): String {
+        val index = (mix(value) and (CACHE_SIZE - 1).toLong()).toInt()
+        val entry = cache[index]
+        if (entry != null && entry.value == value) {
+            return entry.string
+        }
+        val chars = CharArray(LENGTH)
+        formatTo(value, chars, 0)
+        val string = String(chars)
+        cache[index] = Entry(value, string)
+        return string
+    }
+
+    /**
+     * @return the offset after the [LENGTH] chars written to buffer
+     */
+    fun formatTo(value: Long, buffer: CharArray, offset: Int): Int {
+        var position = offset
+        for (octet in 5 downTo 0) {
+            val b = (value ushr (8 * octet)).toInt() and 0xFF
+            buffer[position++] = HEX_DIGITS[b ushr 4]
+            buffer[position++] = HEX_DIGITS[b and 0xF]
+            if (octet != 0) {
+                buffer[position++] = ':'
+            }
+        }
+        return position
+    }
+
+    /**
+     * Spreads all 48 bits over the cache index, so that neither a vendor's sequential addresses nor random ones collide
+     */
+    private fun mix(value: Long): Long {
+        val hash = (value xor (value ushr 24)) * GOLDEN_RATIO_64
+        return hash xor (hash ushr 32)
+    }
+}
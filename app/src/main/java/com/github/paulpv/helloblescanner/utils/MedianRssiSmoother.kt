@@ -0,0 +1,74 @@
+package com.github.paulpv.helloblescanner.utils
+
+/**
+ * Median of the last [windowSize] samples; ignores outliers (ie: a single deep fade) entirely instead of averaging them
+ * in, at the cost of lagging by half of the window.
+ *
+ * The window is packed into [RssiSmoothingState.window], one signed byte per sample (RSSI is always within a byte),
+ * newest in the low byte, so it needs no array; [RssiSmoothingState.windowCount] is how many of those bytes are
+ * samples.
+ *
+ * @param windowSize 1 to 8
+ * @param staleMillis if a device was not seen for longer than this its window is restarted, since the old samples say
+ * little about where it is now
+ */
+class MedianRssiSmoother(
+    private val windowSize: Int = 5,
+    staleMillis: Long = 5000
+) : RssiSmoother {
+    companion object {
+        const val WINDOW_SIZE_MAX = 8
+    }
+
+    private val staleNanos = staleMillis * 1_000_000L
+
+    init {
+        require(windowSize in 1..WINDOW_SIZE_MAX) { "windowSize must be in [1, $WINDOW_SIZE_MAX]" }
+    }
+
+    override fun update(state: RssiSmoothingState, rssi: Int, elapsedNanos: Long): Double {
+        val count = if (state.sampleCount == 0 || elapsedNanos > staleNanos) 1 else minOf(state.windowCount + 1, windowSize)
+        val window = (state.window shl 8) or (rssi.toLong() and 0xFF)
+        state.window = window
+        state.windowCount = count
+        state.estimate = median(window, count)
+        return state.estimate
+    }
+
+    /**
+     * O(count²) rank counting, which for at most 8 samples is cheaper than sorting and needs no scratch array
+     */
+    private fun median(window: Long, count: Int): Double {
+        val lowerRank = (count - 1) / 2
+        val upperRank = count / 2
+        var lower = 0
+        var upper = 0
+        for (i in 0 until count) {
+            val value = sampleAt(window, i)
+            var less = 0
+            var lessOrEqual = 0
+            for (j in 0 until count) {
+                val other = sampleAt(window, j)
+                if (other < value) {
+                    less++
+                }
+                if (other <= value) {
+                    lessOrEqual++
+                }
+            }
+            if (lowerRank in less until lessOrEqual) {
+                lower = value
+            }
+            if (upperRank in less until lessOrEqual) {
+                upper = value
+            }
+        }
+        return (lower + upper) / 2.0
+    }
+
+    private fun sampleAt(window: Long, index: Int): Int = (window ushr (8 * index)).toByte().toInt()
+
+    override fun toString(): String {
+        return "Median($windowSize)"
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.paulpv.helloblescanner.utils
+
+import android.widget.TextView
+import java.text.DecimalFormatSymbols
+import java.util.*
+
+/**
+ * Allocation free equivalent of `textView.text = String.format(locale, "$prefix%0${width}d$suffix", value)`.
+ *
+ * Values in [[cacheMin], [cacheMax]] are formatted once (per [Locale]) and the same [String] instances are set every
+ * time after that.
+ * Values outside of that range are formatted into a caller owned [CharArray] that is passed to
+ * [TextView.setText] (char[], int, int); TextView keeps a reference to that array, so each TextView needs its own.
+ */
+class PaddedIntFormatter(
+    private val prefix: String,
+    private val width: Int,
+    private val cacheMin: Int,
+    private val cacheMax: Int,
+    private val suffix: String = ""
+) {
+    companion object {
+        /**
+         * The range of RSSI values reported by Android (ScanResult.getRssi is documented as [-127, 126], but in practice
+         * never above 20)
+         */
+        const val RSSI_MIN = -127
+        const val RSSI_MAX = 20
+    }
+
+    private var cacheLocale: Locale? = null
+    private val cache = arrayOfNulls<String>(cacheMax - cacheMin + 1)
+    private var zeroDigit = '0'
+    private var minusSign = '-'
+
+    /**
+     * @return a buffer big enough for any Int formatted by [setText]
+     */
+    fun newBuffer(): CharArray = CharArray(prefix.length + 1 + maxOf(width, 10) + suffix.length)
+
+    /**
+     * @param buffer from [newBuffer], owned by textView; only used if value is outside of the cached range
+     */
+    fun setText(textView: TextView, value: Int, buffer: CharArray) {
+        val locale = Locale.getDefault()
+        if (locale !== cacheLocale) {
+            cacheLocale = locale
+            Arrays.fill(cache, null)
+            val symbols = DecimalFormatSymbols.getInstance(locale)
+            zeroDigit = symbols.zeroDigit
+            minusSign = symbols.minusSign
+        }
+        if (value in cacheMin..cacheMax) {
+            val index = value - cacheMin
+            var text = cache[index]
+            if (text == null) {
+                text = String.format(locale, "$prefix%0${width}d", value) + suffix
+                cache[index] = text
+            }
+            textView.text = text
+        } else {
+            val length = format(value, buffer)
+            textView.setText(buffer, 0, length)
+        }
+    }
+
+    /**
+     * @return the number of chars written to buffer
+     */
+    private fun format(value: Int, buffer: CharArray): Int {
+        var offset = 0
+        for (c in prefix) {
+            buffer[offset++] = c
+        }
+        // Long so that Int.MIN_VALUE can be negated
+        var magnitude = value.toLong()
+        var digitsWidth = width
+        if (magnitude < 0) {
+            buffer[offset++] = minusSign
+            magnitude = -magnitude
+            // Like %0Nd, the sign counts towards the width
+            digitsWidth--
+        }
+        var digits = 1
+        var temp = magnitude / 10
+        while (temp != 0L) {
+            digits++
+            temp /= 10
+        }
+        for (i in digits until digitsWidth) {
+            buffer[offset++] = zeroDigit
+        }
+        var end = offset + digits
+        offset = end
+        do {
+            buffer[--end] = zeroDigit + (magnitude % 10).toInt()
+            magnitude /= 10
+        } while (magnitude != 0L)
+        for (c in suffix) {
+            buffer[offset++] = c
+        }
+        return offset
+    }
+}
@@ -0,0 +1,217 @@
+package com.github.paulpv.helloblescanner.utils
+
+import kotlin.math.sqrt
+
+/**
+ * The last [capacity] RSSI samples of one device, in a fixed-capacity ring of primitive arrays (a byte per RSSI and an
+ * int per time since the previous sample), with rolling statistics that are updated in O(1) as samples are added and
+ * evicted:
+ *  * count, sum, and sum of squares, for the mean and standard deviation
+ *  * a histogram of the values in the window, for the min, max, and percentiles; walking it is bounded by the RSSI
+ *  range, not by the number of samples
+ *
+ * Single writer (the scanner thread calls [add]), any number of readers (ie: the UI thread). Every [add] and every read
+ * holds the lock of this instance; both are O(1) (or bounded by the RSSI range), so the writer is never held up for
+ * long, and a reader never sees a half applied [add].
+ * NOTE:(pv) Not a seqlock around a volatile counter: without fences (VarHandle, StampedLock need API 24+) nothing stops
+ * the plain reads and writes from being reordered around the counter on ARM.
+ */
+class RssiHistory(val capacity: Int = DEFAULT_CAPACITY) {
+    companion object {
+        const val DEFAULT_CAPACITY = 32
+
+        /**
+         * Samples are clamped to this range
+         */
+        private const val RSSI_MIN = PaddedIntFormatter.RSSI_MIN
+        private const val RSSI_MAX = PaddedIntFormatter.RSSI_MAX
+    }
+
+    init {
+        require(capacity in 1..Short.MAX_VALUE) { "capacity must be in [1, ${Short.MAX_VALUE}]" }
+    }
+
+    //
+    // BEGIN: Guarded by this
+    //
+    private val rssis = ByteArray(capacity)
+    private val deltaMillis = IntArray(capacity)
+    private val histogram = ShortArray(RSSI_MAX - RSSI_MIN + 1)
+
+    /**
+     * The index of the next sample to write, and so of the oldest one once the ring is full
+     */
+    private var head = 0
+    private var count = 0
+    private var sum = 0
+    private var sumOfSquares = 0L
+    private var min = 0
+    private var max = 0
+    private var spanMillis = 0L
+    private var lastTimestampNanos = 0L
+    //
+    // END: Guarded by this
+    //
+
+    /**
+     * The rolling statistics of the samples in the window; a caller owned instance that [read] fills in
+     */
+    class Statistics {
+        var count = 0
+        var min = 0
+        var max = 0
+        var mean = 0.0
+        var standardDeviation = 0.0
+        var median = 0
+
+        /**
+         * The time between the oldest and newest samples in the window
+         */
+        var spanMillis = 0L
+
+        override fun toString(): String {
+            return "{ count=$count, min=$min, max=$max, mean=$mean, standardDeviation=$standardDeviation" +
+                    ", median=$median, spanMillis=$spanMillis }"
+        }
+    }
+
+    /**
+     * Scanner thread only
+     * @param timestampNanos on a monotonic clock (ie: ScanResult.timestampNanos)
+     */
+    fun add(rssi: Int, timestampNanos: Long) {
+        val value = rssi.coerceIn(RSSI_MIN, RSSI_MAX)
+        synchronized(this) {
+            val delta = if (count == 0) 0L else (timestampNanos - lastTimestampNanos) / 1_000_000L
+            val deltaMillis = delta.coerceIn(0L, Int.MAX_VALUE.toLong()).toInt()
+            if (count == capacity) {
+                evict(head)
+            }
+            rssis[head] = value.toByte()
+            this.deltaMillis[head] = deltaMillis
+            head = if (head + 1 == capacity) 0 else head + 1
+            if (count == 0) {
+                min = value
+                max = value
+            } else {
+                spanMillis += deltaMillis
+                if (value < min) {
+                    min = value
+                }
+                if (value > max) {
+                    max = value
+                }
+            }
+            count++
+            sum += value
+            sumOfSquares += value * value
+            histogram[value - RSSI_MIN]++
+            lastTimestampNanos = timestampNanos
+        }
+    }
+
+    /**
+     * Must be called while holding the lock of this
+     */
+    private fun evict(index: Int) {
+        val value = rssis[index].toInt()
+        count--
+        sum -= value
+        sumOfSquares -= value * value
+        val bucket = value - RSSI_MIN
+        histogram[bucket]--
+        // The next oldest sample's delta was relative to the evicted one, which is no longer in the window
+        if (count > 0) {
+            spanMillis -= deltaMillis[if (index + 1 == capacity) 0 else index + 1]
+        }
+        if (histogram[bucket].toInt() == 0 && count > 0) {
+            if (value == min) {
+                var i = bucket
+                while (histogram[i].toInt() == 0) {
+                    i++
+                }
+                min = i + RSSI_MIN
+            }
+            if (value == max) {
+                var i = bucket
+                while (histogram[i].toInt() == 0) {
+                    i--
+                }
+                max = i + RSSI_MIN
+            }
+        }
+    }
+
+    /**
+     * Scanner thread only
+     */
+    fun clear() {
+        synchronized(this) {
+            head = 0
+            count = 0
+            sum = 0
+            sumOfSquares = 0L
+            spanMillis = 0L
+            histogram.fill(0)
+        }
+    }
+
+    /**
+     * Any thread
+     * @return statistics, for chaining
+     */
+    fun read(statistics: Statistics): Statistics {
+        synchronized(this) {
+            val count = count
+            statistics.count = count
+            statistics.spanMillis = spanMillis
+            if (count == 0) {
+                statistics.min = 0
+                statistics.max = 0
+                statistics.mean = 0.0
+                statistics.standardDeviation = 0.0
+                statistics.median = 0
+            } else {
+                statistics.min = min
+                statistics.max = max
+                val mean = sum.toDouble() / count
+                statistics.mean = mean
+                statistics.standardDeviation = sqrt(maxOf(sumOfSquares.toDouble() / count - mean * mean, 0.0))
+                statistics.median = percentileOf(count, 50)
+            }
+            return statistics
+        }
+    }
+
+    /**
+     * Any thread
+     * @param percent 0 to 100; nearest rank
+     * @return the RSSI that percent of the samples in the window are at or below, or 0 if there are none
+     */
+    fun percentile(percent: Int): Int {
+        require(percent in 0..100) { "percent must be in [0, 100]" }
+        synchronized(this) {
+            val count = count
+            return if (count == 0) 0 else percentileOf(count, percent)
+        }
+    }
+
+    /**
+     * Must be called while holding the lock of this
+     */
+    private fun percentileOf(count: Int, percent: Int): Int {
+        val rank = maxOf((percent * count + 99) / 100, 1)
+        var cumulative = 0
+        for (i in min - RSSI_MIN..max - RSSI_MIN) {
+            cumulative += histogram[i]
+            if (cumulative >= rank) {
+                return i + RSSI_MIN
+            }
+        }
+        return max
+    }
+
+    override fun toString(): String {
+        return "{ capacity=$capacity, count=$count }"
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.paulpv.helloblescanner.utils
+
+/**
+ * A strategy for smoothing the RSSI samples of one device.
+ *
+ * Implementations keep no per device state of their own; everything is in the [RssiSmoothingState] that is passed in,
+ * so one instance (chosen per scanner session) serves every device, and [update] must not allocate.
+ * Only ever called on the scanner thread, but implementations should be immutable anyway.
+ */
+interface RssiSmoother {
+    companion object {
+        val DEFAULT: RssiSmoother = EwmaRssiSmoother()
+    }
+
+    /**
+     * @param state the device's state; [RssiSmoothingState.sampleCount] is 0 for its first sample
+     * @param rssi the new sample, in dBm
+     * @param elapsedNanos the time since the previous sample of the device; undefined for its first sample
+     * @return the new smoothed estimate, in dBm
+     */
+    fun update(state: RssiSmoothingState, rssi: Int, elapsedNanos: Long): Double
+}
@@ -0,0 +1,62 @@
+package com.github.paulpv.helloblescanner.utils
+
+import kotlin.math.roundToInt
+
+/**
+ * The per device state of an [RssiSmoother], all in primitive fields; one per device, reused for every sample.
+ *
+ * Which fields mean what is up to the smoother; the state is reset whenever the smoother changes (ie: a new scanner
+ * session chose a different one), so they never see each other's state.
+ */
+class RssiSmoothingState {
+    private var smoother: RssiSmoother? = null
+
+    var sampleCount = 0
+    var lastTimestampNanos = 0L
+
+    //
+    // Smoother defined
+    //
+    var estimate = 0.0
+    var variance = 0.0
+    var window = 0L
+    var windowCount = 0
+
+    /**
+     * The last estimate, rounded to the nearest dBm; 0 before the first sample
+     */
+    var smoothed = 0
+        private set
+
+    fun reset() {
+        sampleCount = 0
+        lastTimestampNanos = 0L
+        estimate = 0.0
+        variance = 0.0
+        window = 0L
+        windowCount = 0
+        smoothed = 0
+    }
+
+    /**
+     * @param timestampNanos of the sample, on a monotonic clock (ie: ScanResult.timestampNanos)
+     * @return true if [smoothed] changed
+     */
+    fun update(smoother: RssiSmoother, rssi: Int, timestampNanos: Long): Boolean {
+        if (smoother !== this.smoother) {
+            this.smoother = smoother
+            reset()
+        }
+        val elapsedNanos = if (sampleCount == 0) 0L else maxOf(timestampNanos - lastTimestampNanos, 0L)
+        val estimate = smoother.update(this, rssi, elapsedNanos)
+        sampleCount++
+        lastTimestampNanos = timestampNanos
+        val smoothedPrevious = smoothed
+        smoothed = estimate.roundToInt()
+        return smoothed != smoothedPrevious
+    }
+
+    override fun toString(): String {
+        return "{ sampleCount=$sampleCount, smoothed=$smoothed }"
+    }
+}
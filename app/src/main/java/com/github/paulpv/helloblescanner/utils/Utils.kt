@@ -403,6 +403,84 @@ object Utils {
         return sb.toString()
     }
 
+    /**
+     * Allocation free variant of [getTimeDurationFormattedString] that writes into buffer, for use with
+     * TextView.setText(char[], int, int)
+     *
+     * @param elapsedMillis elapsedMillis; negative values are treated as 0
+     * @param maximumTimeUnit maximumTimeUnit
+     * @param buffer buffer
+     * @param offset offset in buffer to start writing at
+     * @return the offset in buffer after the last char written
+     */
+    @JvmStatic
+    fun getTimeDurationFormattedChars(
+        elapsedMillis: Long,
+        maximumTimeUnit: TimeUnit,
+        buffer: CharArray,
+        offset: Int
+    ): Int {
+        if (maximumTimeUnit > TimeUnit.DAYS) {
+            throw IllegalArgumentException("maximumTimeUnit must be <= TimeUnit.DAYS")
+        }
+        if (maximumTimeUnit < TimeUnit.MILLISECONDS) {
+            throw IllegalArgumentException("maximumTimeUnit must be >= TimeUnit.MILLISECONDS")
+        }
+        @Suppress("NAME_SHADOWING") var elapsedMillis = if (elapsedMillis < 0) 0 else elapsedMillis
+        @Suppress("NAME_SHADOWING") var offset = offset
+        if (maximumTimeUnit >= TimeUnit.DAYS) {
+            val days = TimeUnit.MILLISECONDS.toDays(elapsedMillis)
+            offset = formatNumber(days, 2, buffer, offset)
+            buffer[offset++] = ':'
+            elapsedMillis -= TimeUnit.DAYS.toMillis(days)
+        }
+        if (maximumTimeUnit >= TimeUnit.HOURS) {
+            val hours = TimeUnit.MILLISECONDS.toHours(elapsedMillis)
+            offset = formatNumber(hours, 2, buffer, offset)
+            buffer[offset++] = ':'
+            elapsedMillis -= TimeUnit.HOURS.toMillis(hours)
+        }
+        if (maximumTimeUnit >= TimeUnit.MINUTES) {
+            val minutes = TimeUnit.MILLISECONDS.toMinutes(elapsedMillis)
+            offset = formatNumber(minutes, 2, buffer, offset)
+            buffer[offset++] = ':'
+            elapsedMillis -= TimeUnit.MINUTES.toMillis(minutes)
+        }
+        if (maximumTimeUnit >= TimeUnit.SECONDS) {
+            val seconds = TimeUnit.MILLISECONDS.toSeconds(elapsedMillis)
+            offset = formatNumber(seconds, 2, buffer, offset)
+            buffer[offset++] = '.'
+            elapsedMillis -= TimeUnit.SECONDS.toMillis(seconds)
+        }
+        return formatNumber(elapsedMillis, 3, buffer, offset)
+    }
+
+    /**
+     * Allocation free variant of [formatNumber] for non-negative numbers
+     * @return the offset in buffer after the last char written
+     */
+    @JvmStatic
+    fun formatNumber(number: Long, minimumLength: Int, buffer: CharArray, offset: Int): Int {
+        var digits = 1
+        var temp = number / 10
+        while (temp != 0L) {
+            digits++
+            temp /= 10
+        }
+        @Suppress("NAME_SHADOWING") var offset = offset
+        for (i in digits until minimumLength) {
+            buffer[offset++] = '0'
+        }
+        @Suppress("NAME_SHADOWING") var number = number
+        var end = offset + digits
+        offset = end
+        do {
+            buffer[--end] = '0' + (number % 10).toInt()
+            number /= 10
+        } while (number != 0L)
+        return offset
+    }
+
     //
     //
     //
@@ -507,11 +585,10 @@ object Utils {
     //
     //
 
-    fun macAddressStringToStrippedLowerCaseString(macAddress: String?): String {
-        return (macAddress ?: "00:00:00:00:00:00").replace(":", "").toLowerCase(Locale.ROOT)
-    }
-
+    /**
+     * @return 0 if macAddress is null; see [MacAddressCodec.parse]
+     */
     fun macAddressStringToLong(macAddress: String?): Long {
-        return java.lang.Long.parseLong(macAddressStringToStrippedLowerCaseString(macAddress), 16)
+        return if (macAddress == null) 0L else MacAddressCodec.parse(macAddress)
     }
 }
\ No newline at end of file
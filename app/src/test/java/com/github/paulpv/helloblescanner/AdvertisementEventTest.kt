@@ -0,0 +1,58 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.scanners.AdvertisementEvent
+import com.github.paulpv.helloblescanner.utils.MacAddressCodec
+import org.junit.Assert.*
+import org.junit.Test
+
+class AdvertisementEventTest {
+    companion object {
+        private const val NANOS_PER_MILLI = 1_000_000L
+
+        private val MAC_ADDRESS_LONG = MacAddressCodec.parse("0E:06:E5:75:F0:AE")
+
+        private fun bytes(vararg values: Int) = ByteArray(values.size) { values[it].toByte() }
+
+        /**
+         * Flags, then complete name "FNDR"
+         */
+        private val PAYLOAD = bytes(0x02, 0x01, 0x06, 0x05, 0x09, 'F'.toInt(), 'N'.toInt(), 'D'.toInt(), 'R'.toInt())
+    }
+
+    @Test
+    fun ingest_nameAndFields() {
+        val event = AdvertisementEvent()
+            .set(MAC_ADDRESS_LONG, -60, 0, -8, AdvertisementEvent.FLAG_CONNECTABLE_KNOWN, PAYLOAD)
+        val scanResult = BleScanResult(event)
+        assertEquals(MAC_ADDRESS_LONG, scanResult.macAddressLong)
+        assertEquals("0E:06:E5:75:F0:AE", scanResult.macAddress)
+        assertEquals("FNDR", scanResult.name)
+        assertEquals(-60, scanResult.rssi)
+        assertEquals(-8, scanResult.txPower)
+        assertEquals(false, scanResult.isConnectable)
+        assertTrue(scanResult.isPayloadChanged)
+        assertEquals(0x06, scanResult.advertisingData.flags)
+    }
+
+    @Test
+    fun ingest_payloadSlice() {
+        val buffer = ByteArray(4) + PAYLOAD + ByteArray(4)
+        val event = AdvertisementEvent()
+        val scanResult = BleScanResult(event.set(MAC_ADDRESS_LONG, -60, 0, 0, 0, PAYLOAD))
+        // The same bytes at a different offset of a different array are the same payload
+        scanResult.update(event.set(MAC_ADDRESS_LONG, -61, 100 * NANOS_PER_MILLI, 0, 0, buffer, 4, PAYLOAD.size))
+        assertFalse(scanResult.isPayloadChanged)
+        assertEquals("FNDR", scanResult.name)
+        assertEquals(-61, scanResult.rssi)
+        // No name in the payload, and no name cache to resolve one with, falls back to the MAC address
+        scanResult.update(event.set(MAC_ADDRESS_LONG, -62, 200 * NANOS_PER_MILLI, 0, 0, buffer, 4, 3))
+        assertTrue(scanResult.isPayloadChanged)
+        assertEquals("0E:06:E5:75:F0:AE", scanResult.name)
+        assertEquals(1, scanResult.advertisingData.structureCount)
+        // A name resolved by the scanner wins
+        scanResult.update(event.set(MAC_ADDRESS_LONG, -63, 300 * NANOS_PER_MILLI, 0, 0, null, name = "CARD"))
+        assertEquals("CARD", scanResult.name)
+        assertEquals(0, scanResult.advertisingData.structureCount)
+        assertNull(scanResult.isConnectable)
+    }
+}
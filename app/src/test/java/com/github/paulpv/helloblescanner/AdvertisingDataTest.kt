@@ -0,0 +1,129 @@
+package com.github.paulpv.helloblescanner
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+class AdvertisingDataTest {
+    companion object {
+        private val UUID_128 = UUID.fromString("0000fd44-0000-1000-8000-00805f9b34fb")
+
+        /**
+         * Flags, 16-bit service UUIDs, complete name "FNDR", TX power, 16-bit service data, manufacturer data,
+         * 128-bit service UUID (in the scan response), then zero padding
+         */
+        private val BYTES = bytes(
+            0x02, 0x01, 0x06,
+            0x05, 0x03, 0x0F, 0x18, 0x0A, 0x18,
+            0x05, 0x09, 'F'.toInt(), 'N'.toInt(), 'D'.toInt(), 'R'.toInt(),
+            0x02, 0x0A, 0xF4,
+            0x05, 0x16, 0x0F, 0x18, 0x64, 0x01,
+            0x07, 0xFF, 0x4C, 0x00, 0x02, 0x15, 0xAB, 0xCD,
+            0x11, 0x07, *uuid128LittleEndian(UUID_128),
+            0x00, 0x00, 0x00, 0x00
+        )
+
+        private fun bytes(vararg values: Int) = ByteArray(values.size) { values[it].toByte() }
+
+        private fun uuid128LittleEndian(uuid: UUID): IntArray {
+            val values = IntArray(16)
+            for (i in 0 until 8) {
+                values[i] = ((uuid.leastSignificantBits ushr (8 * i)) and 0xFF).toInt()
+                values[8 + i] = ((uuid.mostSignificantBits ushr (8 * i)) and 0xFF).toInt()
+            }
+            return values
+        }
+    }
+
+    @Test
+    fun parse_structures() {
+        val data = AdvertisingData().parse(BYTES)
+        assertEquals(7, data.structureCount)
+        assertFalse(data.isTruncated)
+        assertEquals(AdvertisingData.TYPE_FLAGS, data.getType(0))
+        assertEquals(2, data.getDataOffset(0))
+        assertEquals(1, data.getDataLength(0))
+        assertEquals(0x06, data.flags)
+        assertEquals(-12, data.txPowerLevel)
+        assertEquals("FNDR", data.getName())
+    }
+
+    @Test
+    fun serviceUuids() {
+        val data = AdvertisingData().parse(BYTES)
+        assertTrue(data.containsServiceUuid16(0x180F))
+        assertTrue(data.containsServiceUuid16(0x180A))
+        assertFalse(data.containsServiceUuid16(0x1800))
+        assertTrue(data.containsServiceUuid128(UUID_128.mostSignificantBits, UUID_128.leastSignificantBits))
+        assertFalse(data.containsServiceUuid128(UUID_128.mostSignificantBits, 0))
+    }
+
+    @Test
+    fun serviceData() {
+        val data = AdvertisingData().parse(BYTES)
+        val index = data.indexOfServiceData16(0x180F)
+        assertTrue(index >= 0)
+        assertEquals(2, data.getServiceDataLength(index))
+        assertEquals(0x64, data.getUInt8(data.getServiceDataOffset(index)))
+        assertEquals(-1, data.indexOfServiceData16(0x180A))
+    }
+
+    @Test
+    fun manufacturerData() {
+        val data = AdvertisingData().parse(BYTES)
+        val index = data.indexOfManufacturerData(0x004C)
+        assertTrue(index >= 0)
+        assertEquals(0x004C, data.getManufacturerId(index))
+        assertEquals(4, data.getManufacturerDataLength(index))
+        assertEquals(0x1502, data.getUInt16(data.getManufacturerDataOffset(index)))
+        assertEquals(index, data.indexOfManufacturerData())
+        assertEquals(-1, data.indexOfManufacturerData(0x0059))
+    }
+
+    @Test
+    fun parse_truncated() {
+        val data = AdvertisingData().parse(bytes(0x02, 0x01, 0x06, 0x05, 0x09, 'A'.toInt()))
+        assertTrue(data.isTruncated)
+        assertEquals(1, data.structureCount)
+        assertEquals(0x06, data.flags)
+        assertNull(data.getName())
+    }
+
+    @Test
+    fun parse_null_and_reuse() {
+        val data = AdvertisingData().parse(BYTES)
+        data.parse(null)
+        assertEquals(0, data.structureCount)
+        assertEquals(AdvertisingData.FLAGS_NONE, data.flags)
+        assertEquals(AdvertisingData.TX_POWER_LEVEL_NONE, data.txPowerLevel)
+        data.parse(BYTES)
+        assertEquals(7, data.structureCount)
+    }
+
+    @Test
+    fun wrap_lazy_and_memoized() {
+        val data = AdvertisingData().wrap(BYTES)
+        val name = data.getName()
+        assertEquals("FNDR", name)
+        assertSame(name, data.getName())
+        assertEquals(0x004C, data.manufacturerId)
+        assertEquals(2, data.serviceUuid16Count)
+        assertEquals(0x180F, data.getServiceUuid16(0))
+        assertEquals(0x180A, data.getServiceUuid16(1))
+        data.wrap(bytes(0x02, 0x01, 0x05))
+        assertNull(data.getName())
+        assertEquals(0x05, data.flags)
+        assertEquals(AdvertisingData.MANUFACTURER_ID_ANY, data.manufacturerId)
+        assertEquals(0, data.serviceUuid16Count)
+        assertEquals(1, data.structureCount)
+    }
+
+    @Test
+    fun hash() {
+        val copy = BYTES.copyOf()
+        assertEquals(AdvertisingData.hash(BYTES), AdvertisingData.hash(copy))
+        copy[copy.size - 1] = 1
+        assertNotEquals(AdvertisingData.hash(BYTES), AdvertisingData.hash(copy))
+        assertNotEquals(AdvertisingData.hash(BYTES, 0, 3), AdvertisingData.hash(BYTES, 0, 4))
+    }
+}
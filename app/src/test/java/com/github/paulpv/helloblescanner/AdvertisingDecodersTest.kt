@@ -0,0 +1,218 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.decoders.AdvertisingDecoder
+import com.github.paulpv.helloblescanner.decoders.AdvertisingDecoders
+import com.github.paulpv.helloblescanner.scanners.AdvertisementEvent
+import org.junit.Assert.*
+import org.junit.Test
+
+class AdvertisingDecodersTest {
+    companion object {
+        private const val NANOS_PER_MILLI = 1_000_000L
+
+        private const val MAC_ADDRESS_LONG = 0x0E06E575F0AEL
+
+        /**
+         * Not assigned by the Bluetooth SIG; used for the registry test
+         */
+        private const val COMPANY_ID_TEST = 0xFFFF
+
+        private fun bytes(vararg values: Int) = ByteArray(values.size) { values[it].toByte() }
+
+        private val ID_0_7 = intArrayOf(0x01, 0x23, 0x45, 0x67, 0x89, 0xAB, 0xCD, 0xEF)
+        private val ID_8_15 = intArrayOf(0xFE, 0xDC, 0xBA, 0x98, 0x76, 0x54, 0x32, 0x10)
+        private const val ID_MOST_SIGNIFICANT_BITS = 0x0123456789ABCDEFL
+        private const val ID_LEAST_SIGNIFICANT_BITS = -0x0123456789abcdf0L // 0xFEDCBA9876543210
+
+        /**
+         * Flags, then an iBeacon: ID, major 0x1234, minor 0x5678, measured power -59
+         */
+        private val IBEACON = bytes(
+            0x02, 0x01, 0x06,
+            0x1A, 0xFF, 0x4C, 0x00, 0x02, 0x15, *ID_0_7, *ID_8_15, 0x12, 0x34, 0x56, 0x78, 0xC5
+        )
+
+        /**
+         * Flags, the Eddystone service UUID, then service data starting with the service UUID and the given frame
+         */
+        private fun eddystone(vararg frame: Int) = bytes(
+            0x02, 0x01, 0x06,
+            0x03, 0x03, 0xAA, 0xFE,
+            3 + frame.size, 0x16, 0xAA, 0xFE, *frame
+        )
+
+        /**
+         * TX power at 0m -20, namespace and instance ID, 2 reserved bytes
+         */
+        private val EDDYSTONE_UID = eddystone(0x00, 0xEC, *ID_0_7, *ID_8_15, 0x00, 0x00)
+
+        /**
+         * TX power at 0m -18, "https://" + "goo.gl"
+         */
+        private val EDDYSTONE_URL = eddystone(
+            0x10, 0xEE, 0x03, 'g'.toInt(), 'o'.toInt(), 'o'.toInt(), '.'.toInt(), 'g'.toInt(), 'l'.toInt()
+        )
+
+        /**
+         * Unencrypted, 3000mV, 25.5C, 256 advertisements, 512 deciseconds
+         */
+        private val EDDYSTONE_TLM = eddystone(
+            0x20, 0x00, 0x0B, 0xB8, 0x19, 0x80, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x02, 0x00
+        )
+
+        /**
+         * TX power at 0m -16, ephemeral ID
+         */
+        private val EDDYSTONE_EID = eddystone(0x30, 0xF0, *ID_0_7)
+
+        /**
+         * Flags, then the Battery Level of the Battery Service, 85%
+         */
+        private val BATTERY_SERVICE = bytes(
+            0x02, 0x01, 0x06,
+            0x04, 0x16, 0x0F, 0x18, 0x55
+        )
+    }
+
+    private val event = AdvertisementEvent()
+    private var timestampNanos = 0L
+
+    private fun newScanResult(payload: ByteArray): BleScanResult {
+        return BleScanResult(event.set(MAC_ADDRESS_LONG, -60, timestampNanos, 0, 0, payload))
+    }
+
+    private fun BleScanResult.advertise(payload: ByteArray) {
+        timestampNanos += 100 * NANOS_PER_MILLI
+        update(event.set(MAC_ADDRESS_LONG, -60, timestampNanos, 0, 0, payload))
+    }
+
+    @Test
+    fun iBeacon() {
+        val scanResult = newScanResult(IBEACON)
+        assertEquals(BleScanResult.BEACON_TYPE_IBEACON, scanResult.beaconType)
+        assertEquals(ID_MOST_SIGNIFICANT_BITS, scanResult.beaconIdMostSignificantBits)
+        assertEquals(ID_LEAST_SIGNIFICANT_BITS, scanResult.beaconIdLeastSignificantBits)
+        assertEquals(0x1234, scanResult.beaconMajor)
+        assertEquals(0x5678, scanResult.beaconMinor)
+        assertEquals(-59, scanResult.beaconTxPowerCalibrated)
+    }
+
+    @Test
+    fun iBeacon_wrongTypeIsIgnored() {
+        val payload = IBEACON.copyOf()
+        payload[7] = 0x01
+        val scanResult = newScanResult(payload)
+        assertEquals(BleScanResult.BEACON_TYPE_NONE, scanResult.beaconType)
+        assertEquals(AdvertisingData.TX_POWER_LEVEL_NONE, scanResult.beaconTxPowerCalibrated)
+    }
+
+    @Test
+    fun eddystone_uid() {
+        val scanResult = newScanResult(EDDYSTONE_UID)
+        assertEquals(BleScanResult.BEACON_TYPE_EDDYSTONE_UID, scanResult.beaconType)
+        assertEquals(ID_MOST_SIGNIFICANT_BITS, scanResult.beaconIdMostSignificantBits)
+        assertEquals(ID_LEAST_SIGNIFICANT_BITS, scanResult.beaconIdLeastSignificantBits)
+        assertEquals(-20, scanResult.beaconTxPowerCalibrated)
+    }
+
+    @Test
+    fun eddystone_url() {
+        val scanResult = newScanResult(EDDYSTONE_URL)
+        assertEquals(BleScanResult.BEACON_TYPE_EDDYSTONE_URL, scanResult.beaconType)
+        assertEquals(-18, scanResult.beaconTxPowerCalibrated)
+        assertEquals(0L, scanResult.beaconIdMostSignificantBits)
+    }
+
+    @Test
+    fun eddystone_tlm() {
+        val scanResult = newScanResult(EDDYSTONE_TLM)
+        assertEquals(3000, scanResult.batteryMillivolts)
+        assertEquals(BleScanResult.BEACON_TYPE_NONE, scanResult.beaconType)
+    }
+
+    @Test
+    fun eddystone_eid() {
+        val scanResult = newScanResult(EDDYSTONE_EID)
+        assertEquals(BleScanResult.BEACON_TYPE_EDDYSTONE_EID, scanResult.beaconType)
+        assertEquals(ID_MOST_SIGNIFICANT_BITS, scanResult.beaconIdMostSignificantBits)
+        assertEquals(0L, scanResult.beaconIdLeastSignificantBits)
+        assertEquals(-16, scanResult.beaconTxPowerCalibrated)
+    }
+
+    @Test
+    fun eddystone_tlmInterleavedWithUid_keepsBoth() {
+        // NOTE:(pv) The beacon TX power is what ProximityEngine.getMeasuredPowerAt1m prefers, so it must not flap either
+        val scanResult = newScanResult(EDDYSTONE_UID)
+        for (i in 0 until 4) {
+            scanResult.advertise(EDDYSTONE_TLM)
+            assertTrue(scanResult.isPayloadChanged)
+            assertEquals(BleScanResult.BEACON_TYPE_EDDYSTONE_UID, scanResult.beaconType)
+            assertEquals(ID_MOST_SIGNIFICANT_BITS, scanResult.beaconIdMostSignificantBits)
+            assertEquals(ID_LEAST_SIGNIFICANT_BITS, scanResult.beaconIdLeastSignificantBits)
+            assertEquals(-20, scanResult.beaconTxPowerCalibrated)
+            assertEquals(3000, scanResult.batteryMillivolts)
+
+            scanResult.advertise(EDDYSTONE_UID)
+            assertTrue(scanResult.isPayloadChanged)
+            assertEquals(BleScanResult.BEACON_TYPE_EDDYSTONE_UID, scanResult.beaconType)
+            assertEquals(-20, scanResult.beaconTxPowerCalibrated)
+            assertEquals(3000, scanResult.batteryMillivolts)
+        }
+    }
+
+    @Test
+    fun eddystone_unknownFrameIsIgnored() {
+        val scanResult = newScanResult(eddystone(0x40, 0x00))
+        assertEquals(BleScanResult.BEACON_TYPE_NONE, scanResult.beaconType)
+    }
+
+    @Test
+    fun batteryService() {
+        val scanResult = newScanResult(BATTERY_SERVICE)
+        assertEquals(85, scanResult.batteryPercent)
+        assertEquals(BleScanResult.BATTERY_MILLIVOLTS_NONE, scanResult.batteryMillivolts)
+        // Out of range is ignored, and keeps the last value
+        val payload = BATTERY_SERVICE.copyOf()
+        payload[payload.size - 1] = 101
+        scanResult.advertise(payload)
+        assertEquals(85, scanResult.batteryPercent)
+    }
+
+    @Test
+    fun registry_dispatchesByCompanyId() {
+        var calls = 0
+        var decoded = 0
+        val decoder = object : AdvertisingDecoder {
+            override fun decode(data: AdvertisingData, index: Int, result: BleScanResult): Boolean {
+                assertEquals(COMPANY_ID_TEST, data.getManufacturerId(index))
+                calls++
+                decoded = data.getUInt8(data.getManufacturerDataOffset(index))
+                return true
+            }
+        }
+        assertNull(AdvertisingDecoders.registerManufacturer(COMPANY_ID_TEST, decoder))
+        try {
+            // Flags, test manufacturer data 42, then the Battery Level of the Battery Service, 85%
+            val data = AdvertisingData().parse(
+                bytes(
+                    0x02, 0x01, 0x06,
+                    0x04, 0xFF, 0xFF, 0xFF, 0x2A,
+                    0x04, 0x16, 0x0F, 0x18, 0x55
+                )
+            )
+            val scanResult = newScanResult(IBEACON)
+            assertEquals(2, AdvertisingDecoders.decode(data, scanResult))
+            assertEquals(1, calls)
+            assertEquals(42, decoded)
+            assertEquals(85, scanResult.batteryPercent)
+            // Structures without a decoder are skipped
+            val unregistered = AdvertisingData().parse(bytes(0x04, 0xFF, 0x59, 0x00, 0x01))
+            assertEquals(0, AdvertisingDecoders.decode(unregistered, scanResult))
+        } finally {
+            assertSame(decoder, AdvertisingDecoders.registerManufacturer(COMPANY_ID_TEST, null))
+        }
+        val unregistered = AdvertisingData().parse(bytes(0x04, 0xFF, 0xFF, 0xFF, 0x2A))
+        assertEquals(0, AdvertisingDecoders.decode(unregistered, newScanResult(IBEACON)))
+        assertEquals(1, calls)
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.scanners.AdvertisementEvent
+import com.github.paulpv.helloblescanner.scanners.PayloadPool
+import com.github.paulpv.helloblescanner.scanners.ScanSession
+import org.junit.Assert.*
+import org.junit.Test
+
+class BleScanResultFootprintTest {
+    companion object {
+        private const val NANOS_PER_MILLI = 1_000_000L
+
+        private const val DEVICE_COUNT = 3
+
+        /**
+         * What the OS delivers: the advertisement plus scan response, zero padded
+         */
+        private const val SCAN_RECORD_LENGTH = 62
+
+        private fun bytes(vararg values: Int) = ByteArray(values.size) { values[it].toByte() }
+
+        /**
+         * Flags, complete name "FNDR", then manufacturer data that is unique to each device if unique
+         */
+        private fun scanRecord(device: Int, unique: Boolean): ByteArray {
+            val scanRecord = ByteArray(SCAN_RECORD_LENGTH)
+            val structures = bytes(
+                0x02, 0x01, 0x06,
+                0x05, 0x09, 'F'.toInt(), 'N'.toInt(), 'D'.toInt(), 'R'.toInt(),
+                0x07, 0xFF, 0x4C, 0x00, 0x00, 0x00, 0x00, 0x00
+            )
+            structures.copyInto(scanRecord)
+            if (unique) {
+                scanRecord[13] = device.toByte()
+                scanRecord[14] = (device shr 8).toByte()
+                scanRecord[15] = (device shr 16).toByte()
+            }
+            return scanRecord
+        }
+    }
+
+    @Test
+    fun payloadPool_trimsAndShares() {
+        val pool = PayloadPool()
+        val scanRecord = scanRecord(0, false)
+        val payload = pool.obtain(AdvertisingData.hash(scanRecord), scanRecord, 0, scanRecord.size)
+        assertEquals(17, payload.size)
+        // A different array with the same bytes (as the OS delivers for every advertisement) gets the same copy
+        val again = scanRecord(0, false)
+        assertSame(payload, pool.obtain(AdvertisingData.hash(again), again, 0, again.size))
+        // Truncated structures are kept whole
+        val truncated = bytes(0x02, 0x01, 0x06, 0x05, 0x09, 'A'.toInt())
+        assertEquals(truncated.size, PayloadPool.getSignificantLength(truncated, 0, truncated.size))
+    }
+
+    @Test
+    fun trackedDevices_keepOnlyTheTrimmedPayload() {
+        for (unique in booleanArrayOf(true, false)) {
+            val session = ScanSession(payloadPool = PayloadPool())
+            val devices = track(session, unique)
+            for (device in devices) {
+                assertEquals("FNDR", device.name)
+                assertEquals(-61, device.rssi)
+                assertEquals(17, device.advertisingData.bytes!!.size)
+            }
+            // Devices that advertise the same bytes share one copy of them
+            assertEquals(!unique, devices[0].advertisingData.bytes === devices[1].advertisingData.bytes)
+        }
+    }
+
+    @Test
+    fun trackedDevices_withoutPayloadPool() {
+        for (device in track(ScanSession(), false)) {
+            assertEquals("FNDR", device.name)
+            assertEquals(-61, device.rssi)
+            assertEquals(SCAN_RECORD_LENGTH, device.advertisingData.bytes!!.size)
+        }
+    }
+
+    private fun track(session: ScanSession, unique: Boolean): List<BleScanResult> {
+        val event = AdvertisementEvent()
+        return (0 until DEVICE_COUNT).map { i ->
+            event.set(i.toLong(), -60, 0, AdvertisementEvent.TX_POWER_NONE, 0, scanRecord(i, unique))
+            val device = BleScanResult(event, session)
+            // A second advertisement, as a tracked device has had many
+            event.set(i.toLong(), -61, 100 * NANOS_PER_MILLI, AdvertisementEvent.TX_POWER_NONE, 0, scanRecord(i, unique))
+            device.update(event, session)
+            assertFalse(device.isPayloadChanged)
+            device
+        }
+    }
+}
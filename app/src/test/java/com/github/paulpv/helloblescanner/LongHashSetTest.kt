@@ -0,0 +1,49 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.collections.LongHashSet
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+class LongHashSetTest {
+    @Test
+    fun addContainsClear() {
+        val set = LongHashSet()
+        assertTrue(set.add(0x0E06E575F0AEL))
+        assertFalse(set.add(0x0E06E575F0AEL))
+        assertTrue(set.add(Long.MIN_VALUE))
+        assertTrue(set.add(0L))
+        assertEquals(3, set.size())
+        assertTrue(set.contains(Long.MIN_VALUE))
+        assertFalse(set.contains(1L))
+        // In the order first added
+        assertEquals(0x0E06E575F0AEL, set.keyAt(0))
+        assertEquals(0L, set.keyAt(2))
+        set.clear()
+        assertTrue(set.isEmpty())
+        assertFalse(set.contains(0L))
+        assertTrue(set.add(0L))
+    }
+
+    @Test
+    fun matchesReference() {
+        val random = Random(42)
+        val set = LongHashSet()
+        val reference = LinkedHashSet<Long>()
+        for (round in 0 until 200) {
+            for (i in 0 until random.nextInt(300)) {
+                // Sequential keys, like MAC addresses of one vendor, plus some random ones
+                val key = if (random.nextBoolean()) random.nextInt(500).toLong() else random.nextLong()
+                assertEquals(reference.add(key), set.add(key))
+            }
+            assertEquals(reference.size, set.size())
+            reference.forEachIndexed { index, key ->
+                assertEquals(key, set.keyAt(index))
+                assertTrue(set.contains(key))
+            }
+            assertFalse(set.contains(-1L))
+            set.clear()
+            reference.clear()
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.utils.MacAddress
+import com.github.paulpv.helloblescanner.utils.MacAddressCodec
+import org.junit.Assert.*
+import org.junit.Test
+
+class MacAddressTest {
+    @Test
+    fun parse() {
+        assertEquals(0x0E06E575F0AEL, MacAddressCodec.parse("0E:06:E5:75:F0:AE"))
+        assertEquals(0x0E06E575F0AEL, MacAddressCodec.parse("0e-06-e5-75-f0-ae"))
+        assertEquals(0L, MacAddressCodec.parse("00:00:00:00:00:00"))
+        assertEquals(0xFFFFFFFFFFFFL, MacAddressCodec.parse("FF:FF:FF:FF:FF:FF"))
+    }
+
+    @Test
+    fun parse_invalid() {
+        for (invalid in arrayOf("", "0E:06:E5:75:F0", "0E:06:E5:75:F0:AE:", "0E:06:E5:75:F0:AG", "0E06:E5:75:F0:AE0")) {
+            assertFalse(invalid, MacAddressCodec.isValid(invalid))
+            try {
+                MacAddressCodec.parse(invalid)
+                fail("Expected IllegalArgumentException for \"$invalid\"")
+            } catch (e: IllegalArgumentException) {
+                // expected
+            }
+        }
+        assertTrue(MacAddressCodec.isValid("0E:06:E5:75:F0:AE"))
+    }
+
+    @Test
+    fun format() {
+        val string = MacAddressCodec.format(0x0E06E575F0AEL)
+        assertEquals("0E:06:E5:75:F0:AE", string)
+        assertSame(string, MacAddressCodec.format(0x0E06E575F0AEL))
+        assertEquals("00:00:00:00:00:01", MacAddressCodec.format(1L))
+        val buffer = CharArray(MacAddressCodec.LENGTH + 1)
+        assertEquals(MacAddressCodec.LENGTH + 1, MacAddressCodec.formatTo(0xFFFFFFFFFFFFL, buffer, 1))
+        assertEquals("FF:FF:FF:FF:FF:FF", String(buffer, 1, MacAddressCodec.LENGTH))
+    }
+
+    @Test
+    fun macAddress() {
+        val mac = MacAddress.parse("0E:06:E5:75:F0:AE")
+        assertEquals(0x0E06E5L, mac.oui)
+        assertEquals(0x75F0AEL, mac.nic)
+        assertTrue(mac.isLocallyAdministered)
+        assertFalse(mac.isMulticast)
+        assertFalse(MacAddress(0x0C06E575F0AEL).isLocallyAdministered)
+        assertTrue(MacAddress(0x0106E575F0AEL).isMulticast)
+        assertEquals("0E:06:E5:75:F0:AE", mac.toString())
+    }
+}
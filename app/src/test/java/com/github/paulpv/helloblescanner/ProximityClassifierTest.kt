@@ -0,0 +1,44 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.proximity.PathLossModel
+import com.github.paulpv.helloblescanner.proximity.ProximityClassifier
+import com.github.paulpv.helloblescanner.proximity.ProximityZone
+import org.junit.Assert.*
+import org.junit.Test
+
+class ProximityClassifierTest {
+    @Test
+    fun pathLossModel() {
+        val model = PathLossModel(pathLossExponent = 2.0)
+        assertEquals(1.0, model.estimateMeters(-59.0, -59), 0.0001)
+        assertEquals(10.0, model.estimateMeters(-79.0, -59), 0.0001)
+        assertEquals(0.1, model.estimateMeters(-39.0, -59), 0.0001)
+        assertEquals(10.0, PathLossModel(pathLossExponent = 4.0).estimateMeters(-99.0, -59), 0.0001)
+    }
+
+    @Test
+    fun classify_withoutHistory() {
+        val classifier = ProximityClassifier(immediateMaxMeters = 0.5, nearMaxMeters = 3.0, hysteresis = 0.2)
+        assertEquals(ProximityZone.Immediate, classifier.classify(0.4, ProximityZone.Unknown))
+        assertEquals(ProximityZone.Near, classifier.classify(2.9, ProximityZone.Unknown))
+        assertEquals(ProximityZone.Far, classifier.classify(3.1, ProximityZone.Unknown))
+        assertEquals(ProximityZone.Unknown, classifier.classify(Double.NaN, ProximityZone.Near))
+    }
+
+    @Test
+    fun classify_hysteresis() {
+        val classifier = ProximityClassifier(immediateMaxMeters = 0.5, nearMaxMeters = 3.0, hysteresis = 0.2)
+        // Leaving Near outward takes more than 3.6m
+        assertEquals(ProximityZone.Near, classifier.classify(3.5, ProximityZone.Near))
+        assertEquals(ProximityZone.Far, classifier.classify(3.7, ProximityZone.Near))
+        // Coming back in from Far takes less than 2.4m
+        assertEquals(ProximityZone.Far, classifier.classify(2.5, ProximityZone.Far))
+        assertEquals(ProximityZone.Near, classifier.classify(2.3, ProximityZone.Far))
+        // Immediate <-> Near around 0.5m: 0.6m outward, 0.4m inward
+        assertEquals(ProximityZone.Immediate, classifier.classify(0.55, ProximityZone.Immediate))
+        assertEquals(ProximityZone.Near, classifier.classify(0.45, ProximityZone.Near))
+        assertEquals(ProximityZone.Immediate, classifier.classify(0.35, ProximityZone.Near))
+        // Far straight to Immediate
+        assertEquals(ProximityZone.Immediate, classifier.classify(0.1, ProximityZone.Far))
+    }
+}
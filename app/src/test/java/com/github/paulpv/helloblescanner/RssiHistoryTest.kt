@@ -0,0 +1,92 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.utils.RssiHistory
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.sqrt
+
+class RssiHistoryTest {
+    companion object {
+        private const val NANOS_PER_MILLI = 1_000_000L
+    }
+
+    @Test
+    fun statistics() {
+        val history = RssiHistory(capacity = 4)
+        val statistics = RssiHistory.Statistics()
+        history.read(statistics)
+        assertEquals(0, statistics.count)
+
+        history.add(-60, 0)
+        history.add(-70, 100 * NANOS_PER_MILLI)
+        history.add(-50, 300 * NANOS_PER_MILLI)
+        history.read(statistics)
+        assertEquals(3, statistics.count)
+        assertEquals(-70, statistics.min)
+        assertEquals(-50, statistics.max)
+        assertEquals(-60.0, statistics.mean, 0.0001)
+        assertEquals(sqrt(200.0 / 3), statistics.standardDeviation, 0.0001)
+        assertEquals(-60, statistics.median)
+        assertEquals(300L, statistics.spanMillis)
+    }
+
+    @Test
+    fun evictsOldest() {
+        val history = RssiHistory(capacity = 3)
+        val statistics = RssiHistory.Statistics()
+        history.add(-90, 0)
+        history.add(-60, 100 * NANOS_PER_MILLI)
+        history.add(-40, 200 * NANOS_PER_MILLI)
+        history.add(-50, 400 * NANOS_PER_MILLI)
+        history.read(statistics)
+        assertEquals(3, statistics.count)
+        // -90 (the min) was evicted
+        assertEquals(-60, statistics.min)
+        assertEquals(-40, statistics.max)
+        assertEquals(-50.0, statistics.mean, 0.0001)
+        assertEquals(300L, statistics.spanMillis)
+        history.add(-55, 500 * NANOS_PER_MILLI)
+        history.add(-55, 600 * NANOS_PER_MILLI)
+        history.read(statistics)
+        // -60 and then -40 (the max) were evicted
+        assertEquals(-55, statistics.min)
+        assertEquals(-50, statistics.max)
+    }
+
+    @Test
+    fun percentiles() {
+        val history = RssiHistory(capacity = 10)
+        for (i in 0 until 10) {
+            history.add(-100 + 5 * i, i * 100 * NANOS_PER_MILLI)
+        }
+        assertEquals(-100, history.percentile(0))
+        assertEquals(-100, history.percentile(10))
+        assertEquals(-80, history.percentile(50))
+        assertEquals(-60, history.percentile(90))
+        assertEquals(-55, history.percentile(100))
+    }
+
+    @Test
+    fun concurrentReads_areConsistent() {
+        val history = RssiHistory(capacity = 8)
+        // Every window of 8 consecutive samples is 4 of -40 and 4 of -80, so every consistent read sees mean -60
+        for (i in 0 until 8) {
+            history.add(if (i % 2 == 0) -40 else -80, i * NANOS_PER_MILLI)
+        }
+        val writer = Thread {
+            for (i in 8 until 2_000_000) {
+                history.add(if (i % 2 == 0) -40 else -80, i * NANOS_PER_MILLI)
+            }
+        }
+        writer.start()
+        val statistics = RssiHistory.Statistics()
+        while (writer.isAlive) {
+            history.read(statistics)
+            assertEquals(8, statistics.count)
+            assertEquals(-60.0, statistics.mean, 0.0001)
+            assertEquals(-80, statistics.min)
+            assertEquals(-40, statistics.max)
+        }
+        writer.join()
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.utils.EwmaRssiSmoother
+import com.github.paulpv.helloblescanner.utils.KalmanRssiSmoother
+import com.github.paulpv.helloblescanner.utils.MedianRssiSmoother
+import com.github.paulpv.helloblescanner.utils.RssiSmoother
+import com.github.paulpv.helloblescanner.utils.RssiSmoothingState
+import org.junit.Assert.*
+import org.junit.Test
+
+class RssiSmootherTest {
+    companion object {
+        private const val NANOS_PER_MILLI = 1_000_000L
+
+        /**
+         * A noisy, repeating sequence of samples around -60
+         */
+        private val SAMPLES = intArrayOf(-60, -58, -63, -61, -75, -59, -60, -62, -57, -60, -61, -64, -59, -58, -60, -62)
+    }
+
+    @Test
+    fun firstSample_isTheEstimate() {
+        for (smoother in arrayOf(EwmaRssiSmoother(), MedianRssiSmoother(), KalmanRssiSmoother())) {
+            val state = RssiSmoothingState()
+            assertTrue(state.update(smoother, -70, 0))
+            assertEquals(smoother.toString(), -70, state.smoothed)
+            assertEquals(1, state.sampleCount)
+        }
+    }
+
+    @Test
+    fun ewma_scalesWithElapsedTime() {
+        val smoother = EwmaRssiSmoother(halfLifeMillis = 1000)
+        val state = RssiSmoothingState()
+        state.update(smoother, -80, 0)
+        // One half-life later the new sample and the old estimate weigh the same
+        state.update(smoother, -60, 1000 * NANOS_PER_MILLI)
+        assertEquals(-70.0, state.estimate, 0.001)
+        // Ten half-lives later the old estimate is all but forgotten
+        state.update(smoother, -40, 11_000 * NANOS_PER_MILLI)
+        assertEquals(-40, state.smoothed)
+    }
+
+    @Test
+    fun median_ignoresOutlier() {
+        val smoother = MedianRssiSmoother(windowSize = 5)
+        val state = RssiSmoothingState()
+        val samples = intArrayOf(-60, -61, -100, -59, -60)
+        for (i in samples.indices) {
+            state.update(smoother, samples[i], i * 100 * NANOS_PER_MILLI)
+        }
+        assertEquals(-60, state.smoothed)
+        // An even number of samples averages the middle two
+        state.reset()
+        state.update(smoother, -60, 0)
+        state.update(smoother, -70, 100 * NANOS_PER_MILLI)
+        assertEquals(-65.0, state.estimate, 0.0)
+    }
+
+    @Test
+    fun median_restartsWhenStale() {
+        val smoother = MedianRssiSmoother(windowSize = 5, staleMillis = 1000)
+        val state = RssiSmoothingState()
+        state.update(smoother, -90, 0)
+        state.update(smoother, -90, 100 * NANOS_PER_MILLI)
+        state.update(smoother, -50, 5000 * NANOS_PER_MILLI)
+        assertEquals(-50, state.smoothed)
+        assertEquals(1, state.windowCount)
+    }
+
+    @Test
+    fun kalman_convergesAndTrustsSamplesMoreAfterGaps() {
+        val smoother = KalmanRssiSmoother()
+        val state = RssiSmoothingState()
+        state.update(smoother, -80, 0)
+        val quick = RssiSmoothingState()
+        quick.update(smoother, -80, 0)
+        state.update(smoother, -60, 10_000 * NANOS_PER_MILLI)
+        quick.update(smoother, -60, 100 * NANOS_PER_MILLI)
+        assertTrue(state.estimate > quick.estimate)
+        for (i in 2 until 100) {
+            state.update(smoother, -60, i * 100 * NANOS_PER_MILLI + 10_000 * NANOS_PER_MILLI)
+        }
+        assertEquals(-60, state.smoothed)
+    }
+
+    @Test
+    fun changingSmoother_resetsState() {
+        val state = RssiSmoothingState()
+        state.update(EwmaRssiSmoother(), -80, 0)
+        state.update(KalmanRssiSmoother(), -40, 100 * NANOS_PER_MILLI)
+        assertEquals(-40, state.smoothed)
+        assertEquals(1, state.sampleCount)
+    }
+
+    @Test
+    fun noisySamples_settleNearTheMean() {
+        for (smoother in arrayOf(EwmaRssiSmoother(), MedianRssiSmoother(), KalmanRssiSmoother())) {
+            val state = RssiSmoothingState()
+            var timestampNanos = 0L
+            for (i in 0 until 4 * SAMPLES.size) {
+                timestampNanos += 100 * NANOS_PER_MILLI
+                state.update(smoother, SAMPLES[i % SAMPLES.size], timestampNanos)
+                assertTrue("$smoother ${state.smoothed}", state.smoothed in -75..-57)
+            }
+            assertEquals("$smoother", -60.0, state.smoothed.toDouble(), 3.0)
+        }
+    }
+}
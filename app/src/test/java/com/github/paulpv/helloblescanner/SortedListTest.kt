@@ -0,0 +1,134 @@
+package com.github.paulpv.helloblescanner
+
+import com.github.paulpv.helloblescanner.collections.SortedList
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+class SortedListTest {
+    private class Item(val key: Long, val score: Int, val content: Int = 0) {
+        override fun toString(): String {
+            return "{ key=$key, score=$score, content=$content }"
+        }
+    }
+
+    /**
+     * Sorts by score, then key, so that the order is total; counts the events it receives
+     */
+    private open class ItemCallback : SortedList.Callback<Item>() {
+        var inserted = 0
+        var removed = 0
+        var changed = 0
+
+        override fun compare(o1: Item, o2: Item): Int {
+            val result = o1.score.compareTo(o2.score)
+            return if (result != 0) result else o1.key.compareTo(o2.key)
+        }
+
+        override fun areItemsTheSame(item1: Item, item2: Item) = item1.key == item2.key
+
+        override fun areContentsTheSame(oldItem: Item, newItem: Item) =
+            oldItem.score == newItem.score && oldItem.content == newItem.content
+
+        override fun onInserted(position: Int, count: Int) {
+            inserted += count
+        }
+
+        override fun onRemoved(position: Int, count: Int) {
+            removed += count
+        }
+
+        override fun onMoved(fromPosition: Int, toPosition: Int) {
+        }
+
+        override fun onChanged(position: Int, count: Int) {
+            changed += count
+        }
+
+        fun reset() {
+            inserted = 0
+            removed = 0
+            changed = 0
+        }
+    }
+
+    private class KeyedItemCallback : ItemCallback() {
+        override fun getItemKey(item: Item) = item.key
+    }
+
+    private fun SortedList<Item>.toList() = (0 until size()).map { get(it) }
+
+    private fun assertSorted(list: SortedList<Item>, callback: ItemCallback) {
+        val items = list.toList()
+        for (i in 1 until items.size) {
+            assertTrue("$items", callback.compare(items[i - 1], items[i]) < 0)
+        }
+    }
+
+    private fun newList(callback: ItemCallback): SortedList<Item> {
+        val list = SortedList(Item::class.java, callback)
+        list.addAll((1..5).map { Item(it.toLong(), it * 10) })
+        callback.reset()
+        return list
+    }
+
+    private fun mergeUpdates_sortKeyChanged(callback: ItemCallback) {
+        val list = newList(callback)
+        val moved = Item(2, 100)
+        val added = Item(6, 5)
+        list.mergeUpdates(arrayOf(moved, added), 2)
+        assertEquals(6, list.size())
+        assertSorted(list, callback)
+        assertEquals(listOf(6L, 1L, 3L, 4L, 5L, 2L), list.toList().map { it.key })
+        assertSame(moved, list.get(5))
+        assertEquals(1, callback.removed)
+        assertEquals(2, callback.inserted)
+    }
+
+    @Test
+    fun mergeUpdates_sortKeyChanged_keyed() = mergeUpdates_sortKeyChanged(KeyedItemCallback())
+
+    @Test
+    fun mergeUpdates_sortKeyChanged_notKeyed() = mergeUpdates_sortKeyChanged(ItemCallback())
+
+    @Test
+    fun mergeUpdates_sortKeyUnchanged_changesInPlace() {
+        val callback = KeyedItemCallback()
+        val list = newList(callback)
+        val updated = Item(3, 30, 1)
+        list.mergeUpdates(arrayOf(updated, Item(4, 40)), 2)
+        assertEquals(5, list.size())
+        assertSame(updated, list.get(2))
+        assertEquals(0, callback.removed)
+        assertEquals(0, callback.inserted)
+        assertEquals(1, callback.changed)
+    }
+
+    @Test
+    fun mergeUpdates_matchesReference() {
+        val random = Random(42)
+        val callback = KeyedItemCallback()
+        val list = SortedList(Item::class.java, callback)
+        val reference = mutableMapOf<Long, Item>()
+        val batch = arrayOfNulls<Item>(64)
+        for (round in 0 until 500) {
+            val keys = mutableSetOf<Long>()
+            var count = 0
+            for (i in 0 until 1 + random.nextInt(batch.size)) {
+                val key = random.nextInt(200).toLong()
+                if (keys.add(key)) {
+                    val item = Item(key, random.nextInt(50))
+                    batch[count++] = item
+                    reference[key] = item
+                }
+            }
+            @Suppress("UNCHECKED_CAST")
+            list.mergeUpdates(batch as Array<Item>, count)
+            assertEquals(reference.size, list.size())
+            assertSorted(list, callback)
+            for (item in list.toList()) {
+                assertSame(reference[item.key], item)
+            }
+        }
+    }
+}